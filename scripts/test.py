@@ -15,7 +15,10 @@ import tempfile
 
 
 class QEMUARMv8TestRunner:
-    def __init__(self):
+    def __init__(self, opt_flags=None):
+        # 优化等级参数，如["-O2"]，为空时按默认的-O0编译
+        self.opt_flags = opt_flags or []
+
         # 项目根目录
         self.project_root = Path(__file__).parent.parent
 
@@ -135,7 +138,7 @@ class QEMUARMv8TestRunner:
             str(sy_file),
             str(asm_file),
             "-arm",
-        ]
+        ] + self.opt_flags
 
         try:
             result = subprocess.run(
@@ -183,8 +186,11 @@ class QEMUARMv8TestRunner:
             if result.returncode != 0:
                 return False, f"汇编失败: {result.stderr}"
 
-            # 链接，使用GCC和libsysy_arm.a静态库
-            ld_cmd = f"cd {wsl_project_root} && {self.cross_gcc} -static -o {wsl_exe_file} {wsl_obj_file} {wsl_libsysy_arm}"
+            # 链接，使用GCC和libsysy_arm.a静态库，-O2自动并行化需要的运行时parallel_arm.S一并链接
+            wsl_parallel_rt = self.windows_to_wsl_path(
+                str(self.project_root / "parallel_arm.S")
+            )
+            ld_cmd = f"cd {wsl_project_root} && {self.cross_gcc} -static -o {wsl_exe_file} {wsl_obj_file} {wsl_parallel_rt} {wsl_libsysy_arm}"
             result = subprocess.run(
                 ["wsl", "bash", "-c", ld_cmd],
                 capture_output=True,
@@ -496,7 +502,7 @@ def main():
     """主函数"""
     if len(sys.argv) > 1 and sys.argv[1] in ["-h", "--help"]:
         print("QEMU ARMv8-A 功能测试脚本")
-        print("用法: python test.py")
+        print("用法: python test.py [-O1|-O2]")
         print("要求:")
         print("  - Windows环境")
         print("  - WSL with QEMU and AArch64 cross-compilation tools")
@@ -504,7 +510,8 @@ def main():
         print("  - libsysy_arm.a静态库（应放在项目根目录下）")
         return
 
-    runner = QEMUARMv8TestRunner()
+    opt_flags = [arg for arg in sys.argv[1:] if arg in ["-O1", "-O2"]]
+    runner = QEMUARMv8TestRunner(opt_flags)
     success = runner.run_all_tests()
 
     sys.exit(0 if success else 1)
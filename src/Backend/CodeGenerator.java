@@ -0,0 +1,17 @@
+package Backend;
+
+import Driver.Config;
+import IR.IRModule;
+
+import java.io.PrintStream;
+
+/**
+ * 后端入口: 指令选择 -> 寄存器分配 -> 输出汇编
+ */
+public class CodeGenerator {
+    public static void generate(IRModule irModule, PrintStream os) {
+        AsmModule asmModule = new InstSelector().run(irModule);
+        RegAllocator.create(Config.linearRegAlloc).runOnModule(asmModule);
+        new CodeWriter(os).printModule(asmModule);
+    }
+}
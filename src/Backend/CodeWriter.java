@@ -1,24 +1,33 @@
 package Backend;
 
+import IR.Value.ConstFloat;
+import IR.Value.ConstInteger;
 import IR.Value.GlobalVar;
+import IR.Value.Value;
 
 import java.io.PrintStream;
 import java.util.*;
 
+/**
+ * 输出寄存器分配后的MachineIR
+ * 1. const全局数组放在.rodata中，其余有初始值的全局变量放在.data中，全零初始化的放在.bss中
+ * 2. 序言保存fp/lr并建立栈帧，被调用者保存寄存器放在栈帧最上方，每个返回点恢复
+ * 3. 超出编码范围的立即数和访存偏移借助x16/x17展开，这两个寄存器不参与分配
+ * 4. 向量寄存器运算时写作vN.4s，整体访存时写作qN
+ */
 public class CodeWriter {
     private PrintStream os;
 
-    // 名称管理器类
-    static class NameManager {
-        private Map<AsmInst, String> nameMap = new HashMap<>();
-        private int counter = 0; // 简单的计数器命名
+    private static final String scratch = "x16";
+    private static final String scratch32 = "w16";
+    private static final String scratch2 = "x17";
 
-        public String getName(AsmInst inst) {
-            return nameMap.computeIfAbsent(inst, k -> "inst" + (counter++));
-        }
-    }
-
-    private NameManager nameManager = new NameManager();
+    private AsmFunc curFunc;
+    // 被调用者保存寄存器在栈帧中的起始偏移
+    private int calleeSavedBase;
+    private int frameSize;
+    private List<PReg> calleeSaved;
+    private AsmLabel nextLabel;
 
     public CodeWriter(PrintStream os) {
         this.os = os;
@@ -42,15 +51,41 @@ public class CodeWriter {
         os.println();
     }
 
+    private void printAArch64Instr(String op, String... operands) {
+        printAArch64Instr(op, Arrays.asList(operands));
+    }
+
+    private static String cleanName(String name) {
+        return name.startsWith("@") ? name.substring(1) : name;
+    }
+
     // 打印模块
     public void printModule(AsmModule module) {
         // AArch64汇编文件头部
         os.println(".arch armv8-a");
         os.println();
 
+        os.println(".section .rodata");
+        for (GlobalVar global : module.globals) {
+            if (global.isConst()) {
+                printGlobal(global);
+            }
+        }
+        os.println();
+
         os.println(".data");
         for (GlobalVar global : module.globals) {
-            printGlobal(global);
+            if (!global.isConst() && !isBss(global)) {
+                printGlobal(global);
+            }
+        }
+        os.println();
+
+        os.println(".bss");
+        for (GlobalVar global : module.globals) {
+            if (!global.isConst() && isBss(global)) {
+                printGlobal(global);
+            }
         }
         os.println();
 
@@ -68,32 +103,98 @@ public class CodeWriter {
         }
     }
 
-    // 打印全局变量
+    // 全零初始化的全局变量不占用文件空间
+    private static boolean isBss(GlobalVar global) {
+        if (global.isArray()) {
+            if (global.isZeroInit()) return true;
+            for (Value value : global.getValues()) {
+                if (!isZero(value)) return false;
+            }
+            return true;
+        }
+        return isZero(global.getValue());
+    }
+
+    private static boolean isZero(Value value) {
+        if (value instanceof ConstInteger c) return c.getValue() == 0;
+        if (value instanceof ConstFloat c) return Float.floatToRawIntBits(c.getValue()) == 0;
+        return value == null;
+    }
+
+    private static int wordOf(Value value) {
+        if (value instanceof ConstFloat c) return Float.floatToRawIntBits(c.getValue());
+        return ((ConstInteger) value).getValue();
+    }
+
+    // 打印全局变量，连续的0合并为.zero
     public void printGlobal(GlobalVar global) {
-        os.println(".global " + global.getName());
-        os.println(global.getName() + ":");
-        // 简化的全局变量初始化，实际应该根据类型处理
-        os.println("  .word 0");
+        String name = cleanName(global.getName());
+        os.println(".p2align 2");
+        os.println(name + ":");
+        if (isBss(global)) {
+            //  .bss中只需要预留空间，.rodata中全零的数组用.zero填充
+            os.println((global.isConst() ? "  .zero " : "  .skip ") + 4 * (global.isArray() ? global.getSize() : 1));
+            return;
+        }
+        if (!global.isArray()) {
+            os.println("  .word " + wordOf(global.getValue()));
+            return;
+        }
+        int zeros = 0;
+        for (Value value : global.getValues()) {
+            if (isZero(value)) {
+                zeros++;
+                continue;
+            }
+            if (zeros > 0) {
+                os.println("  .zero " + 4 * zeros);
+                zeros = 0;
+            }
+            os.println("  .word " + wordOf(value));
+        }
+        if (zeros > 0) {
+            os.println("  .zero " + 4 * zeros);
+        }
     }
 
     // 打印函数
     public void printFunc(AsmFunc func) {
         if (func.isBuiltin) {
             return;
-        } else {
-            os.println(func.name + ":");
-            // AArch64函数序言
-            printAArch64Instr("stp", Arrays.asList("x29", "x30", "[sp, #-16]!"));
-            printAArch64Instr("mov", Arrays.asList("x29", "sp"));
+        }
+        curFunc = func;
+        calleeSaved = new ArrayList<>(func.usedCalleeSavedRegs);
+        calleeSaved.sort(Comparator.comparing(AsmReg::isFloat).thenComparingInt(AsmReg::getId));
+        calleeSavedBase = (func.stackSize + 7) / 8 * 8;
+        frameSize = (calleeSavedBase + 8 * calleeSaved.size() + 15) / 16 * 16;
+
+        os.println(".p2align 2");
+        os.println(func.name + ":");
+        // AArch64函数序言
+        printAArch64Instr("stp", "x29", "x30", "[sp, #-16]!");
+        printAArch64Instr("mov", "x29", "sp");
+        if (frameSize > 0) {
+            printAddImm("sub", "sp", "sp", frameSize, true);
+        }
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            printAccess("str", calleeSaved.get(i).abiName64(), "sp", calleeSavedBase + 8L * i, 8);
+        }
 
-            for (AsmLabel label : func.labels) {
-                printLabel(label);
-            }
+        for (int i = 0; i < func.labels.size(); i++) {
+            nextLabel = i + 1 < func.labels.size() ? func.labels.get(i + 1) : null;
+            printLabel(func.labels.get(i));
+        }
+    }
 
-            // AArch64函数尾声（如果没有显式返回指令）
-            printAArch64Instr("ldp", Arrays.asList("x29", "x30", "[sp], #16"));
-            printAArch64Instr("ret", Arrays.asList());
+    private void printEpilogue() {
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            printAccess("ldr", calleeSaved.get(i).abiName64(), "sp", calleeSavedBase + 8L * i, 8);
+        }
+        if (frameSize > 0) {
+            printAArch64Instr("mov", "sp", "x29");
         }
+        printAArch64Instr("ldp", "x29", "x30", "[sp], #16");
+        printAArch64Instr("ret");
     }
 
     // 打印标签
@@ -104,176 +205,291 @@ public class CodeWriter {
         }
     }
 
-    // 将AsmValue转换为AArch64字符串表示
-    public String toAArch64String(AsmValue value, boolean use32bit) {
-        if (value instanceof VReg) {
-            VReg vreg = (VReg) value;
-            return use32bit ? vreg.abiName32() : vreg.abiName64();
-        } else if (value instanceof PReg) {
-            PReg preg = (PReg) value;
-            return use32bit ? preg.abiName32() : preg.abiName64();
-        } else if (value instanceof AsmImm) {
-            AsmImm imm = (AsmImm) value;
+    // 将AsmValue转换为AArch64字符串表示，寄存器宽度由其类型决定
+    public String toAArch64String(AsmValue value) {
+        if (value instanceof AsmReg reg) {
+            return reg.getType() == AsmType.I64 ? reg.abiName64() : reg.abiName32();
+        } else if (value instanceof AsmImm imm) {
             return "#" + imm.getHexValue();
         } else {
             throw new RuntimeException("Invalid asm value");
         }
     }
 
-    // 打印指令
-    public void printInst(AsmInst inst) {
-        // AArch64指令映射
-        String[] aarch64Tags = {
-            "add", "sub", "mul", "sdiv", "msub", "lsl", "lsr", "asr",
-            "sub", "smull", "and", "cmp", "b", "b", "ret", "mov",
-            "ldr", "str", "bl", "scvtf", "adrp", "string"
-        };
+    private static boolean isFloat(AsmValue value) {
+        return value instanceof AsmReg reg && reg.isFloat();
+    }
 
-        String op = aarch64Tags[inst.getTag().ordinal()];
-
-        if (inst instanceof AsmBinaryInst) {
-            AsmBinaryInst binInst = (AsmBinaryInst) inst;
-            boolean isFloat = (binInst.dst instanceof AsmReg) &&
-                             ((AsmReg)binInst.dst).getType() == AsmType.F32;
-
-            if (isFloat) {
-                // 浮点运算使用AArch64浮点指令
-                String floatOp = getFLoatOp(op);
-                printAArch64Instr(floatOp, Arrays.asList(
-                    toAArch64String(binInst.dst, true),  // 使用s寄存器
-                    toAArch64String(binInst.lhs, true),
-                    toAArch64String(binInst.rhs, true)
-                ));
+    private static boolean isVector(AsmValue value) {
+        return value instanceof AsmReg reg && reg.isVector();
+    }
+
+    private static boolean is64(AsmValue value) {
+        return value instanceof AsmReg reg && reg.getType() == AsmType.I64;
+    }
+
+    private static String asX(AsmValue value) {
+        return ((AsmReg) value).abiName64();
+    }
+
+    private static String condName(AsmPredicate pred) {
+        return pred.name().toLowerCase();
+    }
+
+    // 用movz/movk把任意立即数装入寄存器
+    private void printLoadImm(String reg, long value, boolean is64) {
+        if (!is64) {
+            value = (int) value;
+        }
+        if (value >= -65536 && value < 65536) {
+            printAArch64Instr("mov", reg, "#" + value);
+            return;
+        }
+        long bits = is64 ? value : value & 0xffffffffL;
+        int chunks = is64 ? 4 : 2;
+        boolean first = true;
+        for (int i = 0; i < chunks; i++) {
+            long part = (bits >>> (16 * i)) & 0xffff;
+            if (part == 0 && !(first && i == chunks - 1)) continue;
+            if (first) {
+                printAArch64Instr("movz", reg, "#" + part, "lsl #" + 16 * i);
+                first = false;
             } else {
-                // 整数运算
-                if (inst.getTag() == AsmInst.Tag.MOD) {
-                    // AArch64模运算需要组合指令：sdiv + msub
-                    String tempReg = "w9"; // 临时寄存器
-                    printAArch64Instr("sdiv", Arrays.asList(
-                        tempReg,
-                        toAArch64String(binInst.lhs, true),
-                        toAArch64String(binInst.rhs, true)
-                    ));
-                    printAArch64Instr("msub", Arrays.asList(
-                        toAArch64String(binInst.dst, true),
-                        tempReg,
-                        toAArch64String(binInst.rhs, true),
-                        toAArch64String(binInst.lhs, true)
-                    ));
-                } else {
-                    printAArch64Instr(op, Arrays.asList(
-                        toAArch64String(binInst.dst, true),  // 使用w寄存器
-                        toAArch64String(binInst.lhs, true),
-                        toAArch64String(binInst.rhs, true)
-                    ));
-                }
+                printAArch64Instr("movk", reg, "#" + part, "lsl #" + 16 * i);
             }
+        }
+    }
+
+    // add/sub立即数，超出12位时先装入x16
+    private void printAddImm(String op, String dst, String lhs, long imm, boolean is64) {
+        if (imm < 0) {
+            op = op.equals("add") ? "sub" : "add";
+            imm = -imm;
+        }
+        if (imm < 4096) {
+            printAArch64Instr(op, dst, lhs, "#" + imm);
+        } else if ((imm & 0xfff) == 0 && imm < (1L << 24)) {
+            printAArch64Instr(op, dst, lhs, "#" + (imm >> 12), "lsl #12");
+        } else {
+            printLoadImm(is64 ? scratch : scratch32, imm, is64);
+            printAArch64Instr(op, dst, lhs, is64 ? scratch : scratch32);
+        }
+    }
 
-        } else if (inst instanceof AsmCompareInst) {
-            AsmCompareInst cmpInst = (AsmCompareInst) inst;
-            boolean isFloat = (cmpInst.lhs instanceof AsmReg) &&
-                             ((AsmReg)cmpInst.lhs).getType() == AsmType.F32;
+    // [base, #offset]形式的访存，偏移超出范围时借助x17
+    private void printAccess(String op, String reg, String base, long offset, int size) {
+        if (offset >= 0 && offset % size == 0 && offset / size < 4096) {
+            printAArch64Instr(op, reg, "[" + base + ", #" + offset + "]");
+        } else if (offset >= -256 && offset < 256) {
+            printAArch64Instr(op.equals("ldr") ? "ldur" : "stur", reg, "[" + base + ", #" + offset + "]");
+        } else {
+            printLoadImm(scratch2, offset, true);
+            printAArch64Instr(op, reg, "[" + base + ", " + scratch2 + "]");
+        }
+    }
 
-            String cmpOp = isFloat ? "fcmp" : "cmp";
-            printAArch64Instr(cmpOp, Arrays.asList(
-                toAArch64String(cmpInst.lhs, true),
-                toAArch64String(cmpInst.rhs, true)
-            ));
+    private static int sizeOf(AsmValue reg) {
+        return isVector(reg) ? 16 : is64(reg) ? 8 : 4;
+    }
 
-        } else if (inst instanceof AsmBranchInst) {
-            AsmBranchInst branchInst = (AsmBranchInst) inst;
-            String[] aarch64CondTags = {"", "eq", "ne", "lt", "le", "gt", "ge"};
+    // 向量寄存器的第lane个32位通道
+    private static String laneOf(AsmValue reg, int lane) {
+        return "v" + ((AsmReg) reg).getId() + ".s[" + lane + "]";
+    }
 
-            if (branchInst.pred != AsmPredicate.AL) {
-                String cond = "b." + aarch64CondTags[branchInst.pred.ordinal()];
-                printAArch64Instr(cond, Arrays.asList(branchInst.trueTarget.name));
+    // 打印指令
+    public void printInst(AsmInst inst) {
+        if (inst instanceof AsmBinaryInst binInst) {
+            printBinary(binInst);
+        } else if (inst instanceof AsmCompareInst cmpInst) {
+            if (isFloat(cmpInst.lhs)) {
+                printAArch64Instr("fcmp", toAArch64String(cmpInst.lhs), toAArch64String(cmpInst.rhs));
+            } else if (cmpInst.rhs instanceof AsmImm imm) {
+                long value = imm.getHexValue();
+                if (value >= 0 && value < 4096) {
+                    printAArch64Instr("cmp", toAArch64String(cmpInst.lhs), "#" + value);
+                } else if (value < 0 && value > -4096) {
+                    printAArch64Instr("cmn", toAArch64String(cmpInst.lhs), "#" + -value);
+                } else {
+                    printLoadImm(scratch32, value, false);
+                    printAArch64Instr("cmp", toAArch64String(cmpInst.lhs), scratch32);
+                }
+            } else {
+                printAArch64Instr("cmp", toAArch64String(cmpInst.lhs), toAArch64String(cmpInst.rhs));
             }
-            if (branchInst.falseTarget != null) {
-                printAArch64Instr("b", Arrays.asList(branchInst.falseTarget.name));
+        } else if (inst instanceof AsmCsetInst csetInst) {
+            printAArch64Instr("cset", toAArch64String(csetInst.dst), condName(csetInst.pred));
+        } else if (inst instanceof AsmBranchInst branchInst) {
+            if (branchInst.pred == AsmPredicate.AL) {
+                printJump(branchInst.trueTarget);
+            } else if (branchInst.trueTarget == nextLabel && branchInst.falseTarget != null) {
+                // 真分支是下一个块时反转条件，省去一次跳转
+                printAArch64Instr("b." + condName(invert(branchInst.pred)), branchInst.falseTarget.name);
+            } else {
+                printAArch64Instr("b." + condName(branchInst.pred), branchInst.trueTarget.name);
+                if (branchInst.falseTarget != null) {
+                    printJump(branchInst.falseTarget);
+                }
             }
+        } else if (inst instanceof AsmJumpInst jumpInst) {
+            printJump(jumpInst.target);
+        } else if (inst instanceof AsmReturnInst) {
+            printEpilogue();
+        } else if (inst instanceof AsmMoveInst moveInst) {
+            printMove(moveInst);
+        } else if (inst instanceof AsmLoadInst loadInst) {
+            printMemory("ldr", loadInst.dst, loadInst);
+        } else if (inst instanceof AsmStoreInst storeInst) {
+            printMemory("str", storeInst.src, storeInst);
+        } else if (inst instanceof AsmCallInst callInst) {
+            printAArch64Instr("bl", callInst.callee);
+        } else if (inst instanceof AsmConvertInst cvtInst) {
+            String op = cvtInst.type == AsmConvertInst.CvtType.F2I ? "fcvtzs" : "scvtf";
+            printAArch64Instr(op, toAArch64String(cvtInst.dst), toAArch64String(cvtInst.src));
+        } else if (inst instanceof AsmDupInst dupInst) {
+            // 浮点标量本身就在向量寄存器的0号通道
+            printAArch64Instr("dup", toAArch64String(dupInst.dst),
+                    isFloat(dupInst.src) ? laneOf(dupInst.src, 0) : toAArch64String(dupInst.src));
+        } else if (inst instanceof AsmLaneInst laneInst) {
+            printAArch64Instr("mov", toAArch64String(laneInst.dst), laneOf(laneInst.src, laneInst.lane));
+        } else if (inst instanceof AsmLoadGlobalInst loadGlobalInst) {
+            // AArch64全局变量地址: 页地址 + 页内偏移
+            String varName = cleanName(loadGlobalInst.var.getName());
+            String dst = asX(loadGlobalInst.dst);
+            printAArch64Instr("adrp", dst, varName);
+            printAArch64Instr("add", dst, dst, ":lo12:" + varName);
+        } else {
+            os.println("  // Unsupported instruction: " + inst.getTag());
+        }
+    }
 
-        } else if (inst instanceof AsmJumpInst) {
-            AsmJumpInst jumpInst = (AsmJumpInst) inst;
-            printAArch64Instr("b", Arrays.asList(jumpInst.target.name));
+    private void printJump(AsmLabel target) {
+        if (target != nextLabel) {
+            printAArch64Instr("b", target.name);
+        }
+    }
 
-        } else if (inst instanceof AsmReturnInst) {
-            printAArch64Instr("ldp", Arrays.asList("x29", "x30", "[sp], #16"));
-            printAArch64Instr("ret", Arrays.asList());
-
-        } else if (inst instanceof AsmMoveInst) {
-            AsmMoveInst moveInst = (AsmMoveInst) inst;
-            boolean isFloat = (moveInst.dst instanceof AsmReg) &&
-                             ((AsmReg)moveInst.dst).getType() == AsmType.F32;
-
-            String moveOp = isFloat ? "fmov" : "mov";
-            printAArch64Instr(moveOp, Arrays.asList(
-                toAArch64String(moveInst.dst, true),
-                toAArch64String(moveInst.src, true)
-            ));
-
-        } else if (inst instanceof AsmLoadInst) {
-            AsmLoadInst loadInst = (AsmLoadInst) inst;
-            printAArch64Instr("ldr", Arrays.asList(
-                toAArch64String(loadInst.dst, true),
-                "[" + toAArch64String(loadInst.addr, false) + "]"
-            ));
-
-        } else if (inst instanceof AsmStoreInst) {
-            AsmStoreInst storeInst = (AsmStoreInst) inst;
-            printAArch64Instr("str", Arrays.asList(
-                toAArch64String(storeInst.src, true),
-                "[" + toAArch64String(storeInst.addr, false) + "]"
-            ));
-
-        } else if (inst instanceof AsmCallInst) {
-            AsmCallInst callInst = (AsmCallInst) inst;
-            printAArch64Instr("bl", Arrays.asList(callInst.callee));
-
-        } else if (inst instanceof AsmConvertInst) {
-            AsmConvertInst cvtInst = (AsmConvertInst) inst;
-            if (cvtInst.type == AsmConvertInst.CvtType.F2I) {
-                // AArch64: 浮点转整数
-                printAArch64Instr("fcvtzs", Arrays.asList(
-                    toAArch64String(cvtInst.dst, true),
-                    toAArch64String(cvtInst.src, true)
-                ));
-            } else if (cvtInst.type == AsmConvertInst.CvtType.I2F) {
-                // AArch64: 整数转浮点
-                printAArch64Instr("scvtf", Arrays.asList(
-                    toAArch64String(cvtInst.dst, true),
-                    toAArch64String(cvtInst.src, true)
-                ));
-            }
+    private static AsmPredicate invert(AsmPredicate pred) {
+        return switch (pred) {
+            case EQ -> AsmPredicate.NE;
+            case NE -> AsmPredicate.EQ;
+            case LT -> AsmPredicate.GE;
+            case GE -> AsmPredicate.LT;
+            case LE -> AsmPredicate.GT;
+            case GT -> AsmPredicate.LE;
+            case AL -> AsmPredicate.AL;
+        };
+    }
 
-        } else if (inst instanceof AsmLoadGlobalInst) {
-            AsmLoadGlobalInst loadGlobalInst = (AsmLoadGlobalInst) inst;
-            // AArch64全局变量加载
-            String varName = loadGlobalInst.var.getName();
-            printAArch64Instr("adrp", Arrays.asList(
-                toAArch64String(loadGlobalInst.dst, false),
-                varName + "@PAGE"
-            ));
-            printAArch64Instr("add", Arrays.asList(
-                toAArch64String(loadGlobalInst.dst, false),
-                toAArch64String(loadGlobalInst.dst, false),
-                varName + "@PAGEOFF"
-            ));
+    private void printBinary(AsmBinaryInst binInst) {
+        String dst = toAArch64String(binInst.dst);
+        if (isVector(binInst.dst)) {
+            boolean isInt = ((AsmReg) binInst.dst).getType() == AsmType.V4I32;
+            String op = switch (binInst.getTag()) {
+                case ADD -> isInt ? "add" : "fadd";
+                case SUB -> isInt ? "sub" : "fsub";
+                case MUL -> isInt ? "mul" : "fmul";
+                default -> throw new RuntimeException("unsupported vector op " + binInst.getTag());
+            };
+            printAArch64Instr(op, dst, toAArch64String(binInst.lhs), toAArch64String(binInst.rhs));
+            return;
+        }
+        if (isFloat(binInst.dst)) {
+            String op = switch (binInst.getTag()) {
+                case ADD -> "fadd";
+                case SUB -> "fsub";
+                case MUL -> "fmul";
+                case DIV -> "fdiv";
+                default -> throw new RuntimeException("unsupported float op " + binInst.getTag());
+            };
+            printAArch64Instr(op, dst, toAArch64String(binInst.lhs), toAArch64String(binInst.rhs));
+            return;
+        }
 
+        boolean wide = is64(binInst.dst);
+        String lhs = wide ? asX(binInst.lhs) : toAArch64String(binInst.lhs);
+        switch (binInst.getTag()) {
+            case ADD, SUB -> {
+                String op = binInst.getTag() == AsmInst.Tag.ADD ? "add" : "sub";
+                if (binInst.rhs instanceof AsmImm imm) {
+                    printAddImm(op, dst, lhs, imm.getHexValue(), wide);
+                } else if (binInst.shiftTag == AsmInst.ShiftType.SXTW) {
+                    printAArch64Instr(op, dst, lhs, toAArch64String(binInst.rhs), "sxtw #" + binInst.shift);
+                } else if (binInst.shift != 0) {
+                    printAArch64Instr(op, dst, lhs, toAArch64String(binInst.rhs),
+                            binInst.shiftTag.name().toLowerCase() + " #" + binInst.shift);
+                } else {
+                    printAArch64Instr(op, dst, lhs, wide ? asX(binInst.rhs) : toAArch64String(binInst.rhs));
+                }
+            }
+            case MUL, DIV, AND, ORR, EOR, LSL, LSR, ASR -> {
+                String op = switch (binInst.getTag()) {
+                    case MUL -> "mul";
+                    case DIV -> "sdiv";
+                    case AND -> "and";
+                    case ORR -> "orr";
+                    case EOR -> "eor";
+                    case LSL -> "lsl";
+                    case LSR -> "lsr";
+                    default -> "asr";
+                };
+                printAArch64Instr(op, dst, lhs, toAArch64String(binInst.rhs));
+            }
+            case SMMUL -> {
+                // 有符号32位乘法的高32位，shift为积的高位还需要的算术右移
+                printAArch64Instr("smull", asX(binInst.dst), lhs, toAArch64String(binInst.rhs));
+                printAArch64Instr("asr", asX(binInst.dst), asX(binInst.dst), "#" + (32 + binInst.shift));
+            }
+            case MOD -> {
+                // AArch64没有取模指令: sdiv + msub
+                String rhs = toAArch64String(binInst.rhs);
+                printAArch64Instr("sdiv", scratch32, lhs, rhs);
+                printAArch64Instr("msub", dst, scratch32, rhs, lhs);
+            }
+            default -> throw new RuntimeException("unsupported binary op " + binInst.getTag());
+        }
+    }
+
+    private void printMove(AsmMoveInst moveInst) {
+        String dst = toAArch64String(moveInst.dst);
+        if (moveInst.src instanceof AsmImm imm) {
+            if (isFloat(moveInst.dst)) {
+                // 浮点常量先以位模式装入w16再转移
+                if (imm.getHexValue() == 0) {
+                    printAArch64Instr("fmov", dst, "wzr");
+                } else {
+                    printLoadImm(scratch32, imm.getHexValue(), false);
+                    printAArch64Instr("fmov", dst, scratch32);
+                }
+            } else {
+                printLoadImm(dst, imm.getHexValue(), is64(moveInst.dst));
+            }
+            return;
+        }
+        if (isVector(moveInst.dst)) {
+            printAArch64Instr("mov", "v" + ((AsmReg) moveInst.dst).getId() + ".16b",
+                    "v" + ((AsmReg) moveInst.src).getId() + ".16b");
+        } else if (isFloat(moveInst.dst)) {
+            printAArch64Instr("fmov", dst, toAArch64String(moveInst.src));
+        } else if (is64(moveInst.dst)) {
+            printAArch64Instr("mov", dst, asX(moveInst.src));
         } else {
-            os.println("  // Unsupported instruction: " + inst.getTag());
+            printAArch64Instr("mov", dst, ((AsmReg) moveInst.src).abiName32());
         }
     }
 
-    // 获取浮点运算对应的AArch64指令
-    private String getFLoatOp(String intOp) {
-        switch (intOp) {
-            case "add": return "fadd";
-            case "sub": return "fsub";
-            case "mul": return "fmul";
-            case "sdiv": return "fdiv";
-            case "cmp": return "fcmp";
-            case "mov": return "fmov";
-            default: return intOp;
+    private void printMemory(String op, AsmValue reg, AsmAccess access) {
+        String base = asX(access.addr);
+        if (isVector(reg)) {
+            printAccess(op, asX(reg), base, ((AsmImm) access.offset).getHexValue(), 16);
+        } else if (access.offset instanceof AsmImm imm) {
+            printAccess(op, toAArch64String(reg), base, imm.getHexValue(), sizeOf(reg));
+        } else if (is64(access.offset)) {
+            printAArch64Instr(op, toAArch64String(reg),
+                    "[" + base + ", " + asX(access.offset) + ", lsl #" + access.shift + "]");
+        } else {
+            printAArch64Instr(op, toAArch64String(reg),
+                    "[" + base + ", " + toAArch64String(access.offset) + ", sxtw #" + access.shift + "]");
         }
     }
 }
@@ -0,0 +1,436 @@
+package Backend;
+
+import java.util.*;
+
+/**
+ * 基于迭代寄存器合并(George & Appel)的图着色寄存器分配
+ * 1. 由Liveness给出的基本块出口活跃集合逆序扫描指令，构建冲突图，寄存器间的move单独记录
+ * 2. 在简化、保守合并(Briggs/George)、冻结、选择潜在溢出之间迭代，直到图为空
+ * 3. 按出栈顺序着色，着色失败的结点改写为栈上的load/store后重新分配
+ * 整数与浮点寄存器在同一张图中分配，不同类别的结点之间没有冲突边
+ */
+public class GraphColoringAllocator extends RegAllocator {
+    // 结点编号，物理寄存器结点预先着色
+    private final List<AsmReg> nodes = new ArrayList<>();
+    private final Map<AsmReg, Integer> nodeIdx = new HashMap<>();
+    private int numPrecolored;
+
+    private final Set<Long> adjSet = new HashSet<>();
+    private final List<List<Integer>> adjList = new ArrayList<>();
+    private int[] degree;
+    private int[] alias;
+    private int[] color;
+    private double[] cost;
+    private final List<Set<AsmMoveInst>> moveList = new ArrayList<>();
+
+    private final LinkedHashSet<Integer> simplifyWorklist = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> freezeWorklist = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> spillWorklist = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> spilledNodes = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> coalescedNodes = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> coloredNodes = new LinkedHashSet<>();
+    private final Deque<Integer> selectStack = new ArrayDeque<>();
+    private boolean[] onStack;
+
+    private final LinkedHashSet<AsmMoveInst> coalescedMoves = new LinkedHashSet<>();
+    private final LinkedHashSet<AsmMoveInst> constrainedMoves = new LinkedHashSet<>();
+    private final LinkedHashSet<AsmMoveInst> frozenMoves = new LinkedHashSet<>();
+    private final LinkedHashSet<AsmMoveInst> worklistMoves = new LinkedHashSet<>();
+    private final LinkedHashSet<AsmMoveInst> activeMoves = new LinkedHashSet<>();
+
+    @Override
+    protected Set<VReg> allocate(AsmFunc func, Map<VReg, Integer> colors) {
+        init(func);
+        build(func);
+        makeWorklist();
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty()
+                || !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+            if (!simplifyWorklist.isEmpty()) {
+                simplify();
+            } else if (!worklistMoves.isEmpty()) {
+                coalesce();
+            } else if (!freezeWorklist.isEmpty()) {
+                freeze();
+            } else {
+                selectSpill();
+            }
+        }
+        assignColors();
+
+        Set<VReg> spilled = new LinkedHashSet<>();
+        for (int n : spilledNodes) {
+            spilled.add((VReg) nodes.get(n));
+        }
+        if (spilled.isEmpty()) {
+            for (int n = numPrecolored; n < nodes.size(); n++) {
+                colors.put((VReg) nodes.get(n), color[getAlias(n)]);
+            }
+        }
+        return spilled;
+    }
+
+    private void init(AsmFunc func) {
+        nodes.clear();
+        nodeIdx.clear();
+        adjSet.clear();
+        adjList.clear();
+        moveList.clear();
+        simplifyWorklist.clear();
+        freezeWorklist.clear();
+        spillWorklist.clear();
+        spilledNodes.clear();
+        coalescedNodes.clear();
+        coloredNodes.clear();
+        selectStack.clear();
+        coalescedMoves.clear();
+        constrainedMoves.clear();
+        frozenMoves.clear();
+        worklistMoves.clear();
+        activeMoves.clear();
+
+        for (int id : INT_REGS) {
+            addNode(AsmReg.makePReg(AsmType.I64, id));
+        }
+        for (int id : FLOAT_REGS) {
+            addNode(AsmReg.makePReg(AsmType.F32, id));
+        }
+        numPrecolored = nodes.size();
+        for (AsmLabel label : func.labels) {
+            for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof VReg reg) addNode(reg);
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof VReg reg) addNode(reg);
+                }
+            }
+        }
+
+        int n = nodes.size();
+        degree = new int[n];
+        alias = new int[n];
+        color = new int[n];
+        cost = new double[n];
+        onStack = new boolean[n];
+        Map<AsmReg, Double> costs = spillCosts(func);
+        for (int i = 0; i < n; i++) {
+            alias[i] = i;
+            color[i] = -1;
+            if (i < numPrecolored) {
+                degree[i] = Integer.MAX_VALUE / 2;
+                color[i] = nodes.get(i).getId();
+            } else {
+                AsmReg reg = nodes.get(i);
+                cost[i] = spillTemps.contains(reg) ? Double.MAX_VALUE : costs.getOrDefault(reg, 0.0);
+            }
+        }
+    }
+
+    private void addNode(AsmReg reg) {
+        if (nodeIdx.containsKey(reg)) return;
+        nodeIdx.put(reg, nodes.size());
+        nodes.add(reg);
+        adjList.add(new ArrayList<>());
+        moveList.add(new LinkedHashSet<>());
+    }
+
+    // 不参与分配的寄存器(sp、x29、x16等)返回-1
+    private int indexOf(AsmValue value) {
+        if (!(value instanceof AsmReg reg) || !isAllocatable(reg)) return -1;
+        Integer idx = nodeIdx.get(reg);
+        return idx == null ? -1 : idx;
+    }
+
+    private boolean isPrecolored(int n) {
+        return n < numPrecolored;
+    }
+
+    private int k(int n) {
+        return numRegs(nodes.get(n).isFloat());
+    }
+
+    private boolean isCoalescable(AsmMoveInst move) {
+        int dst = indexOf(move.dst), src = indexOf(move.src);
+        return move.pred == AsmPredicate.AL && dst >= 0 && src >= 0
+                && nodes.get(dst).isFloat() == nodes.get(src).isFloat();
+    }
+
+    private void build(AsmFunc func) {
+        Liveness liveness = new Liveness();
+        liveness.runOnFunction(func);
+        for (AsmLabel label : func.labels) {
+            Set<Integer> live = new HashSet<>();
+            LivenessBlockInfo blockInfo = liveness.blockInfoMap.get(label);
+            if (blockInfo != null) {
+                LivenessTypes.VarSet out = blockInfo.outRegs;
+                for (int i = out.nextSetBit(0); i >= 0; i = out.nextSetBit(i + 1)) {
+                    int n = indexOf(liveness.numbering.regOf(i));
+                    if (n >= 0) live.add(n);
+                }
+            }
+            for (AsmInst inst = label.tail; inst != null; inst = inst.prev) {
+                List<Integer> defs = new ArrayList<>();
+                List<Integer> uses = new ArrayList<>();
+                for (AsmValue value : inst.getDefs()) {
+                    int n = indexOf(value);
+                    if (n >= 0) defs.add(n);
+                }
+                for (AsmValue value : inst.getUses()) {
+                    int n = indexOf(value);
+                    if (n >= 0) uses.add(n);
+                }
+                if (inst instanceof AsmMoveInst move && isCoalescable(move)) {
+                    live.removeAll(uses);
+                    moveList.get(indexOf(move.dst)).add(move);
+                    moveList.get(indexOf(move.src)).add(move);
+                    worklistMoves.add(move);
+                }
+                live.addAll(defs);
+                for (int d : defs) {
+                    for (int l : live) {
+                        addEdge(l, d);
+                    }
+                }
+                live.removeAll(defs);
+                live.addAll(uses);
+            }
+        }
+    }
+
+    private static long edgeKey(int u, int v) {
+        return u < v ? ((long) u << 32) | v : ((long) v << 32) | u;
+    }
+
+    private void addEdge(int u, int v) {
+        if (u == v || nodes.get(u).isFloat() != nodes.get(v).isFloat()) return;
+        if (!adjSet.add(edgeKey(u, v))) return;
+        if (!isPrecolored(u)) {
+            adjList.get(u).add(v);
+            degree[u]++;
+        }
+        if (!isPrecolored(v)) {
+            adjList.get(v).add(u);
+            degree[v]++;
+        }
+    }
+
+    private void makeWorklist() {
+        for (int n = numPrecolored; n < nodes.size(); n++) {
+            if (degree[n] >= k(n)) {
+                spillWorklist.add(n);
+            } else if (moveRelated(n)) {
+                freezeWorklist.add(n);
+            } else {
+                simplifyWorklist.add(n);
+            }
+        }
+    }
+
+    private List<Integer> adjacent(int n) {
+        List<Integer> result = new ArrayList<>();
+        for (int m : adjList.get(n)) {
+            if (!onStack[m] && !coalescedNodes.contains(m)) {
+                result.add(m);
+            }
+        }
+        return result;
+    }
+
+    private List<AsmMoveInst> nodeMoves(int n) {
+        List<AsmMoveInst> result = new ArrayList<>();
+        for (AsmMoveInst move : moveList.get(n)) {
+            if (activeMoves.contains(move) || worklistMoves.contains(move)) {
+                result.add(move);
+            }
+        }
+        return result;
+    }
+
+    private boolean moveRelated(int n) {
+        return !nodeMoves(n).isEmpty();
+    }
+
+    private void simplify() {
+        Iterator<Integer> it = simplifyWorklist.iterator();
+        int n = it.next();
+        it.remove();
+        selectStack.push(n);
+        onStack[n] = true;
+        for (int m : adjacent(n)) {
+            decrementDegree(m);
+        }
+    }
+
+    private void decrementDegree(int m) {
+        if (isPrecolored(m)) return;
+        int d = degree[m]--;
+        if (d == k(m)) {
+            List<Integer> related = adjacent(m);
+            related.add(m);
+            enableMoves(related);
+            spillWorklist.remove(m);
+            if (moveRelated(m)) {
+                freezeWorklist.add(m);
+            } else {
+                simplifyWorklist.add(m);
+            }
+        }
+    }
+
+    private void enableMoves(List<Integer> ns) {
+        for (int n : ns) {
+            for (AsmMoveInst move : nodeMoves(n)) {
+                if (activeMoves.remove(move)) {
+                    worklistMoves.add(move);
+                }
+            }
+        }
+    }
+
+    private void coalesce() {
+        Iterator<AsmMoveInst> it = worklistMoves.iterator();
+        AsmMoveInst move = it.next();
+        it.remove();
+        int x = getAlias(indexOf(move.dst));
+        int y = getAlias(indexOf(move.src));
+        int u = x, v = y;
+        if (isPrecolored(y)) {
+            u = y;
+            v = x;
+        }
+        if (u == v) {
+            coalescedMoves.add(move);
+            addWorkList(u);
+        } else if (isPrecolored(v) || adjSet.contains(edgeKey(u, v))) {
+            constrainedMoves.add(move);
+            addWorkList(u);
+            addWorkList(v);
+        } else if ((isPrecolored(u) && allOk(v, u)) || (!isPrecolored(u) && conservative(u, v))) {
+            coalescedMoves.add(move);
+            combine(u, v);
+            addWorkList(u);
+        } else {
+            activeMoves.add(move);
+        }
+    }
+
+    private void addWorkList(int u) {
+        if (!isPrecolored(u) && !moveRelated(u) && degree[u] < k(u)) {
+            freezeWorklist.remove(u);
+            simplifyWorklist.add(u);
+        }
+    }
+
+    // George: v的每个邻居要么度数小，要么是预着色结点，要么已经与u冲突
+    private boolean allOk(int v, int u) {
+        for (int t : adjacent(v)) {
+            if (!(degree[t] < k(t) || isPrecolored(t) || adjSet.contains(edgeKey(t, u)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Briggs: 合并后高度数邻居的个数少于K
+    private boolean conservative(int u, int v) {
+        Set<Integer> ns = new HashSet<>(adjacent(u));
+        ns.addAll(adjacent(v));
+        int count = 0;
+        for (int n : ns) {
+            if (degree[n] >= k(n)) count++;
+        }
+        return count < k(u);
+    }
+
+    private int getAlias(int n) {
+        while (coalescedNodes.contains(n)) {
+            n = alias[n];
+        }
+        return n;
+    }
+
+    private void combine(int u, int v) {
+        if (!freezeWorklist.remove(v)) {
+            spillWorklist.remove(v);
+        }
+        coalescedNodes.add(v);
+        alias[v] = u;
+        moveList.get(u).addAll(moveList.get(v));
+        enableMoves(List.of(v));
+        for (int t : adjacent(v)) {
+            addEdge(t, u);
+            decrementDegree(t);
+        }
+        if (!isPrecolored(u) && degree[u] >= k(u) && freezeWorklist.remove(u)) {
+            spillWorklist.add(u);
+        }
+        cost[u] = Math.max(cost[u], Math.min(Double.MAX_VALUE / 2, cost[u] + cost[v]));
+    }
+
+    private void freeze() {
+        Iterator<Integer> it = freezeWorklist.iterator();
+        int u = it.next();
+        it.remove();
+        simplifyWorklist.add(u);
+        freezeMoves(u);
+    }
+
+    private void freezeMoves(int u) {
+        for (AsmMoveInst move : nodeMoves(u)) {
+            int x = indexOf(move.dst), y = indexOf(move.src);
+            int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+            activeMoves.remove(move);
+            frozenMoves.add(move);
+            if (!isPrecolored(v) && nodeMoves(v).isEmpty() && degree[v] < k(v)) {
+                freezeWorklist.remove(v);
+                simplifyWorklist.add(v);
+            }
+        }
+    }
+
+    // 选择代价/度数最小的结点作为潜在溢出
+    private void selectSpill() {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        for (int n : spillWorklist) {
+            double score = cost[n] / Math.max(degree[n], 1);
+            if (best == -1 || score < bestScore) {
+                best = n;
+                bestScore = score;
+            }
+        }
+        spillWorklist.remove(best);
+        simplifyWorklist.add(best);
+        freezeMoves(best);
+    }
+
+    private void assignColors() {
+        while (!selectStack.isEmpty()) {
+            int n = selectStack.pop();
+            onStack[n] = false;
+            boolean[] used = new boolean[32];
+            for (int w : adjList.get(n)) {
+                int a = getAlias(w);
+                if (isPrecolored(a) || coloredNodes.contains(a)) {
+                    used[color[a]] = true;
+                }
+            }
+            int chosen = -1;
+            for (int reg : regsOf(nodes.get(n).isFloat())) {
+                if (!used[reg]) {
+                    chosen = reg;
+                    break;
+                }
+            }
+            if (chosen == -1) {
+                spilledNodes.add(n);
+            } else {
+                coloredNodes.add(n);
+                color[n] = chosen;
+            }
+        }
+        for (int n : coalescedNodes) {
+            color[n] = color[getAlias(n)];
+        }
+    }
+}
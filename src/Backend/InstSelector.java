@@ -0,0 +1,847 @@
+package Backend;
+
+import IR.IRModule;
+import IR.Type.Type;
+import IR.Type.VectorType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.DomAnalysis;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+/**
+ * 指令选择: 将消去phi后的IR翻译为使用虚拟寄存器的MachineIR
+ * 1. 每个IR值对应一个虚拟寄存器；phi此前已由RemovePhi转为Move，Move的目标在多处被定值
+ * 2. 只被同一块中的分支使用的比较指令直接翻译为cmp + b.cond，不物化为0/1
+ * 3. 只作为load/store地址的指针运算折叠进访存指令的寻址模式，相邻地址上连续的两个常量store合并为一个64位store
+ * 4. 向量指令使用NEON的q寄存器，4个通道一起访存与运算
+ * 5. 函数调用遵循AAPCS64: 前8个整数/浮点参数经x0-x7/s0-s7传递，其余参数每个占8字节放在栈上
+ * 栈帧自sp向上依次为: 调用时的栈参数区、局部数组与变量、溢出槽，被调用者保存寄存器由CodeWriter放在最上方
+ */
+public class InstSelector {
+    private final AsmModule module = new AsmModule();
+
+    private AsmFunc curFunc;
+    private AsmLabel curLabel;
+    private final Map<Value, VReg> valueMap = new HashMap<>();
+    private final Map<BasicBlock, AsmLabel> labelMap = new HashMap<>();
+    private final Map<AllocInst, Integer> allocOffsets = new HashMap<>();
+    // 不单独生成代码、在使用处折叠的比较与指针运算
+    private final Set<Instruction> foldedInsts = new HashSet<>();
+    // 与紧随其后的相邻store合并的store，及合并后写入的64位常量
+    private final Map<StoreInst, Long> pairedStores = new HashMap<>();
+
+    private static final int maxIntArgRegs = 8, maxFloatArgRegs = 8;
+
+    public AsmModule run(IRModule irModule) {
+        module.globals.addAll(irModule.globalVars());
+        for (Function function : irModule.functions()) {
+            AsmFunc func = new AsmFunc(cleanName(function.getName()));
+            module.funcs.add(func);
+            if (function.isLibFunction()) {
+                func.isBuiltin = true;
+                continue;
+            }
+            lowerFunction(function, func);
+        }
+        return module;
+    }
+
+    private static String cleanName(String name) {
+        return name.startsWith("@") ? name.substring(1) : name;
+    }
+
+    private static AsmType typeOf(Type type) {
+        if (type.isVectorTy()) return ((VectorType) type).getEleType().isFloatTy() ? AsmType.V4F32 : AsmType.V4I32;
+        if (type.isFloatTy()) return AsmType.F32;
+        if (type.isPointerType()) return AsmType.I64;
+        return AsmType.I32;
+    }
+
+    private static boolean isCmp(OP op) {
+        return switch (op) {
+            case Lt, FLt, Le, FLe, Ge, FGe, Gt, FGt, Eq, FEq, Ne, FNe -> true;
+            default -> false;
+        };
+    }
+
+    private static AsmPredicate predOf(OP op) {
+        return switch (op) {
+            case Lt, FLt -> AsmPredicate.LT;
+            case Le, FLe -> AsmPredicate.LE;
+            case Ge, FGe -> AsmPredicate.GE;
+            case Gt, FGt -> AsmPredicate.GT;
+            case Eq, FEq -> AsmPredicate.EQ;
+            case Ne, FNe -> AsmPredicate.NE;
+            default -> throw new RuntimeException("not a compare: " + op);
+        };
+    }
+
+    private static AsmPredicate invert(AsmPredicate pred) {
+        return switch (pred) {
+            case EQ -> AsmPredicate.NE;
+            case NE -> AsmPredicate.EQ;
+            case LT -> AsmPredicate.GE;
+            case GE -> AsmPredicate.LT;
+            case LE -> AsmPredicate.GT;
+            case GT -> AsmPredicate.LE;
+            case AL -> throw new RuntimeException("cannot invert AL");
+        };
+    }
+
+    private static boolean isZero(Value value) {
+        return value instanceof ConstInteger c && c.getValue() == 0;
+    }
+
+    private static boolean isImm12(long value) {
+        return value >= 0 && value < 4096;
+    }
+
+    private void lowerFunction(Function function, AsmFunc func) {
+        curFunc = func;
+        valueMap.clear();
+        labelMap.clear();
+        allocOffsets.clear();
+        foldedInsts.clear();
+        pairedStores.clear();
+
+        //  不可达块不生成代码
+        LinkedHashSet<BasicBlock> reachable = new LinkedHashSet<>(DomAnalysis.getRPO(function));
+        ArrayList<BasicBlock> bbs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            if (!reachable.contains(bb)) continue;
+            bbs.add(bb);
+            AsmLabel label = new AsmLabel(".L" + func.name + "_" + labelMap.size());
+            label.loopDepth = bb.getLoopDepth();
+            labelMap.put(bb, label);
+            func.labels.add(label);
+        }
+
+        layoutFrame(bbs);
+        markFoldable(bbs);
+        markPairedStores(bbs);
+
+        curLabel = labelMap.get(bbs.get(0));
+        lowerArguments(function);
+        for (BasicBlock bb : bbs) {
+            curLabel = labelMap.get(bb);
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                lowerInst(instNode.getValue());
+            }
+        }
+
+        for (AsmLabel label : func.labels) {
+            for (AsmLabel succ : successors(label)) {
+                if (!label.succs.contains(succ)) {
+                    label.succs.add(succ);
+                    succ.preds.add(label);
+                }
+            }
+        }
+    }
+
+    private static List<AsmLabel> successors(AsmLabel label) {
+        List<AsmLabel> succs = new ArrayList<>();
+        for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+            if (inst instanceof AsmJumpInst jump) {
+                succs.add(jump.target);
+            } else if (inst instanceof AsmBranchInst branch) {
+                succs.add(branch.trueTarget);
+                if (branch.falseTarget != null) succs.add(branch.falseTarget);
+            }
+        }
+        return succs;
+    }
+
+    //  为调用的栈参数预留最底部的空间，其上放置alloc
+    private void layoutFrame(ArrayList<BasicBlock> bbs) {
+        int outArgSize = 0;
+        for (BasicBlock bb : bbs) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                if (instNode.getValue() instanceof CallInst callInst) {
+                    outArgSize = Math.max(outArgSize, 8 * arrangeArgs(callInst.getParams()).onStack.size());
+                }
+            }
+        }
+        int offset = outArgSize;
+        for (BasicBlock bb : bbs) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                if (instNode.getValue() instanceof AllocInst allocInst) {
+                    allocOffsets.put(allocInst, offset);
+                    int eleSize = allocInst.getAllocType().isPointerType() ? 8 : 4;
+                    offset += (eleSize * allocInst.getSize() + 7) / 8 * 8;
+                }
+            }
+        }
+        curFunc.stackSize = offset;
+    }
+
+    //  逆序扫描，使用者总是先于被使用者确定是否折叠
+    private void markFoldable(ArrayList<BasicBlock> bbs) {
+        for (BasicBlock bb : bbs) {
+            ArrayList<Instruction> insts = new ArrayList<>();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                insts.add(instNode.getValue());
+            }
+            Collections.reverse(insts);
+            for (Instruction inst : insts) {
+                if (inst instanceof BinaryInst binaryInst && isCmp(binaryInst.getOp())
+                        && !inst.getUserList().isEmpty()) {
+                    boolean foldable = true;
+                    for (User user : inst.getUserList()) {
+                        if (user instanceof BrInst && ((Instruction) user).getParentbb() == bb) continue;
+                        if (user instanceof BinaryInst userInst && foldedInsts.contains(userInst)
+                                && (userInst.getOp() == OP.Ne || userInst.getOp() == OP.Eq)
+                                && userInst.getLeftVal() == inst && isZero(userInst.getRightVal())) continue;
+                        foldable = false;
+                        break;
+                    }
+                    if (foldable) foldedInsts.add(inst);
+                } else if (inst instanceof PtrInst ptrInst && !ptrInst.getUserList().isEmpty()) {
+                    boolean foldable = true;
+                    for (User user : ptrInst.getUserList()) {
+                        if (user instanceof LoadInst) continue;
+                        if (user instanceof StoreInst storeInst && storeInst.getPointer() == ptrInst
+                                && storeInst.getValue() != ptrInst) continue;
+                        //  q寄存器的访存只能折叠常量偏移
+                        boolean constOffset = ptrInst.getOffset() instanceof ConstInteger;
+                        if (user instanceof VLoadInst && constOffset) continue;
+                        if (user instanceof VStoreInst vStoreInst && constOffset && vStoreInst.getValue() != ptrInst) continue;
+                        foldable = false;
+                        break;
+                    }
+                    if (foldable) foldedInsts.add(inst);
+                }
+            }
+        }
+    }
+
+    //  常量store的地址: 基址加常量个元素
+    private record ConstAddress(Value base, long index) {}
+
+    private ConstAddress constAddressOf(Value pointer) {
+        if (pointer instanceof AllocInst allocInst && !allocInst.getAllocType().isPointerType()) {
+            return new ConstAddress(allocInst, 0);
+        }
+        if (pointer instanceof PtrInst ptrInst && foldedInsts.contains(ptrInst) && ptrInst.getOffset() instanceof ConstInteger c
+                && !(ptrInst.getTarget() instanceof AllocInst allocInst && allocInst.getAllocType().isPointerType())) {
+            return new ConstAddress(ptrInst.getTarget(), c.getValue());
+        }
+        return null;
+    }
+
+    private static Long constBits(Value value) {
+        if (value instanceof ConstInteger c) return (long) c.getValue();
+        if (value instanceof ConstFloat c) return (long) Float.floatToRawIntBits(c.getValue());
+        return null;
+    }
+
+    //  数组初始化展开的连续常量store两两合并，中间只允许有已折叠的地址计算
+    private void markPairedStores(ArrayList<BasicBlock> bbs) {
+        for (BasicBlock bb : bbs) {
+            StoreInst prev = null;
+            ConstAddress prevAddress = null;
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (inst instanceof PtrInst && foldedInsts.contains(inst)) continue;
+                ConstAddress address = inst instanceof StoreInst storeInst && constBits(storeInst.getValue()) != null
+                        ? constAddressOf(storeInst.getPointer()) : null;
+                if (address == null) {
+                    prev = null;
+                    continue;
+                }
+                StoreInst store = (StoreInst) inst;
+                if (prev != null && address.base() == prevAddress.base() && address.index() == prevAddress.index() + 1) {
+                    long low = constBits(prev.getValue()) & 0xffffffffL, high = constBits(store.getValue());
+                    pairedStores.put(prev, low | high << 32);
+                    foldedInsts.add(store);
+                    prev = null;
+                } else {
+                    prev = store;
+                    prevAddress = address;
+                }
+            }
+        }
+    }
+
+    private static class ArgInfo {
+        final List<Value> inIntReg = new ArrayList<>();
+        final List<Value> inFloatReg = new ArrayList<>();
+        final List<Value> onStack = new ArrayList<>();
+    }
+
+    private static <T extends Value> ArgInfo arrangeArgs(List<T> args) {
+        ArgInfo info = new ArgInfo();
+        for (T arg : args) {
+            if (arg.getType().isFloatTy()) {
+                if (info.inFloatReg.size() < maxFloatArgRegs) info.inFloatReg.add(arg);
+                else info.onStack.add(arg);
+            } else {
+                if (info.inIntReg.size() < maxIntArgRegs) info.inIntReg.add(arg);
+                else info.onStack.add(arg);
+            }
+        }
+        return info;
+    }
+
+    private void lowerArguments(Function function) {
+        ArgInfo info = arrangeArgs(function.getArgs());
+        for (int i = 0; i < info.inIntReg.size(); i++) {
+            Value arg = info.inIntReg.get(i);
+            emitMove(getReg(arg), AsmReg.makePReg(typeOf(arg.getType()), i));
+        }
+        for (int i = 0; i < info.inFloatReg.size(); i++) {
+            Value arg = info.inFloatReg.get(i);
+            emitMove(getReg(arg), AsmReg.makePReg(AsmType.F32, i));
+        }
+        //  栈上的参数位于调用者的sp之上，即保存的fp/lr之上
+        for (int i = 0; i < info.onStack.size(); i++) {
+            AsmLoadInst load = new AsmLoadInst();
+            load.dst = getReg(info.onStack.get(i));
+            load.addr = AsmReg.fp();
+            load.offset = new AsmImm(16 + 8L * i);
+            curLabel.addInst(load);
+        }
+    }
+
+    private void emit(AsmInst inst) {
+        curLabel.addInst(inst);
+    }
+
+    private void emitMove(AsmValue dst, AsmValue src) {
+        AsmMoveInst move = new AsmMoveInst();
+        move.dst = dst;
+        move.src = src;
+        emit(move);
+    }
+
+    private VReg emitBinary(AsmInst.Tag tag, AsmType type, AsmValue lhs, AsmValue rhs) {
+        VReg dst = AsmReg.makeVReg(type);
+        emitBinary(tag, dst, lhs, rhs);
+        return dst;
+    }
+
+    private AsmBinaryInst emitBinary(AsmInst.Tag tag, AsmValue dst, AsmValue lhs, AsmValue rhs) {
+        AsmBinaryInst inst = new AsmBinaryInst(tag);
+        inst.dst = dst;
+        inst.lhs = lhs;
+        inst.rhs = rhs;
+        emit(inst);
+        return inst;
+    }
+
+    /**
+     * 取得值所在的寄存器，常量、alloc与全局变量的地址在使用处物化
+     */
+    private AsmReg getReg(Value value) {
+        if (value instanceof ConstInteger c) {
+            VReg reg = AsmReg.makeVReg(AsmType.I32);
+            emitMove(reg, new AsmImm(c.getValue()));
+            return reg;
+        }
+        if (value instanceof ConstFloat c) {
+            VReg reg = AsmReg.makeVReg(AsmType.F32);
+            emitMove(reg, new AsmImm(Float.floatToRawIntBits(c.getValue())));
+            return reg;
+        }
+        if (value instanceof AllocInst allocInst) {
+            return emitBinary(AsmInst.Tag.ADD, AsmType.I64, AsmReg.sp(), new AsmImm(allocOffsets.get(allocInst)));
+        }
+        if (value instanceof GlobalVar globalVar) {
+            AsmLoadGlobalInst inst = new AsmLoadGlobalInst();
+            inst.dst = AsmReg.makeVReg(AsmType.I64);
+            inst.var = globalVar;
+            emit(inst);
+            return (AsmReg) inst.dst;
+        }
+        return valueMap.computeIfAbsent(value, v -> AsmReg.makeVReg(typeOf(v.getType())));
+    }
+
+    // 可以编码为12位立即数的整数常量直接作为操作数
+    private AsmValue getOperand(Value value) {
+        if (value instanceof ConstInteger c && isImm12(c.getValue())) {
+            return new AsmImm(c.getValue());
+        }
+        return getReg(value);
+    }
+
+    private void lowerInst(Instruction inst) {
+        if (foldedInsts.contains(inst)) return;
+        if (inst instanceof BinaryInst binaryInst) {
+            lowerBinary(binaryInst);
+        } else if (inst instanceof ConversionInst conversionInst) {
+            lowerConversion(conversionInst);
+        } else if (inst instanceof LoadInst loadInst) {
+            AsmLoadInst load = new AsmLoadInst();
+            load.dst = getReg(loadInst);
+            setAddress(load, loadInst.getPointer());
+            emit(load);
+        } else if (inst instanceof StoreInst storeInst) {
+            AsmStoreInst store = new AsmStoreInst();
+            if (pairedStores.containsKey(storeInst)) {
+                store.src = AsmReg.makeVReg(AsmType.I64);
+                emitMove(store.src, new AsmImm(pairedStores.get(storeInst)));
+            } else {
+                store.src = getReg(storeInst.getValue());
+            }
+            setAddress(store, storeInst.getPointer());
+            emit(store);
+        } else if (inst instanceof PtrInst ptrInst) {
+            lowerPtrAdd(getReg(ptrInst), ptrInst.getTarget(), ptrInst.getOffset(), false);
+        } else if (inst instanceof PtrSubInst ptrSubInst) {
+            lowerPtrAdd(getReg(ptrSubInst), ptrSubInst.getTarget(), ptrSubInst.getOffset(), true);
+        } else if (inst instanceof Move move) {
+            Value src = move.getSource();
+            AsmReg dst = getReg(move.getDestination());
+            if (src instanceof ConstInteger c) {
+                emitMove(dst, new AsmImm(c.getValue()));
+            } else if (src instanceof ConstFloat c) {
+                emitMove(dst, new AsmImm(Float.floatToRawIntBits(c.getValue())));
+            } else {
+                emitMove(dst, getReg(src));
+            }
+        } else if (inst instanceof CallInst callInst) {
+            lowerCall(callInst);
+        } else if (inst instanceof RetInst retInst) {
+            AsmReturnInst ret = new AsmReturnInst();
+            if (!retInst.isVoid()) {
+                Value value = retInst.getValue();
+                ret.retReg = AsmReg.makePReg(typeOf(value.getType()), 0);
+                emitMove(ret.retReg, value instanceof ConstInteger c
+                        ? new AsmImm(c.getValue()) : getReg(value));
+            }
+            emit(ret);
+        } else if (inst instanceof BrInst brInst) {
+            lowerBranch(brInst);
+        } else if (inst instanceof VLoadInst vLoadInst) {
+            AsmLoadInst load = new AsmLoadInst();
+            load.dst = getReg(vLoadInst);
+            setVectorAddress(load, vLoadInst.getPointer());
+            emit(load);
+        } else if (inst instanceof VStoreInst vStoreInst) {
+            AsmStoreInst store = new AsmStoreInst();
+            store.src = getReg(vStoreInst.getValue());
+            setVectorAddress(store, vStoreInst.getPointer());
+            emit(store);
+        } else if (inst instanceof VBinaryInst vBinaryInst) {
+            AsmInst.Tag tag = switch (vBinaryInst.getOp()) {
+                case Add, Fadd -> AsmInst.Tag.ADD;
+                case Sub, Fsub -> AsmInst.Tag.SUB;
+                case Mul, Fmul -> AsmInst.Tag.MUL;
+                default -> throw new RuntimeException("unsupported vector op in isel: " + vBinaryInst.getOp());
+            };
+            emitBinary(tag, getReg(vBinaryInst), getReg(vBinaryInst.getLeftVal()), getReg(vBinaryInst.getRightVal()));
+        } else if (inst instanceof VSplatInst vSplatInst) {
+            emit(new AsmDupInst(getReg(vSplatInst), getReg(vSplatInst.getValue())));
+        } else if (inst instanceof VReduceInst vReduceInst) {
+            lowerReduce(vReduceInst);
+        } else if (inst instanceof AllocInst) {
+            // 栈空间已在layoutFrame中分配
+        } else if (inst instanceof Phi) {
+            throw new RuntimeException("phi should have been lowered to Move by RemovePhi");
+        } else {
+            throw new RuntimeException("unsupported instruction in isel: " + inst.getInstString());
+        }
+    }
+
+    private void lowerBinary(BinaryInst inst) {
+        OP op = inst.getOp();
+        Value lhs = inst.getLeftVal(), rhs = inst.getRightVal();
+        if (isCmp(op)) {
+            AsmPredicate pred = lowerCond(inst);
+            emit(new AsmCsetInst(getReg(inst), pred));
+            return;
+        }
+        AsmReg dst = getReg(inst);
+        switch (op) {
+            case Add -> {
+                if (lhs instanceof ConstInteger && !(rhs instanceof ConstInteger)) {
+                    Value tmp = lhs;
+                    lhs = rhs;
+                    rhs = tmp;
+                }
+                if (rhs instanceof ConstInteger c && isImm12(-(long) c.getValue())) {
+                    emitBinary(AsmInst.Tag.SUB, dst, getReg(lhs), new AsmImm(-(long) c.getValue()));
+                } else {
+                    emitBinary(AsmInst.Tag.ADD, dst, getReg(lhs), getOperand(rhs));
+                }
+            }
+            case Sub -> {
+                if (rhs instanceof ConstInteger c && isImm12(-(long) c.getValue())) {
+                    emitBinary(AsmInst.Tag.ADD, dst, getReg(lhs), new AsmImm(-(long) c.getValue()));
+                } else {
+                    emitBinary(AsmInst.Tag.SUB, dst, getReg(lhs), getOperand(rhs));
+                }
+            }
+            case Mul -> {
+                if (lhs instanceof ConstInteger && !(rhs instanceof ConstInteger)) {
+                    Value tmp = lhs;
+                    lhs = rhs;
+                    rhs = tmp;
+                }
+                if (!inst.I64 && rhs instanceof ConstInteger c && lowerMulByConst(dst, getReg(lhs), c.getValue())) {
+                    return;
+                }
+                emitBinary(AsmInst.Tag.MUL, dst, getReg(lhs), getReg(rhs));
+            }
+            case Div, Mod -> {
+                if (!inst.I64 && rhs instanceof ConstInteger c && lowerDivByConst(op, dst, getReg(lhs), c.getValue())) {
+                    return;
+                }
+                emitBinary(op == OP.Div ? AsmInst.Tag.DIV : AsmInst.Tag.MOD, dst, getReg(lhs), getReg(rhs));
+            }
+            case Fadd -> emitBinary(AsmInst.Tag.ADD, dst, getReg(lhs), getReg(rhs));
+            case Fsub -> emitBinary(AsmInst.Tag.SUB, dst, getReg(lhs), getReg(rhs));
+            case Fmul -> emitBinary(AsmInst.Tag.MUL, dst, getReg(lhs), getReg(rhs));
+            case Fdiv -> emitBinary(AsmInst.Tag.DIV, dst, getReg(lhs), getReg(rhs));
+            case Shl -> emitBinary(AsmInst.Tag.LSL, dst, getReg(lhs), getShiftOperand(rhs));
+            case Shr -> emitBinary(AsmInst.Tag.ASR, dst, getReg(lhs), getShiftOperand(rhs));
+            case And -> emitBinary(AsmInst.Tag.AND, dst, getReg(lhs), getReg(rhs));
+            case Or -> emitBinary(AsmInst.Tag.ORR, dst, getReg(lhs), getReg(rhs));
+            case Xor -> emitBinary(AsmInst.Tag.EOR, dst, getReg(lhs), getReg(rhs));
+            case Fmod -> {
+                // AArch64没有浮点取余指令，调用libc的fmodf
+                AsmReg l = getReg(lhs), r = getReg(rhs);
+                PReg s0 = AsmReg.makePReg(AsmType.F32, 0), s1 = AsmReg.makePReg(AsmType.F32, 1);
+                emitMove(s0, l);
+                emitMove(s1, r);
+                AsmCallInst call = new AsmCallInst("fmodf");
+                call.callUses.add(s0);
+                call.callUses.add(s1);
+                call.callDefs.addAll(RegAllocator.callerSavedRegs());
+                emit(call);
+                emitMove(dst, s0);
+            }
+            default -> throw new RuntimeException("unsupported binary op in isel: " + op);
+        }
+    }
+
+    /**
+     * 乘以 m * 2^s 形式的正常量改写为移位与加减，其中m为1、2^k+1或2^k-1:
+     * x * 2^s 为 lsl；x * (2^k+1) 为 add x, x, lsl #k；x * (2^k-1) 为 (x lsl #k) - x，只在s为0时使用
+     * 其他常量返回false，仍使用mul
+     */
+    private boolean lowerMulByConst(AsmReg dst, AsmReg x, int c) {
+        if (c <= 0) return false;
+        if (c == 1) {
+            emitMove(dst, x);
+            return true;
+        }
+        int s = Integer.numberOfTrailingZeros(c);
+        int m = c >>> s;
+        if (m == 1) {
+            emitBinary(AsmInst.Tag.LSL, dst, x, new AsmImm(s));
+            return true;
+        }
+        if (Integer.bitCount(m - 1) == 1) {
+            AsmReg t = s == 0 ? dst : AsmReg.makeVReg(AsmType.I32);
+            AsmBinaryInst add = emitBinary(AsmInst.Tag.ADD, t, x, x);
+            add.shift = Integer.numberOfTrailingZeros(m - 1);
+            if (s != 0) {
+                emitBinary(AsmInst.Tag.LSL, dst, t, new AsmImm(s));
+            }
+            return true;
+        }
+        if (s == 0 && Integer.bitCount(m + 1) == 1) {
+            VReg t = emitBinary(AsmInst.Tag.LSL, AsmType.I32, x, new AsmImm(Integer.numberOfTrailingZeros(m + 1)));
+            emitBinary(AsmInst.Tag.SUB, dst, t, x);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 除数为常量的除法与取模不使用多周期、不流水的sdiv
+     * 1. 除数为±2^k: 被除数为负时先加上 2^k-1，使算术右移向零取整
+     * 2. 其他除数: 乘以魔数取积的高32位后右移，被除数为负时商加1(Hacker's Delight 10-1)
+     * 取模为 x - q * |d|，与除数的符号无关；除数为0与INT_MIN时返回false，仍使用sdiv
+     */
+    private boolean lowerDivByConst(OP op, AsmReg dst, AsmReg x, int d) {
+        long ad = Math.abs((long) d);
+        if (ad == 0 || ad > Integer.MAX_VALUE) return false;
+        boolean isMod = op == OP.Mod;
+        if (ad == 1) {
+            if (isMod) {
+                emitMove(dst, new AsmImm(0));
+            } else if (d > 0) {
+                emitMove(dst, x);
+            } else {
+                emitBinary(AsmInst.Tag.SUB, dst, loadImm(0), x);
+            }
+            return true;
+        }
+        if ((ad & (ad - 1)) == 0) {
+            int k = Long.numberOfTrailingZeros(ad);
+            //  t = x + (x < 0 ? 2^k-1 : 0)，k为1时符号位右移31位即为偏置
+            AsmReg bias = k == 1 ? x : emitBinary(AsmInst.Tag.ASR, AsmType.I32, x, new AsmImm(31));
+            VReg t = AsmReg.makeVReg(AsmType.I32);
+            AsmBinaryInst addBias = emitBinary(AsmInst.Tag.ADD, t, x, bias);
+            addBias.shift = 32 - k;
+            addBias.shiftTag = AsmInst.ShiftType.LSR;
+            if (isMod) {
+                //  x - (t & -2^k)
+                VReg q = emitBinary(AsmInst.Tag.ASR, AsmType.I32, t, new AsmImm(k));
+                AsmBinaryInst sub = emitBinary(AsmInst.Tag.SUB, dst, x, q);
+                sub.shift = k;
+                sub.shiftTag = AsmInst.ShiftType.LSL;
+            } else if (d > 0) {
+                emitBinary(AsmInst.Tag.ASR, dst, t, new AsmImm(k));
+            } else {
+                VReg q = emitBinary(AsmInst.Tag.ASR, AsmType.I32, t, new AsmImm(k));
+                emitBinary(AsmInst.Tag.SUB, dst, loadImm(0), q);
+            }
+            return true;
+        }
+
+        long[] magic = magicOf(ad);
+        boolean needAdd = magic[0] > Integer.MAX_VALUE;
+        int shift = (int) magic[1];
+        //  魔数不小于2^31时按有符号数相乘少算了 x * 2^32，取高位后补加x再右移
+        VReg hi = AsmReg.makeVReg(AsmType.I32);
+        AsmBinaryInst mulHigh = emitBinary(AsmInst.Tag.SMMUL, hi, x, loadImm((int) magic[0]));
+        if (!needAdd) {
+            mulHigh.shift = shift;
+        } else {
+            hi = emitBinary(AsmInst.Tag.ADD, AsmType.I32, hi, x);
+            if (shift > 0) {
+                hi = emitBinary(AsmInst.Tag.ASR, AsmType.I32, hi, new AsmImm(shift));
+            }
+        }
+        //  q = hi - (x >> 31)，除数为负时取相反数
+        AsmReg q = isMod ? AsmReg.makeVReg(AsmType.I32) : dst;
+        if (d > 0 || isMod) {
+            AsmBinaryInst sub = emitBinary(AsmInst.Tag.SUB, q, hi, x);
+            sub.shift = 31;
+            sub.shiftTag = AsmInst.ShiftType.ASR;
+        } else {
+            VReg sign = emitBinary(AsmInst.Tag.ASR, AsmType.I32, x, new AsmImm(31));
+            emitBinary(AsmInst.Tag.SUB, q, sign, hi);
+        }
+        if (isMod) {
+            VReg prod = emitBinary(AsmInst.Tag.MUL, AsmType.I32, q, loadImm((int) ad));
+            emitBinary(AsmInst.Tag.SUB, dst, x, prod);
+        }
+        return true;
+    }
+
+    /**
+     * 计算正除数ad(不是2的幂)的魔数M与移位s，使 x / ad = ((x * M) >> (32 + s)) + (x < 0 ? 1 : 0)，
+     * M按无符号32位数给出
+     */
+    private static long[] magicOf(long ad) {
+        final long two31 = 1L << 31;
+        long anc = two31 - 1 - two31 % ad;
+        int p = 31;
+        long q1 = two31 / anc, r1 = two31 - q1 * anc;
+        long q2 = two31 / ad, r2 = two31 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 = 2 * q1;
+            r1 = 2 * r1;
+            if (r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 = 2 * q2;
+            r2 = 2 * r2;
+            if (r2 >= ad) {
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+        return new long[]{q2 + 1, p - 32};
+    }
+
+    private VReg loadImm(int value) {
+        VReg reg = AsmReg.makeVReg(AsmType.I32);
+        emitMove(reg, new AsmImm(value));
+        return reg;
+    }
+
+    private AsmValue getShiftOperand(Value value) {
+        if (value instanceof ConstInteger c) {
+            return new AsmImm(c.getValue() & 31);
+        }
+        return getReg(value);
+    }
+
+    private void lowerConversion(ConversionInst inst) {
+        AsmReg dst = getReg(inst);
+        switch (inst.getOp()) {
+            case Itof, Ftoi -> {
+                AsmConvertInst cvt = new AsmConvertInst(inst.getOp() == OP.Itof
+                        ? AsmConvertInst.CvtType.I2F : AsmConvertInst.CvtType.F2I);
+                cvt.dst = dst;
+                cvt.src = getReg(inst.getValue());
+                emit(cvt);
+            }
+            default -> emitMove(dst, getReg(inst.getValue()));
+        }
+    }
+
+    /**
+     * 生成比较指令并返回分支/cset使用的条件码，
+     * 对 (cmp != 0)、(cmp == 0) 形式的条件直接使用内层比较的条件码
+     */
+    private AsmPredicate lowerCond(Value cond) {
+        if (cond instanceof BinaryInst inst && isCmp(inst.getOp())) {
+            OP op = inst.getOp();
+            Value lhs = inst.getLeftVal(), rhs = inst.getRightVal();
+            if ((op == OP.Ne || op == OP.Eq) && isZero(rhs) && foldedInsts.contains(lhs)) {
+                AsmPredicate pred = lowerCond(lhs);
+                return op == OP.Ne ? pred : invert(pred);
+            }
+            AsmCompareInst cmp = new AsmCompareInst();
+            boolean swap = lhs instanceof ConstInteger && !(rhs instanceof ConstInteger);
+            if (swap) {
+                Value tmp = lhs;
+                lhs = rhs;
+                rhs = tmp;
+            }
+            cmp.lhs = getReg(lhs);
+            cmp.rhs = lhs.getType().isFloatTy() ? getReg(rhs) : getOperand(rhs);
+            emit(cmp);
+            AsmPredicate pred = predOf(op);
+            return swap ? swapped(pred) : pred;
+        }
+        AsmCompareInst cmp = new AsmCompareInst();
+        cmp.lhs = getReg(cond);
+        cmp.rhs = new AsmImm(0);
+        emit(cmp);
+        return AsmPredicate.NE;
+    }
+
+    // 交换比较的两个操作数后对应的条件码
+    private static AsmPredicate swapped(AsmPredicate pred) {
+        return switch (pred) {
+            case LT -> AsmPredicate.GT;
+            case GT -> AsmPredicate.LT;
+            case LE -> AsmPredicate.GE;
+            case GE -> AsmPredicate.LE;
+            default -> pred;
+        };
+    }
+
+    private void lowerBranch(BrInst inst) {
+        if (inst.isJump()) {
+            emit(new AsmJumpInst(labelMap.get(inst.getJumpBlock())));
+            return;
+        }
+        AsmBranchInst branch = new AsmBranchInst();
+        branch.pred = lowerCond(inst.getJudVal());
+        branch.trueTarget = labelMap.get(inst.getTrueBlock());
+        branch.falseTarget = labelMap.get(inst.getFalseBlock());
+        emit(branch);
+    }
+
+    //  dst = target ± offset * 4
+    private void lowerPtrAdd(AsmReg dst, Value target, Value offset, boolean isSub) {
+        if (target instanceof AllocInst allocInst && offset instanceof ConstInteger c) {
+            long imm = allocOffsets.get(allocInst) + (isSub ? -4L : 4L) * c.getValue();
+            emitBinary(AsmInst.Tag.ADD, dst, AsmReg.sp(), new AsmImm(imm));
+            return;
+        }
+        AsmReg base = getReg(target);
+        AsmInst.Tag tag = isSub ? AsmInst.Tag.SUB : AsmInst.Tag.ADD;
+        if (offset instanceof ConstInteger c) {
+            emitBinary(tag, dst, base, new AsmImm(4L * c.getValue()));
+        } else {
+            AsmBinaryInst inst = emitBinary(tag, dst, base, getReg(offset));
+            inst.shiftTag = AsmInst.ShiftType.SXTW;
+            inst.shift = 2;
+        }
+    }
+
+    //  为访存指令选择寻址模式: [base, #imm] 或 [base, wIdx, sxtw #2]
+    private void setAddress(AsmAccess access, Value pointer) {
+        if (pointer instanceof AllocInst allocInst) {
+            access.addr = AsmReg.sp();
+            access.offset = new AsmImm(allocOffsets.get(allocInst));
+            return;
+        }
+        if (pointer instanceof PtrInst ptrInst && foldedInsts.contains(ptrInst)) {
+            Value target = ptrInst.getTarget(), offset = ptrInst.getOffset();
+            if (offset instanceof ConstInteger c) {
+                if (target instanceof AllocInst allocInst) {
+                    access.addr = AsmReg.sp();
+                    access.offset = new AsmImm(allocOffsets.get(allocInst) + 4L * c.getValue());
+                } else {
+                    access.addr = getReg(target);
+                    access.offset = new AsmImm(4L * c.getValue());
+                }
+            } else {
+                access.addr = getReg(target);
+                access.offset = getReg(offset);
+                access.shift = 2;
+            }
+            return;
+        }
+        access.addr = getReg(pointer);
+        access.offset = new AsmImm(0);
+    }
+
+    //  q寄存器的访存不支持 [base, wIdx, sxtw #2]，只有常量偏移的指针运算被折叠，其余地址先算到寄存器中
+    private void setVectorAddress(AsmAccess access, Value pointer) {
+        if (pointer instanceof AllocInst || pointer instanceof PtrInst ptrInst && foldedInsts.contains(ptrInst)) {
+            setAddress(access, pointer);
+            return;
+        }
+        access.addr = getReg(pointer);
+        access.offset = new AsmImm(0);
+    }
+
+    //  逐个取出通道后用标量指令合并，只在退出向量循环时执行一次
+    private void lowerReduce(VReduceInst inst) {
+        AsmReg vector = getReg(inst.getVector());
+        AsmType type = typeOf(inst.getType());
+        AsmInst.Tag tag = inst.getReduceOp() == OP.Mul || inst.getReduceOp() == OP.Fmul ? AsmInst.Tag.MUL : AsmInst.Tag.ADD;
+        AsmReg acc = AsmReg.makeVReg(type);
+        emit(new AsmLaneInst(acc, vector, 0));
+        for (int lane = 1; lane < VectorType.LANES; lane++) {
+            VReg element = AsmReg.makeVReg(type);
+            emit(new AsmLaneInst(element, vector, lane));
+            AsmReg dst = lane == VectorType.LANES - 1 ? getReg(inst) : AsmReg.makeVReg(type);
+            emitBinary(tag, dst, acc, element);
+            acc = dst;
+        }
+    }
+
+    private void lowerCall(CallInst inst) {
+        ArgInfo info = arrangeArgs(inst.getParams());
+        AsmCallInst call = new AsmCallInst(cleanName(inst.getFunction().getName()));
+        for (int i = 0; i < info.onStack.size(); i++) {
+            AsmStoreInst store = new AsmStoreInst();
+            store.src = getReg(info.onStack.get(i));
+            store.addr = AsmReg.sp();
+            store.offset = new AsmImm(8L * i);
+            emit(store);
+        }
+        //  先把参数算到虚拟寄存器中，再统一移入参数寄存器，避免物化常量时破坏已经就位的参数
+        List<AsmReg> srcs = new ArrayList<>();
+        List<PReg> dsts = new ArrayList<>();
+        for (int i = 0; i < info.inIntReg.size(); i++) {
+            Value arg = info.inIntReg.get(i);
+            srcs.add(getReg(arg));
+            dsts.add(AsmReg.makePReg(typeOf(arg.getType()), i));
+        }
+        for (int i = 0; i < info.inFloatReg.size(); i++) {
+            srcs.add(getReg(info.inFloatReg.get(i)));
+            dsts.add(AsmReg.makePReg(AsmType.F32, i));
+        }
+        for (int i = 0; i < srcs.size(); i++) {
+            emitMove(dsts.get(i), srcs.get(i));
+            call.callUses.add(dsts.get(i));
+        }
+        call.callDefs.addAll(RegAllocator.callerSavedRegs());
+        emit(call);
+
+        Type retType = inst.getFunction().getType();
+        if (!retType.isVoidTy()) {
+            emitMove(getReg(inst), AsmReg.makePReg(typeOf(retType), 0));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package Backend;
+
+import java.util.*;
+
+/**
+ * 线性扫描寄存器分配(-ralloc=linear)，编译速度优先
+ * 1. 按Liveness给出的指令编号把每个虚拟寄存器的活跃点压成一个区间[start, end]，只需块首块尾的活跃集合与定值、使用点
+ * 2. 物理寄存器(传参、返回值、调用破坏)按程序点记录占用，区间只能分到在其范围内空闲的寄存器
+ * 3. 按起点顺序扫描，寄存器不足时比较当前区间与活跃区间的溢出权重(代价/长度)，溢出权重最低者
+ * 被溢出的区间在每个定值、使用处切分成只覆盖一条指令的小区间，改写后重新分配
+ */
+public class LinearScanAllocator extends RegAllocator {
+    private static class Interval {
+        final VReg reg;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        double weight;
+        int assigned = -1;
+
+        Interval(VReg reg) {
+            this.reg = reg;
+        }
+
+        void cover(int point) {
+            start = Math.min(start, point);
+            end = Math.max(end, point);
+        }
+    }
+
+    // 物理寄存器在哪些程序点被占用，下标为寄存器编号，整数与浮点分开
+    private final BitSet[] intFixed = new BitSet[32];
+    private final BitSet[] floatFixed = new BitSet[32];
+    // 扫描过程中每个物理寄存器当前被哪个区间占用
+    private Interval[] intOwners, floatOwners;
+
+    @Override
+    protected Set<VReg> allocate(AsmFunc func, Map<VReg, Integer> colors) {
+        Liveness liveness = new Liveness();
+        liveness.runOnFunction(func);
+        for (int i = 0; i < 32; i++) {
+            intFixed[i] = new BitSet();
+            floatFixed[i] = new BitSet();
+        }
+
+        Map<VReg, Interval> intervals = new LinkedHashMap<>();
+        Map<VReg, Set<AsmReg>> hints = new HashMap<>();
+        RegNumbering numbering = liveness.numbering;
+        for (AsmLabel label : liveness.instOrdering.labelOrder) {
+            long[] range = liveness.instOrdering.labelRange.get(label);
+            // 虚拟寄存器只需要区间的两端: 块入口活跃的覆盖块首，块出口活跃的覆盖块尾
+            LivenessTypes.VarSet liveIn = liveness.getLiveIn(label);
+            LivenessTypes.VarSet liveOut = liveness.getLiveOut(label);
+            for (int i = liveIn.nextSetBit(64); i >= 0; i = liveIn.nextSetBit(i + 1)) {
+                cover(intervals, numbering.regOf(i), (int) range[0]);
+            }
+            for (int i = liveOut.nextSetBit(64); i >= 0; i = liveOut.nextSetBit(i + 1)) {
+                cover(intervals, numbering.regOf(i), (int) range[1]);
+            }
+            // 物理寄存器需要逐点记录，编号0-63恰好是位向量的第一个字，逆序扫描时用一个long维护
+            long livePRegs = firstWord(liveOut);
+            for (AsmInst inst = label.tail; inst != null; inst = inst.prev) {
+                int inPoint = liveness.instOrdering.instIDMap.get(inst).intValue();
+                int outPoint = inPoint + 1;
+                markFixed(livePRegs, outPoint);
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof AsmReg reg) {
+                        cover(intervals, reg, outPoint);
+                        if (!(reg instanceof VReg)) livePRegs &= ~(1L << numbering.indexOf(reg));
+                    }
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof AsmReg reg) {
+                        cover(intervals, reg, inPoint);
+                        if (!(reg instanceof VReg)) livePRegs |= 1L << numbering.indexOf(reg);
+                    }
+                }
+                markFixed(livePRegs, inPoint);
+                if (inst instanceof AsmMoveInst move && move.src instanceof AsmReg src
+                        && move.dst instanceof AsmReg dst && src.isFloat() == dst.isFloat()) {
+                    if (dst instanceof VReg v) hints.computeIfAbsent(v, k -> new LinkedHashSet<>()).add(src);
+                    if (src instanceof VReg v) hints.computeIfAbsent(v, k -> new LinkedHashSet<>()).add(dst);
+                }
+            }
+        }
+
+        Map<AsmReg, Double> costs = spillCosts(func);
+        List<Interval> sorted = new ArrayList<>(intervals.values());
+        for (Interval interval : sorted) {
+            interval.weight = spillTemps.contains(interval.reg) ? Double.MAX_VALUE
+                    : costs.getOrDefault(interval.reg, 0.0) / (interval.end - interval.start + 1);
+        }
+        sorted.sort(Comparator.comparingInt((Interval i) -> i.start).thenComparingInt(i -> i.reg.getId()));
+
+        Set<VReg> spilled = new LinkedHashSet<>();
+        // 活跃区间按终点排序
+        PriorityQueue<Interval> active = new PriorityQueue<>(Comparator.comparingInt((Interval i) -> i.end));
+        intOwners = new Interval[32];
+        floatOwners = new Interval[32];
+        for (Interval cur : sorted) {
+            while (!active.isEmpty() && active.peek().end < cur.start) {
+                Interval done = active.poll();
+                ownersOf(done.reg)[done.assigned] = null;
+            }
+            Interval[] owners = ownersOf(cur.reg);
+            int reg = chooseReg(cur, owners, hints.getOrDefault(cur.reg, Set.of()), intervals);
+            if (reg < 0) {
+                //  寄存器不足: 在占用的寄存器中找溢出权重最低、且其寄存器对当前区间可用的区间
+                Interval victim = null;
+                for (int r : regsOf(cur.reg.isFloat())) {
+                    Interval owner = owners[r];
+                    if (owner == null || isFixedBusy(cur, r)) continue;
+                    if (victim == null || owner.weight < victim.weight) victim = owner;
+                }
+                if (victim == null || victim.weight >= cur.weight) {
+                    spilled.add(cur.reg);
+                    continue;
+                }
+                reg = victim.assigned;
+                active.remove(victim);
+                victim.assigned = -1;
+                spilled.add(victim.reg);
+            }
+            cur.assigned = reg;
+            owners[reg] = cur;
+            active.add(cur);
+        }
+
+        if (spilled.isEmpty()) {
+            for (Interval interval : intervals.values()) {
+                colors.put(interval.reg, interval.assigned);
+            }
+        }
+        return spilled;
+    }
+
+    private void cover(Map<VReg, Interval> intervals, AsmReg reg, int point) {
+        if (reg instanceof VReg vreg) {
+            intervals.computeIfAbsent(vreg, Interval::new).cover(point);
+        } else if (isAllocatable(reg)) {
+            (reg.isFloat() ? floatFixed : intFixed)[reg.getId()].set(point);
+        }
+    }
+
+    private static long firstWord(LivenessTypes.VarSet set) {
+        long word = 0;
+        for (int i = set.nextSetBit(0); i >= 0 && i < 64; i = set.nextSetBit(i + 1)) {
+            word |= 1L << i;
+        }
+        return word;
+    }
+
+    private void markFixed(long livePRegs, int point) {
+        for (long bits = livePRegs; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            AsmReg reg = AsmReg.makePReg(i < 32 ? AsmType.I64 : AsmType.F32, i & 31);
+            if (isAllocatable(reg)) {
+                (i < 32 ? intFixed : floatFixed)[i & 31].set(point);
+            }
+        }
+    }
+
+    private Interval[] ownersOf(VReg reg) {
+        return reg.isFloat() ? floatOwners : intOwners;
+    }
+
+    private boolean isFixedBusy(Interval interval, int reg) {
+        BitSet fixed = (interval.reg.isFloat() ? floatFixed : intFixed)[reg];
+        int next = fixed.nextSetBit(interval.start);
+        return next >= 0 && next <= interval.end;
+    }
+
+    // 优先选择与之有move关系的寄存器，使move在输出时被消除
+    private int chooseReg(Interval cur, Interval[] owners, Set<AsmReg> hints, Map<VReg, Interval> intervals) {
+        for (AsmReg hint : hints) {
+            int reg = hint instanceof VReg v ? intervals.get(v).assigned : hint.getId();
+            if (reg >= 0 && isAllocatable(AsmReg.makePReg(hint.getType(), reg))
+                    && owners[reg] == null && !isFixedBusy(cur, reg)) {
+                return reg;
+            }
+        }
+        for (int reg : regsOf(cur.reg.isFloat())) {
+            if (owners[reg] == null && !isFixedBusy(cur, reg)) {
+                return reg;
+            }
+        }
+        return -1;
+    }
+}
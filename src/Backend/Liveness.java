@@ -5,6 +5,7 @@ import java.util.*;
 /**
  * Liveness分析相关类，翻译自C++版本
  * 用于分析寄存器的活跃性，为寄存器分配提供支持
+ * 寄存器被稠密编号后用按字压缩的位向量表示集合，集合运算原地进行并报告是否发生变化
  */
 
 // 类型别名定义
@@ -30,21 +31,96 @@ class LivenessTypes {
         }
     }
 
-    public static class VarSet extends HashSet<AsmReg> {
-        // 集合运算辅助方法
-        public void subtract(Set<AsmReg> other) {
-            this.removeAll(other);
+    /**
+     * 寄存器集合，第i位表示编号为i的寄存器，编号由RegNumbering给出
+     */
+    public static class VarSet {
+        private final long[] words;
+
+        public VarSet(int size) {
+            words = new long[(size + 63) >>> 6];
+        }
+
+        public boolean contains(int i) {
+            return (words[i >>> 6] & (1L << i)) != 0;
+        }
+
+        public void add(int i) {
+            words[i >>> 6] |= 1L << i;
         }
 
-        public void union(Set<AsmReg> other) {
-            this.addAll(other);
+        public void remove(int i) {
+            words[i >>> 6] &= ~(1L << i);
+        }
+
+        public void clear() {
+            Arrays.fill(words, 0);
+        }
+
+        // this |= other，返回是否发生变化
+        public boolean union(VarSet other) {
+            boolean changed = false;
+            for (int w = 0; w < words.length; w++) {
+                long merged = words[w] | other.words[w];
+                if (merged != words[w]) {
+                    words[w] = merged;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        // this &= ~other，返回是否发生变化
+        public boolean subtract(VarSet other) {
+            boolean changed = false;
+            for (int w = 0; w < words.length; w++) {
+                long remained = words[w] & ~other.words[w];
+                if (remained != words[w]) {
+                    words[w] = remained;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        // this |= use ∪ (out \ def)，返回是否发生变化
+        public boolean unionTransfer(VarSet use, VarSet out, VarSet def) {
+            boolean changed = false;
+            for (int w = 0; w < words.length; w++) {
+                long merged = words[w] | use.words[w] | (out.words[w] & ~def.words[w]);
+                if (merged != words[w]) {
+                    words[w] = merged;
+                    changed = true;
+                }
+            }
+            return changed;
         }
 
         public VarSet copy() {
-            VarSet newSet = new VarSet();
-            newSet.addAll(this);
+            VarSet newSet = new VarSet(words.length << 6);
+            System.arraycopy(words, 0, newSet.words, 0, words.length);
             return newSet;
         }
+
+        // 从i开始的第一个元素，没有时返回-1
+        public int nextSetBit(int i) {
+            int w = i >>> 6;
+            if (w >= words.length) return -1;
+            long word = words[w] & (-1L << i);
+            while (true) {
+                if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == words.length) return -1;
+                word = words[w];
+            }
+        }
+
+        public int size() {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
     }
 
     public static class LiveInterval {
@@ -58,39 +134,111 @@ class LivenessTypes {
     }
 }
 
+/**
+ * 寄存器的稠密编号: 0-31为整数物理寄存器，32-63为浮点物理寄存器，虚拟寄存器从64开始连续编号
+ */
+class RegNumbering {
+    private final List<AsmReg> regs = new ArrayList<>();
+    private int minVRegId;
+    private int[] vregIndex;
+
+    public RegNumbering(AsmFunc func) {
+        for (int i = 0; i < 32; i++) {
+            regs.add(AsmReg.makePReg(AsmType.I64, i));
+        }
+        for (int i = 0; i < 32; i++) {
+            regs.add(AsmReg.makePReg(AsmType.F32, i));
+        }
+        int minId = Integer.MAX_VALUE, maxId = -1;
+        for (AsmLabel label : func.labels) {
+            for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof VReg reg) {
+                        minId = Math.min(minId, reg.getId());
+                        maxId = Math.max(maxId, reg.getId());
+                    }
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof VReg reg) {
+                        minId = Math.min(minId, reg.getId());
+                        maxId = Math.max(maxId, reg.getId());
+                    }
+                }
+            }
+        }
+        minVRegId = maxId < 0 ? 0 : minId;
+        vregIndex = new int[maxId < 0 ? 0 : maxId - minId + 1];
+        Arrays.fill(vregIndex, -1);
+        for (AsmLabel label : func.labels) {
+            for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof VReg reg) number(reg);
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof VReg reg) number(reg);
+                }
+            }
+        }
+    }
+
+    private void number(VReg reg) {
+        int slot = reg.getId() - minVRegId;
+        if (vregIndex[slot] < 0) {
+            vregIndex[slot] = regs.size();
+            regs.add(reg);
+        }
+    }
+
+    public int indexOf(AsmReg reg) {
+        if (reg instanceof VReg) {
+            return vregIndex[reg.getId() - minVRegId];
+        }
+        return reg.isFloat() ? 32 + reg.getId() : reg.getId();
+    }
+
+    public AsmReg regOf(int index) {
+        return regs.get(index);
+    }
+
+    public int size() {
+        return regs.size();
+    }
+}
+
 /**
  * 基本块活跃性信息
  */
 class LivenessBlockInfo {
     public AsmLabel label;
-    public LivenessTypes.VarSet inRegs = new LivenessTypes.VarSet();
-    public LivenessTypes.VarSet outRegs = new LivenessTypes.VarSet();
-    public LivenessTypes.VarSet defRegs = new LivenessTypes.VarSet();
-    public LivenessTypes.VarSet useRegs = new LivenessTypes.VarSet();
+    public LivenessTypes.VarSet inRegs;
+    public LivenessTypes.VarSet outRegs;
+    public LivenessTypes.VarSet defRegs;
+    public LivenessTypes.VarSet useRegs;
 
-    public LivenessBlockInfo() {
-    }
-
-    public LivenessBlockInfo(AsmLabel label) {
+    public LivenessBlockInfo(AsmLabel label, RegNumbering numbering) {
         this.label = label;
+        int size = numbering.size();
+        inRegs = new LivenessTypes.VarSet(size);
+        outRegs = new LivenessTypes.VarSet(size);
+        defRegs = new LivenessTypes.VarSet(size);
+        useRegs = new LivenessTypes.VarSet(size);
 
         // 计算基本块的def和use集合
         for (AsmInst inst = label.head; inst != null; inst = inst.next) {
             // 处理use
             for (AsmValue use : inst.getUses()) {
-                if (use instanceof AsmReg) {
-                    AsmReg reg = (AsmReg) use;
-                    if (!defRegs.contains(reg)) {
-                        useRegs.add(reg);
+                if (use instanceof AsmReg reg) {
+                    int i = numbering.indexOf(reg);
+                    if (!defRegs.contains(i)) {
+                        useRegs.add(i);
                     }
                 }
             }
 
             // 处理def
             for (AsmValue def : inst.getDefs()) {
-                if (def instanceof AsmReg) {
-                    AsmReg reg = (AsmReg) def;
-                    defRegs.add(reg);
+                if (def instanceof AsmReg reg) {
+                    defRegs.add(numbering.indexOf(reg));
                 }
             }
         }
@@ -98,17 +246,11 @@ class LivenessBlockInfo {
 
     /**
      * 更新live in集合
-     * in = use ∪ (out \ def)
+     * in = use ∪ (out \ def)，集合只会单调增大，原地合并即可
      * @return 是否发生了变化
      */
     public boolean updateLiveIn() {
-        LivenessTypes.VarSet newInValues = outRegs.copy();
-        newInValues.subtract(defRegs);
-        newInValues.union(useRegs);
-
-        boolean changed = newInValues.size() != inRegs.size() || !newInValues.equals(inRegs);
-        inRegs = newInValues;
-        return changed;
+        return inRegs.unionTransfer(useRegs, outRegs, defRegs);
     }
 
     /**
@@ -116,10 +258,10 @@ class LivenessBlockInfo {
      * out = ∪_{succ} in_{succ}
      */
     public void updateLiveOut(Map<AsmLabel, LivenessBlockInfo> infoMap) {
-        outRegs.clear();
         for (AsmLabel succ : label.succs) {
-            if (infoMap.containsKey(succ)) {
-                outRegs.union(infoMap.get(succ).inRegs);
+            LivenessBlockInfo succInfo = infoMap.get(succ);
+            if (succInfo != null) {
+                outRegs.union(succInfo.inRegs);
             }
         }
     }
@@ -127,61 +269,76 @@ class LivenessBlockInfo {
 
 /**
  * 指令排序管理器
- * 为每个指令分配唯一的ID，用于活跃性分析
+ * 按逆后序排列基本块并为每个指令分配唯一的ID，入口点为2k，出口点为2k+1
  */
 class InstOrderingManager {
     public List<AsmLabel> labelOrder = new ArrayList<>();
     public Map<AsmInst, Long> instIDMap = new HashMap<>();
+    // 每个基本块第一条指令的入口点与最后一条指令的出口点
+    public Map<AsmLabel, long[]> labelRange = new HashMap<>();
 
     public void runOnFunction(AsmFunc func) {
-        Stack<AsmLabel> worklist = new Stack<>();
-        Map<AsmLabel, Boolean> visited = new HashMap<>();
-
+        List<AsmLabel> postOrder = new ArrayList<>();
+        Set<AsmLabel> visited = new HashSet<>();
+        Deque<AsmLabel> stack = new ArrayDeque<>();
+        Deque<Integer> nextSucc = new ArrayDeque<>();
         if (!func.labels.isEmpty()) {
-            worklist.push(func.labels.get(0));
+            AsmLabel entry = func.labels.get(0);
+            visited.add(entry);
+            stack.push(entry);
+            nextSucc.push(0);
         }
-
-        while (!worklist.isEmpty()) {
-            AsmLabel block = worklist.pop();
-            if (visited.getOrDefault(block, false)) {
-                continue;
+        while (!stack.isEmpty()) {
+            AsmLabel block = stack.peek();
+            int idx = nextSucc.pop();
+            if (idx < block.succs.size()) {
+                nextSucc.push(idx + 1);
+                AsmLabel succ = block.succs.get(idx);
+                if (visited.add(succ)) {
+                    stack.push(succ);
+                    nextSucc.push(0);
+                }
+            } else {
+                stack.pop();
+                postOrder.add(block);
             }
-            visited.put(block, true);
-            runOnBlock(block);
-
-            for (AsmLabel succ : block.succs) {
-                worklist.push(succ);
+        }
+        Collections.reverse(postOrder);
+        // 不可达的块排在最后，保证每个块都有编号
+        for (AsmLabel label : func.labels) {
+            if (!visited.contains(label)) {
+                postOrder.add(label);
             }
         }
+        for (AsmLabel label : postOrder) {
+            runOnBlock(label);
+        }
     }
 
     public void runOnBlock(AsmLabel label) {
         labelOrder.add(label);
-
+        long begin = 2L * instIDMap.size();
         for (AsmInst inst = label.head; inst != null; inst = inst.next) {
             long count = instIDMap.size();
             instIDMap.put(inst, 2 * count);
         }
+        labelRange.put(label, new long[]{begin, Math.max(begin, 2L * instIDMap.size() - 1)});
     }
 }
 
 /**
  * 活跃性分析主类
- * 实现数据流分析算法来计算变量的活跃性
+ * 按逆后序的逆序初始化工作表，迭代计算每个基本块的live in/out直到收敛
  */
 public class Liveness {
     public InstOrderingManager instOrdering = new InstOrderingManager();
     public Map<AsmLabel, LivenessBlockInfo> blockInfoMap = new HashMap<>();
-    // 每个程序点的活跃变量集合
-    public List<LivenessTypes.VarSet> liveness = new ArrayList<>();
-
-    private AsmFunc func;
+    public RegNumbering numbering;
 
     public void runOnFunction(AsmFunc func) {
-        this.func = func;
+        numbering = new RegNumbering(func);
         instOrdering.runOnFunction(func);
         buildBlockInfoMap();
-        calcLiveness();
     }
 
     /**
@@ -189,153 +346,42 @@ public class Liveness {
      * 使用工作表算法计算每个基本块的live in/out集合
      */
     private void buildBlockInfoMap() {
-        List<AsmLabel> worklist = new ArrayList<>();
-        Map<AsmLabel, Boolean> present = new HashMap<>();
+        List<AsmLabel> order = instOrdering.labelOrder;
+        for (AsmLabel block : order) {
+            blockInfoMap.put(block, new LivenessBlockInfo(block, numbering));
+        }
 
-        // 初始化所有基本块的信息
-        for (AsmLabel block : instOrdering.labelOrder) {
-            blockInfoMap.computeIfAbsent(block, LivenessBlockInfo::new);
-            LivenessBlockInfo blockInfo = blockInfoMap.get(block);
-            if (blockInfo.updateLiveIn()) {
-                for (AsmLabel pred : block.preds) {
-                    if (!present.getOrDefault(pred, false)) {
-                        worklist.add(pred);
-                        present.put(pred, true);
-                    }
-                }
-            }
+        // 逆向数据流问题，后序(逆后序的逆序)能让后继先于前驱收敛
+        Deque<AsmLabel> worklist = new ArrayDeque<>();
+        Set<AsmLabel> present = new HashSet<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            worklist.addLast(order.get(i));
+            present.add(order.get(i));
         }
 
         // 迭代计算直到收敛
         while (!worklist.isEmpty()) {
-            AsmLabel block = worklist.remove(worklist.size() - 1);
-            present.put(block, false);
+            AsmLabel block = worklist.pollFirst();
+            present.remove(block);
 
             LivenessBlockInfo blockInfo = blockInfoMap.get(block);
             blockInfo.updateLiveOut(blockInfoMap);
 
             if (blockInfo.updateLiveIn()) {
                 for (AsmLabel pred : block.preds) {
-                    if (!present.getOrDefault(pred, false)) {
-                        worklist.add(pred);
-                        present.put(pred, true);
+                    if (blockInfoMap.containsKey(pred) && present.add(pred)) {
+                        worklist.addLast(pred);
                     }
                 }
             }
         }
     }
 
-    /**
-     * 计算详细的活跃性信息
-     * 为每个指令的入口和出口点计算活跃变量集合
-     */
-    private void calcLiveness() {
-        // Lambda函数的Java等价实现
-        java.util.function.Function<AsmInst, Long> inPoint =
-            inst -> instOrdering.instIDMap.get(inst);
-        java.util.function.Function<AsmInst, Long> outPoint =
-            inst -> instOrdering.instIDMap.get(inst) + 1;
-
-        // TODO: 处理函数参数
-
-        // 初始化活跃性数组
-        int totalPoints = instOrdering.instIDMap.size() * 2;
-        liveness.clear();
-        for (int i = 0; i < totalPoints; i++) {
-            liveness.add(new LivenessTypes.VarSet());
-        }
-
-        boolean changed;
-        do {
-            changed = false;
-
-            // 反向遍历基本块
-            for (int i = instOrdering.labelOrder.size() - 1; i >= 0; i--) {
-                AsmLabel block = instOrdering.labelOrder.get(i);
-                LivenessBlockInfo blockInfo = blockInfoMap.get(block);
-
-                // 反向遍历基本块中的指令
-                for (AsmInst inst = block.tail; inst != null; inst = inst.prev) {
-                    int inIdx = inPoint.apply(inst).intValue();
-                    int outIdx = outPoint.apply(inst).intValue();
-
-                    LivenessTypes.VarSet inset = liveness.get(inIdx);
-                    LivenessTypes.VarSet outset = liveness.get(outIdx);
-
-                    // 计算out集合
-                    if (inst != block.tail) {
-                        int nextInIdx = inPoint.apply(inst.next).intValue();
-                        LivenessTypes.VarSet nextIn = liveness.get(nextInIdx);
-                        outset.clear();
-                        outset.union(nextIn);
-                    } else {
-                        outset.clear();
-                        outset.union(blockInfo.outRegs);
-                    }
-
-                    // 计算新的in集合
-                    LivenessTypes.VarSet newInset = outset.copy();
-
-                    // 处理def
-                    for (AsmValue def : inst.getDefs()) {
-                        if (def instanceof AsmReg) {
-                            newInset.remove((AsmReg) def);
-                        }
-                    }
-
-                    // 处理call指令的特殊def
-                    if (inst instanceof AsmCallInst) {
-                        AsmCallInst callInst = (AsmCallInst) inst;
-                        for (PReg preg : callInst.callDefs) {
-                            newInset.remove(preg);
-                        }
-                    }
-
-                    // 处理use
-                    for (AsmValue use : inst.getUses()) {
-                        if (use instanceof AsmReg) {
-                            newInset.add((AsmReg) use);
-                        }
-                    }
-
-                    // 处理call指令的特殊use
-                    if (inst instanceof AsmCallInst) {
-                        AsmCallInst callInst = (AsmCallInst) inst;
-                        for (PReg preg : callInst.callUses) {
-                            newInset.add(preg);
-                        }
-                    }
-
-                    // 检查是否发生变化
-                    if (!newInset.equals(inset)) {
-                        changed = true;
-                        inset.clear();
-                        inset.union(newInset);
-                    }
-                }
-            }
-        } while (changed);
-    }
-
-    /**
-     * 获取指令入口点的活跃变量集合
-     */
-    public LivenessTypes.VarSet getLiveInAt(AsmInst inst) {
-        Long id = instOrdering.instIDMap.get(inst);
-        if (id != null && id.intValue() < liveness.size()) {
-            return liveness.get(id.intValue());
-        }
-        return new LivenessTypes.VarSet();
+    public LivenessTypes.VarSet getLiveIn(AsmLabel label) {
+        return blockInfoMap.get(label).inRegs;
     }
 
-    /**
-     * 获取指令出口点的活跃变量集合
-     */
-    public LivenessTypes.VarSet getLiveOutAt(AsmInst inst) {
-        Long id = instOrdering.instIDMap.get(inst);
-        if (id != null && (id.intValue() + 1) < liveness.size()) {
-            return liveness.get(id.intValue() + 1);
-        }
-        return new LivenessTypes.VarSet();
+    public LivenessTypes.VarSet getLiveOut(AsmLabel label) {
+        return blockInfoMap.get(label).outRegs;
     }
 }
@@ -16,7 +16,10 @@ enum AsmPredicate {
 
 enum AsmType {
     I32,
-    F32
+    I64, // 指针
+    F32,
+    V4I32, // NEON向量，4个32位通道
+    V4F32
 }
 
 // 抽象基类
@@ -57,6 +60,28 @@ abstract class AsmReg extends AsmValue {
         return id;
     }
 
+    // 浮点与向量都使用v0-v31这组寄存器
+    public boolean isFloat() {
+        return type == AsmType.F32 || isVector();
+    }
+
+    public boolean isVector() {
+        return type == AsmType.V4I32 || type == AsmType.V4F32;
+    }
+
+    // 同一个物理寄存器可能以不同宽度出现，比较时只区分整数与浮点
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof AsmReg reg)) return false;
+        return tag == reg.tag && id == reg.id && isFloat() == reg.isFloat();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(tag, id, isFloat());
+    }
+
     public abstract String abiName();
 
     // AArch64: 64位寄存器名称
@@ -97,7 +122,9 @@ class VReg extends AsmReg {
 
     @Override
     public String abiName64() {
-        if (type == AsmType.F32) {
+        if (isVector()) {
+            return "%q" + id; // AArch64: 128位整体访问
+        } else if (type == AsmType.F32) {
             return "%d" + id; // AArch64: 虚拟浮点寄存器使用双精度命名
         } else {
             return "%x" + id; // AArch64: 虚拟整数寄存器使用64位命名
@@ -106,7 +133,9 @@ class VReg extends AsmReg {
 
     @Override
     public String abiName32() {
-        if (type == AsmType.F32) {
+        if (isVector()) {
+            return "%v" + id + ".4s"; // AArch64: 按4个32位通道运算
+        } else if (type == AsmType.F32) {
             return "%s" + id; // AArch64: 单精度浮点
         } else {
             return "%w" + id; // AArch64: 32位整数视图
@@ -131,7 +160,9 @@ class PReg extends AsmReg {
             throw new AssertionError("Invalid reg!");
         }
 
-        if (type == AsmType.F32) {
+        if (isVector()) {
+            return "q" + id; // AArch64: q0-q31 128位整体访问
+        } else if (type == AsmType.F32) {
             return "d" + id; // AArch64: d0-d31 双精度浮点
         } else {
             switch (id) {
@@ -149,7 +180,9 @@ class PReg extends AsmReg {
             throw new AssertionError("Invalid reg!");
         }
 
-        if (type == AsmType.F32) {
+        if (isVector()) {
+            return "v" + id + ".4s"; // AArch64: 按4个32位通道运算
+        } else if (type == AsmType.F32) {
             return "s" + id; // AArch64: s0-s31 单精度浮点
         } else {
             switch (id) {
@@ -185,11 +218,14 @@ abstract class AsmInst {
     enum Tag {
         ADD, SUB, MUL, DIV, MOD, LSL, LSR, ASR,
         RSB, SMMUL, AND, CMP, BRANCH, JUMP, RETURN,
-        MOVE, LOAD, STORE, CALL, CVT, LOADGLOBAL, STRING
+        MOVE, LOAD, STORE, CALL, CVT, LOADGLOBAL, STRING,
+        ORR, EOR, CSET,
+        DUP, LANE // NEON: 标量复制到各通道、取出单个通道
     }
 
     enum ShiftType {
-        LSL, LSR, ASR
+        LSL, LSR, ASR,
+        SXTW // 32位索引符号扩展后参与地址运算
     }
 
     protected Tag tag;
@@ -206,6 +242,14 @@ abstract class AsmInst {
 
     public abstract List<AsmValue> getDefs();
     public abstract List<AsmValue> getUses();
+
+    // 寄存器分配与溢出改写时替换操作数
+    public abstract void replaceDef(AsmReg oldReg, AsmReg newReg);
+    public abstract void replaceUse(AsmReg oldReg, AsmReg newReg);
+
+    protected static AsmValue replaced(AsmValue value, AsmReg oldReg, AsmReg newReg) {
+        return oldReg.equals(value) ? newReg : value;
+    }
 }
 
 // 标签类
@@ -217,6 +261,9 @@ class AsmLabel {
     public AsmInst tail;
     public AsmInst terminatorBegin;
 
+    // 所在循环的嵌套深度，用于估计溢出代价
+    public int loopDepth = 0;
+
     public AsmLabel(String name) {
         this.name = name;
     }
@@ -230,6 +277,42 @@ class AsmLabel {
             tail = inst;
         }
     }
+
+    public void insertBefore(AsmInst pos, AsmInst inst) {
+        inst.prev = pos.prev;
+        inst.next = pos;
+        if (pos.prev != null) {
+            pos.prev.next = inst;
+        } else {
+            head = inst;
+        }
+        pos.prev = inst;
+    }
+
+    public void insertAfter(AsmInst pos, AsmInst inst) {
+        inst.prev = pos;
+        inst.next = pos.next;
+        if (pos.next != null) {
+            pos.next.prev = inst;
+        } else {
+            tail = inst;
+        }
+        pos.next = inst;
+    }
+
+    public void removeInst(AsmInst inst) {
+        if (inst.prev != null) {
+            inst.prev.next = inst.next;
+        } else {
+            head = inst.next;
+        }
+        if (inst.next != null) {
+            inst.next.prev = inst.prev;
+        } else {
+            tail = inst.prev;
+        }
+        inst.prev = inst.next = null;
+    }
 }
 
 // 二元指令
@@ -256,6 +339,17 @@ class AsmBinaryInst extends AsmInst {
         if (rhs != null) uses.add(rhs);
         return uses;
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        lhs = replaced(lhs, oldReg, newReg);
+        rhs = replaced(rhs, oldReg, newReg);
+    }
 }
 
 // 比较指令
@@ -279,6 +373,16 @@ class AsmCompareInst extends AsmInst {
         if (rhs != null) uses.add(rhs);
         return uses;
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        lhs = replaced(lhs, oldReg, newReg);
+        rhs = replaced(rhs, oldReg, newReg);
+    }
 }
 
 // 分支指令
@@ -300,6 +404,14 @@ class AsmBranchInst extends AsmInst {
     public List<AsmValue> getUses() {
         return new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+    }
 }
 
 // 跳转指令
@@ -320,10 +432,21 @@ class AsmJumpInst extends AsmInst {
     public List<AsmValue> getUses() {
         return new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+    }
 }
 
 // 返回指令
 class AsmReturnInst extends AsmInst {
+    // 存放返回值的物理寄存器(x0/s0)，无返回值时为null
+    public AsmReg retReg;
+
     public AsmReturnInst() {
         super(Tag.RETURN);
     }
@@ -335,7 +458,15 @@ class AsmReturnInst extends AsmInst {
 
     @Override
     public List<AsmValue> getUses() {
-        return new ArrayList<>();
+        return retReg != null ? Arrays.asList(retReg) : new ArrayList<>();
+    }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
     }
 }
 
@@ -358,6 +489,16 @@ class AsmMoveInst extends AsmInst {
     public List<AsmValue> getUses() {
         return src != null ? Arrays.asList(src) : new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        src = replaced(src, oldReg, newReg);
+    }
 }
 
 // 访问指令基类
@@ -392,6 +533,17 @@ class AsmLoadInst extends AsmAccess {
         if (offset != null) uses.add(offset);
         return uses;
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        addr = replaced(addr, oldReg, newReg);
+        offset = replaced(offset, oldReg, newReg);
+    }
 }
 
 // 存储指令
@@ -415,6 +567,17 @@ class AsmStoreInst extends AsmAccess {
         if (offset != null) uses.add(offset);
         return uses;
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        src = replaced(src, oldReg, newReg);
+        addr = replaced(addr, oldReg, newReg);
+        offset = replaced(offset, oldReg, newReg);
+    }
 }
 
 // 调用指令
@@ -428,15 +591,121 @@ class AsmCallInst extends AsmInst {
         this.callee = callee;
     }
 
+    // 调用会破坏所有调用者保存寄存器，并读取传参寄存器
     @Override
     public List<AsmValue> getDefs() {
-        return new ArrayList<>();
+        return new ArrayList<>(callDefs);
+    }
+
+    @Override
+    public List<AsmValue> getUses() {
+        return new ArrayList<>(callUses);
+    }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+    }
+}
+
+// 按条件码设置0/1
+class AsmCsetInst extends AsmInst {
+    public AsmValue dst;
+    public AsmPredicate pred;
+
+    public AsmCsetInst(AsmValue dst, AsmPredicate pred) {
+        super(Tag.CSET);
+        this.dst = dst;
+        this.pred = pred;
+    }
+
+    @Override
+    public List<AsmValue> getDefs() {
+        return Arrays.asList(dst);
     }
 
     @Override
     public List<AsmValue> getUses() {
         return new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+    }
+}
+
+// 把标量复制到向量的4个通道
+class AsmDupInst extends AsmInst {
+    public AsmValue dst;
+    public AsmValue src;
+
+    public AsmDupInst(AsmValue dst, AsmValue src) {
+        super(Tag.DUP);
+        this.dst = dst;
+        this.src = src;
+    }
+
+    @Override
+    public List<AsmValue> getDefs() {
+        return Arrays.asList(dst);
+    }
+
+    @Override
+    public List<AsmValue> getUses() {
+        return Arrays.asList(src);
+    }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        src = replaced(src, oldReg, newReg);
+    }
+}
+
+// 取出向量的第lane个通道
+class AsmLaneInst extends AsmInst {
+    public AsmValue dst;
+    public AsmValue src;
+    public int lane;
+
+    public AsmLaneInst(AsmValue dst, AsmValue src, int lane) {
+        super(Tag.LANE);
+        this.dst = dst;
+        this.src = src;
+        this.lane = lane;
+    }
+
+    @Override
+    public List<AsmValue> getDefs() {
+        return Arrays.asList(dst);
+    }
+
+    @Override
+    public List<AsmValue> getUses() {
+        return Arrays.asList(src);
+    }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        src = replaced(src, oldReg, newReg);
+    }
 }
 
 // 全局变量加载指令
@@ -457,6 +726,15 @@ class AsmLoadGlobalInst extends AsmInst {
     public List<AsmValue> getUses() {
         return new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+    }
 }
 
 // 转换指令
@@ -481,6 +759,16 @@ class AsmConvertInst extends AsmInst {
     public List<AsmValue> getUses() {
         return src != null ? Arrays.asList(src) : new ArrayList<>();
     }
+
+    @Override
+    public void replaceDef(AsmReg oldReg, AsmReg newReg) {
+        dst = replaced(dst, oldReg, newReg);
+    }
+
+    @Override
+    public void replaceUse(AsmReg oldReg, AsmReg newReg) {
+        src = replaced(src, oldReg, newReg);
+    }
 }
 
 // 函数类
@@ -497,6 +785,13 @@ class AsmFunc {
     public AsmFunc(String name) {
         this.name = name;
     }
+
+    // 在栈帧中分配一个size字节(8或16)、按size对齐的溢出槽，返回相对sp的偏移
+    public int allocSpillSlot(int size) {
+        int offset = (stackSize + size - 1) / size * size;
+        stackSize = offset + size;
+        return offset;
+    }
 }
 
 // 模块类
@@ -0,0 +1,185 @@
+package Backend;
+
+import java.util.*;
+
+/**
+ * 寄存器分配器的公共部分
+ * 1. 描述AArch64上可分配的物理寄存器以及调用约定
+ * 2. 分配失败时把溢出的虚拟寄存器改写为栈槽上的load/store，然后重新分配
+ * 3. 分配成功后把虚拟寄存器替换为物理寄存器，记录用到的被调用者保存寄存器
+ * x16/x17保留给CodeWriter展开大立即数和大偏移，x18为平台寄存器，x29/x30/sp不参与分配
+ */
+public abstract class RegAllocator {
+    // 优先使用调用者保存寄存器，跨调用的值才会落到被调用者保存寄存器上
+    static final int[] INT_REGS = {
+            9, 10, 11, 12, 13, 14, 15, 8, 7, 6, 5, 4, 3, 2, 1, 0,
+            19, 20, 21, 22, 23, 24, 25, 26, 27, 28
+    };
+    static final int[] FLOAT_REGS = {
+            16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31,
+            7, 6, 5, 4, 3, 2, 1, 0,
+            8, 9, 10, 11, 12, 13, 14, 15
+    };
+
+    // 溢出改写产生的临时寄存器，生命周期只有一两条指令，不应再次被选为溢出对象
+    protected final Set<VReg> spillTemps = new HashSet<>();
+
+    public static RegAllocator create(boolean linearScan) {
+        return linearScan ? new LinearScanAllocator() : new GraphColoringAllocator();
+    }
+
+    public static boolean isAllocatable(AsmReg reg) {
+        if (reg instanceof VReg || reg.isFloat()) {
+            return true;
+        }
+        int id = reg.getId();
+        return id < 16 || (id >= 19 && id <= 28);
+    }
+
+    public static boolean isCalleeSaved(AsmReg reg) {
+        int id = reg.getId();
+        return reg.isFloat() ? id >= 8 && id <= 15 : id >= 19 && id <= 28;
+    }
+
+    public static int numRegs(boolean isFloat) {
+        return isFloat ? FLOAT_REGS.length : INT_REGS.length;
+    }
+
+    public static int[] regsOf(boolean isFloat) {
+        return isFloat ? FLOAT_REGS : INT_REGS;
+    }
+
+    /**
+     * 函数调用会破坏的寄存器: x0-x17以及v0-v7、v16-v31
+     */
+    public static Set<PReg> callerSavedRegs() {
+        Set<PReg> regs = new HashSet<>();
+        for (int i = 0; i <= 17; i++) {
+            regs.add(AsmReg.makePReg(AsmType.I64, i));
+        }
+        for (int i = 0; i < 32; i++) {
+            if (i < 8 || i > 15) {
+                regs.add(AsmReg.makePReg(AsmType.F32, i));
+            }
+        }
+        return regs;
+    }
+
+    public void runOnModule(AsmModule module) {
+        for (AsmFunc func : module.funcs) {
+            if (func.isBuiltin) continue;
+            runOnFunction(func);
+        }
+    }
+
+    public void runOnFunction(AsmFunc func) {
+        spillTemps.clear();
+        while (true) {
+            Map<VReg, Integer> colors = new HashMap<>();
+            Set<VReg> spilled = allocate(func, colors);
+            if (spilled.isEmpty()) {
+                applyAssignment(func, colors);
+                return;
+            }
+            rewriteSpills(func, spilled);
+        }
+    }
+
+    /**
+     * 尝试为函数中的所有虚拟寄存器分配物理寄存器
+     * @param func 目标函数
+     * @param colors 输出: 虚拟寄存器到物理寄存器编号的映射
+     * @return 需要溢出的虚拟寄存器，为空表示分配成功
+     */
+    protected abstract Set<VReg> allocate(AsmFunc func, Map<VReg, Integer> colors);
+
+    /**
+     * 溢出代价: 每次定值或使用按所在循环深度加权
+     */
+    protected static Map<AsmReg, Double> spillCosts(AsmFunc func) {
+        Map<AsmReg, Double> costs = new HashMap<>();
+        for (AsmLabel label : func.labels) {
+            double weight = Math.pow(10, Math.min(label.loopDepth, 6));
+            for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof VReg reg) costs.merge(reg, weight, Double::sum);
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof VReg reg) costs.merge(reg, weight, Double::sum);
+                }
+            }
+        }
+        return costs;
+    }
+
+    //  每个溢出的寄存器占用一个栈槽，使用前从栈槽读入新的临时寄存器，定值后写回栈槽
+    private void rewriteSpills(AsmFunc func, Set<VReg> spilled) {
+        Map<VReg, Integer> slots = new HashMap<>();
+        for (VReg reg : spilled) {
+            slots.put(reg, func.allocSpillSlot(reg.isVector() ? 16 : 8));
+        }
+        for (AsmLabel label : func.labels) {
+            for (AsmInst inst = label.head; inst != null; inst = inst.next) {
+                Map<VReg, VReg> temps = new HashMap<>();
+                for (AsmValue value : inst.getUses()) {
+                    if (!(value instanceof VReg reg) || !slots.containsKey(reg) || temps.containsKey(reg)) continue;
+                    VReg tmp = AsmReg.makeVReg(reg.getType());
+                    spillTemps.add(tmp);
+                    temps.put(reg, tmp);
+                    inst.replaceUse(reg, tmp);
+                    AsmLoadInst load = new AsmLoadInst();
+                    load.dst = tmp;
+                    load.addr = AsmReg.sp();
+                    load.offset = new AsmImm(slots.get(reg));
+                    label.insertBefore(inst, load);
+                }
+                AsmInst cur = inst;
+                for (AsmValue value : cur.getDefs()) {
+                    if (!(value instanceof VReg reg) || !slots.containsKey(reg)) continue;
+                    VReg tmp = temps.get(reg);
+                    if (tmp == null) {
+                        tmp = AsmReg.makeVReg(reg.getType());
+                        spillTemps.add(tmp);
+                    }
+                    cur.replaceDef(reg, tmp);
+                    AsmStoreInst store = new AsmStoreInst();
+                    store.src = tmp;
+                    store.addr = AsmReg.sp();
+                    store.offset = new AsmImm(slots.get(reg));
+                    label.insertAfter(inst, store);
+                    inst = store;
+                }
+            }
+        }
+    }
+
+    private void applyAssignment(AsmFunc func, Map<VReg, Integer> colors) {
+        for (AsmLabel label : func.labels) {
+            AsmInst inst = label.head;
+            while (inst != null) {
+                AsmInst next = inst.next;
+                for (AsmValue value : inst.getDefs()) {
+                    if (value instanceof VReg reg) {
+                        PReg preg = AsmReg.makePReg(reg.getType(), colors.get(reg));
+                        inst.replaceDef(reg, preg);
+                        // AAPCS64只要求保存v8-v15的低64位，向量寄存器也按d寄存器保存
+                        if (isCalleeSaved(preg)) {
+                            func.usedCalleeSavedRegs.add(preg.isVector() ? AsmReg.makePReg(AsmType.F32, preg.getId()) : preg);
+                        }
+                    }
+                }
+                for (AsmValue value : inst.getUses()) {
+                    if (value instanceof VReg reg) {
+                        inst.replaceUse(reg, AsmReg.makePReg(reg.getType(), colors.get(reg)));
+                    }
+                }
+                //  合并后源与目标相同的move可以删除
+                if (inst instanceof AsmMoveInst move && move.pred == AsmPredicate.AL
+                        && move.src instanceof AsmReg src && src.equals(move.dst)) {
+                    label.removeInst(move);
+                }
+                inst = next;
+            }
+        }
+    }
+}
@@ -9,6 +9,12 @@ public class Config {
 
     //  isO1: 是否开启优化
     public static boolean isO1 = false;
+    //  isO2: 是否开启激进优化，开启时isO1也为true
+    public static boolean isO2 = false;
+    //  timePasses: 是否输出每个pass的耗时与IR规模
+    public static boolean timePasses = false;
+    //  linearRegAlloc: 使用线性扫描代替图着色进行寄存器分配(-ralloc=linear)
+    public static boolean linearRegAlloc = false;
     //  outputLLVM: 是否输出中端
     public static boolean outputLLVM = false;
     //  outputNoAlloc: 是否输出未分配寄存器的版本
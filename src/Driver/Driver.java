@@ -6,6 +6,7 @@ import Frontend.Parser;
 import Frontend.TokenList;
 import IR.IRModule;
 import IR.Visitor;
+import Pass.PassManager;
 import Utils.BlockChecker;
 import Utils.IRDump;
 import Utils.LLVMIRDump;
@@ -29,12 +30,17 @@ public class Driver {
             useValueChecker.check(irModule, "value_check_front");
         }
 
+        PassManager.getInstance().run(irModule);
+        if (!Config.noDump) {
+            IRDump.DumpModule(irModule, "_opt");
+            useValueChecker.check(irModule, "value_check_opt");
+        }
+
         if (Config.armBackend){
             try {
                 var fileOut = new java.io.FileOutputStream(Config.outputFile);
                 var printStream = new java.io.PrintStream(fileOut);
-                Backend.ArmWriter armWriter = new Backend.ArmWriter(printStream);
-                armWriter.printModule(irModule);
+                Backend.CodeGenerator.generate(irModule, printStream);
                 printStream.close();
                 fileOut.close();
             } catch (IOException e) {
@@ -62,6 +68,16 @@ public class Driver {
             else if(arg.equals("-O1")) {
                 Config.isO1 = true;
             }
+            else if(arg.equals("-O2")) {
+                Config.isO1 = true;
+                Config.isO2 = true;
+            }
+            else if(arg.equals("-time-passes")) {
+                Config.timePasses = true;
+            }
+            else if(arg.startsWith("-ralloc=")) {
+                Config.linearRegAlloc = arg.substring("-ralloc=".length()).equals("linear");
+            }
             else if(arg.equals("-S")) {
                 // 输出汇编文件，这是默认行为，无需特殊处理
             }
@@ -21,5 +21,9 @@ public abstract class Type {
         return false;
     }
 
+    public boolean isVectorTy() {
+        return false;
+    }
+
     public abstract String toLLVMString();
 }
@@ -0,0 +1,38 @@
+package IR.Type;
+
+//  NEON的128位向量，由4个i32或float通道组成，只出现在LoopVectorize生成的指令中
+public class VectorType extends Type {
+    public static final int LANES = 4;
+
+    private final Type eleType;
+
+    private VectorType(Type eleType) {
+        this.eleType = eleType;
+    }
+
+    public static VectorType V4I32 = new VectorType(IntegerType.I32);
+    public static VectorType V4F32 = new VectorType(FloatType.F32);
+
+    public static VectorType of(Type eleType) {
+        return eleType.isFloatTy() ? V4F32 : V4I32;
+    }
+
+    public Type getEleType() {
+        return eleType;
+    }
+
+    @Override
+    public boolean isVectorTy() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + LANES + " x " + eleType + ">";
+    }
+
+    @Override
+    public String toLLVMString() {
+        return "<" + LANES + " x " + eleType.toLLVMString() + ">";
+    }
+}
@@ -2,6 +2,7 @@ package IR.Value;
 
 import IR.IRModule;
 import IR.Type.Type;
+import Pass.IR.Utils.DomAnalysis;
 import Pass.IR.Utils.IRLoop;
 import Utils.DataStruct.IList;
 
@@ -14,9 +15,14 @@ public class Function extends Value{
     private LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> domer;
     public LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> doming;
     private LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> df;
+    //  支配信息是否与当前CFG一致，UtilFunc.makeCFG发现CFG变化时会将其置为false
+    private boolean domInfoValid = false;
+    //  上一次makeCFG得到的后继关系，用于判断CFG是否发生了变化
+    private LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> cfgSnapshot = new LinkedHashMap<>();
     private boolean mayHasSideEffect;
     private boolean storeGV;
     private boolean storeArg;
+    private boolean loadArg;
     public boolean isLibFunc = false;
     private final LinkedHashSet<GlobalVar> loadGVs;
     private final LinkedHashSet<GlobalVar> storeGVs;
@@ -89,15 +95,43 @@ public class Function extends Value{
         return storeArg;
     }
 
+    public void setLoadArg(boolean loadArg) {
+        this.loadArg = loadArg;
+    }
+
+    public boolean isLoadArg() {
+        return loadArg;
+    }
+
     public void setDF(LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> df){
         this.df = df;
     }
 
+    public boolean isDomInfoValid() {
+        return domInfoValid;
+    }
+
+    public void setDomInfoValid(boolean domInfoValid) {
+        this.domInfoValid = domInfoValid;
+    }
+
+    public LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> getCfgSnapshot() {
+        return cfgSnapshot;
+    }
+
+    public void setCfgSnapshot(LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> cfgSnapshot) {
+        this.cfgSnapshot = cfgSnapshot;
+    }
+
     public LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> getIdoms() {
         return idoms;
     }
 
+    //  支配者集合按需由支配树构建
     public LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> getDomer(){
+        if (domer == null && domInfoValid) {
+            DomAnalysis.buildDomSets(this);
+        }
         return domer;
     }
 
@@ -105,6 +139,13 @@ public class Function extends Value{
         return df;
     }
 
+    public LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> getDoming(){
+        if (doming == null && domInfoValid) {
+            DomAnalysis.buildDomSets(this);
+        }
+        return doming;
+    }
+
     public void setDomer(LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> domer){
         this.domer = domer;
     }
@@ -167,6 +208,11 @@ public class Function extends Value{
         return mayHasSideEffect;
     }
 
+    //  纯函数: 没有副作用，也不读取全局变量与参数数组，结果只由参数决定
+    public boolean isPure(){
+        return !mayHasSideEffect && !loadArg && loadGVs.isEmpty();
+    }
+
     public void addLoadGV(GlobalVar gv){
         loadGVs.add(gv);
     }
@@ -210,7 +256,8 @@ public class Function extends Value{
 
     public int getLoopDepth(BasicBlock bb){
         IRLoop loop = loopInfo.get(bb);
-        return loop.getLoopDepth();
+        //  不在任何循环中的块，RemovePhi新建的块会在depth中记录深度
+        return loop == null ? bb.depth : loop.getLoopDepth();
     }
     public boolean istailrecursive=false;
 }
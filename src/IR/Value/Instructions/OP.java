@@ -46,7 +46,12 @@ public enum OP {
     //not op
     Not,
     Move,
-    BitCast;
+    BitCast,
+    //vector op
+    VLoad,
+    VStore,
+    VSplat,
+    VReduce;
 
     public boolean isCmpOP(){
         String name = name();
@@ -109,6 +114,10 @@ public enum OP {
                 return "and";
             case Xor:
                 return "xor";
+            case Shl:
+                return "shl";
+            case Shr:
+                return "ashr";
             case Lt:
                 return "icmp slt";
             case FLt:
@@ -159,6 +168,14 @@ public enum OP {
                 return "move";
             case BitCast:
                 return "bitcast";
+            case VLoad:
+                return "load";
+            case VStore:
+                return "store";
+            case VSplat:
+                return "splat";
+            case VReduce:
+                return "reduce";
             default:
                 return "Unknown";
         }
@@ -232,6 +249,9 @@ public enum OP {
             case "Move" -> "move";
             case "And" -> "and";
             case "Or" -> "or";
+            case "Xor" -> "xor";
+            case "Shl" -> "shl";
+            case "Shr" -> "ashr";
             default -> null;
         };
     }
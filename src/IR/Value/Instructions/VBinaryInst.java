@@ -0,0 +1,36 @@
+package IR.Value.Instructions;
+
+import IR.Type.VectorType;
+import IR.Value.Value;
+import Utils.LLVMIRDump;
+
+//  逐通道的算术运算，op为对应的标量运算(Add/Sub/Mul/Fadd/Fsub/Fmul)
+public class VBinaryInst extends Instruction {
+
+    public VBinaryInst(OP op, Value left, Value right, VectorType type) {
+        super("%" + (++Value.valNumber), type, op);
+        this.addOperand(left);
+        this.addOperand(right);
+    }
+
+    public Value getLeftVal() {
+        return getOperand(0);
+    }
+
+    public Value getRightVal() {
+        return getOperand(1);
+    }
+
+    @Override
+    public String getInstString() {
+        return getName() + " = " + getOp() + " " + getType() + " " +
+                getLeftVal().getName() + ", " + getRightVal().getName();
+    }
+
+    @Override
+    public String toLLVMString() {
+        return LLVMIRDump.getLLVMName(getName()) + " = " + OP.getLLVMOpName(getOp()) + " " +
+                getType().toLLVMString() + " " + LLVMIRDump.getLLVMName(getLeftVal().getName()) + ", " +
+                LLVMIRDump.getLLVMName(getRightVal().getName());
+    }
+}
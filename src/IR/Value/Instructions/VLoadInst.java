@@ -0,0 +1,30 @@
+package IR.Value.Instructions;
+
+import IR.Type.VectorType;
+import IR.Value.Value;
+import Utils.LLVMIRDump;
+
+//  从pointer开始连续读取4个元素
+public class VLoadInst extends Instruction {
+
+    public VLoadInst(Value pointer, VectorType type) {
+        super("%" + (++Value.valNumber), type, OP.VLoad);
+        this.addOperand(pointer);
+    }
+
+    public Value getPointer() {
+        return getOperand(0);
+    }
+
+    @Override
+    public String getInstString() {
+        return getName() + " = load " + getType() + ", " + getPointer().getType() + " " + getPointer().getName();
+    }
+
+    @Override
+    public String toLLVMString() {
+        return LLVMIRDump.getLLVMName(getName()) + " = load " + getType().toLLVMString() + ", " +
+                getType().toLLVMString() + "* bitcast (" + getPointer().getType().toLLVMString() + " " +
+                LLVMIRDump.getLLVMName(getPointer().getName()) + ")";
+    }
+}
@@ -0,0 +1,36 @@
+package IR.Value.Instructions;
+
+import IR.Type.VectorType;
+import IR.Value.Value;
+import Utils.LLVMIRDump;
+
+//  用reduceOp(Add/Mul)把向量的4个通道合并为一个标量
+public class VReduceInst extends Instruction {
+    private final OP reduceOp;
+
+    public VReduceInst(OP reduceOp, Value vector) {
+        super("%" + (++Value.valNumber), ((VectorType) vector.getType()).getEleType(), OP.VReduce);
+        this.reduceOp = reduceOp;
+        this.addOperand(vector);
+    }
+
+    public OP getReduceOp() {
+        return reduceOp;
+    }
+
+    public Value getVector() {
+        return getOperand(0);
+    }
+
+    @Override
+    public String getInstString() {
+        return getName() + " = reduce " + reduceOp + " " + getVector().getType() + " " + getVector().getName();
+    }
+
+    @Override
+    public String toLLVMString() {
+        return LLVMIRDump.getLLVMName(getName()) + " = call " + getType().toLLVMString() +
+                " @llvm.vector.reduce." + OP.getLLVMOpName(reduceOp) + "(" + getVector().getType().toLLVMString() + " " +
+                LLVMIRDump.getLLVMName(getVector().getName()) + ")";
+    }
+}
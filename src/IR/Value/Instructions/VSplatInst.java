@@ -0,0 +1,29 @@
+package IR.Value.Instructions;
+
+import IR.Type.VectorType;
+import IR.Value.Value;
+import Utils.LLVMIRDump;
+
+//  把标量复制到向量的每个通道
+public class VSplatInst extends Instruction {
+
+    public VSplatInst(Value value) {
+        super("%" + (++Value.valNumber), VectorType.of(value.getType()), OP.VSplat);
+        this.addOperand(value);
+    }
+
+    public Value getValue() {
+        return getOperand(0);
+    }
+
+    @Override
+    public String getInstString() {
+        return getName() + " = splat " + getType() + " " + getValue().getName();
+    }
+
+    @Override
+    public String toLLVMString() {
+        return LLVMIRDump.getLLVMName(getName()) + " = splat " + getType().toLLVMString() + " " +
+                getValue().getType().toLLVMString() + " " + LLVMIRDump.getLLVMName(getValue().getName());
+    }
+}
@@ -0,0 +1,41 @@
+package IR.Value.Instructions;
+
+import IR.Type.VoidType;
+import IR.Value.Value;
+import Utils.LLVMIRDump;
+
+//  把向量的4个通道写入从pointer开始的连续4个元素
+public class VStoreInst extends Instruction {
+
+    public VStoreInst(Value value, Value pointer) {
+        super("", VoidType.voidType, OP.VStore);
+        this.addOperand(value);
+        this.addOperand(pointer);
+    }
+
+    public Value getValue() {
+        return getOperand(0);
+    }
+
+    public Value getPointer() {
+        return getOperand(1);
+    }
+
+    @Override
+    public boolean hasName() {
+        return false;
+    }
+
+    @Override
+    public String getInstString() {
+        return "store " + getValue() + ", " + getPointer();
+    }
+
+    @Override
+    public String toLLVMString() {
+        return "store " + getValue().getType().toLLVMString() + " " +
+                LLVMIRDump.getLLVMName(getValue().getName()) + ", " +
+                getValue().getType().toLLVMString() + "* bitcast (" + getPointer().getType().toLLVMString() + " " +
+                LLVMIRDump.getLLVMName(getPointer().getName()) + ")";
+    }
+}
@@ -569,7 +569,15 @@ public class Visitor {
         }
         else{
             Value basePtr = f.buildAllocInst(size, type, CurBasicBlock, isConst, values);
-            if (init != null) {
+            //  初始值为0的元素由一次memset清零，之后只store非零的元素；每个元素都有非零初始值时不需要memset
+            boolean needMemset = false;
+            for (Value value : values) {
+                if (isZeroInit(value)) {
+                    needMemset = true;
+                    break;
+                }
+            }
+            if (init != null && (needMemset || values.size() < size)) {
                 ArrayList<Value> memsetValues = new ArrayList<>();
                 memsetValues.add(basePtr);
                 memsetValues.add(f.buildNumber(0));
@@ -578,7 +586,7 @@ public class Visitor {
             }
             for(int i = 0; i < values.size(); i++){
                 Value nowValue = values.get(i);
-                if(nowValue.getName().equals("flag")){
+                if(isZeroInit(nowValue)){
                     continue;
                 }
                 CurValue = f.buildPtrInst(basePtr, f.buildNumber(i), CurBasicBlock);
@@ -588,6 +596,13 @@ public class Visitor {
         }
     }
 
+    //  局部数组中由memset置零的元素: 没有给出初始值，或初始值是常量0
+    private static boolean isZeroInit(Value value) {
+        if (value.getName().equals("flag")) return true;
+        if (value instanceof ConstInteger constInt) return constInt.getValue() == 0;
+        return value instanceof ConstFloat constFloat && Float.floatToRawIntBits(constFloat.getValue()) == 0;
+    }
+
     private void visitDeclAST(AST.Decl declAST, boolean isGlobal){
         boolean isConst = declAST.constant();
         String typeStr = declAST.getBType();
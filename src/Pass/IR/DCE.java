@@ -0,0 +1,190 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  DCE删除其他pass留下的无用代码
+//  1. 普通模式: 反复删除结果没有使用者、自身也没有副作用的指令
+//  2. 激进模式: 以store、ret、br以及有副作用的call为根，沿操作数标记活跃指令，未标记的全部删除，
+//     互相使用但不影响输出的phi与其更新也能删除
+//  3. 只被写入、从不被读取的局部数组连同对它的store一起删除
+//  4. 只有一条无条件跳转的块被删除，前驱直接跳转到它的后继
+//  call是否有副作用来自Function.mayHasSideEffect
+public class DCE implements Pass.IRPass {
+    private final boolean aggressive;
+
+    public DCE(boolean aggressive) {
+        this.aggressive = aggressive;
+    }
+
+    @Override
+    public String getName() {
+        return aggressive ? "ADCE" : "DCE";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.SideEffect);
+    }
+
+    //  删除的都是函数内部没有副作用的指令，函数的副作用不变
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.SideEffect);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            removeDeadLocals(function);
+            if (aggressive) {
+                removeUnmarked(function);
+            } else {
+                removeUnused(function);
+            }
+            removeEmptyBlocks(function);
+        }
+    }
+
+    //  没有使用者时可以删除的指令，store、br、ret与有副作用的call之外的指令都不影响程序的输出
+    private static boolean isRemovable(Instruction inst) {
+        if (inst instanceof CallInst callInst) return !callInst.getFunction().isMayHasSideEffect();
+        return inst instanceof BinaryInst || inst instanceof ConversionInst || inst instanceof LoadInst
+                || inst instanceof PtrInst || inst instanceof PtrSubInst || inst instanceof Phi
+                || inst instanceof AllocInst || inst instanceof VLoadInst || inst instanceof VBinaryInst
+                || inst instanceof VSplatInst || inst instanceof VReduceInst;
+    }
+
+    private void removeUnused(Function function) {
+        ArrayDeque<Instruction> worklist = new ArrayDeque<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                worklist.add(instNode.getValue());
+            }
+        }
+        LinkedHashSet<Instruction> removed = new LinkedHashSet<>();
+        while (!worklist.isEmpty()) {
+            Instruction inst = worklist.poll();
+            if (removed.contains(inst) || !inst.getUserList().isEmpty() || !isRemovable(inst)) continue;
+            ArrayList<Value> operands = new ArrayList<>(inst.getOperands());
+            inst.removeSelf();
+            removed.add(inst);
+            for (Value operand : operands) {
+                if (operand instanceof Instruction operandInst) worklist.add(operandInst);
+            }
+        }
+    }
+
+    private void removeUnmarked(Function function) {
+        LinkedHashSet<Instruction> live = new LinkedHashSet<>();
+        ArrayDeque<Instruction> worklist = new ArrayDeque<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (!isRemovable(inst) && live.add(inst)) worklist.add(inst);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Instruction inst = worklist.poll();
+            for (Value operand : inst.getOperands()) {
+                if (operand instanceof Instruction operandInst && live.add(operandInst)) worklist.add(operandInst);
+            }
+        }
+
+        //  先解除所有死指令对操作数的使用，互相使用的死指令之间不存在删除顺序
+        ArrayList<Instruction> dead = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                if (!live.contains(instNode.getValue())) dead.add(instNode.getValue());
+            }
+        }
+        for (Instruction inst : dead) {
+            inst.removeUseFromOperands();
+        }
+        for (Instruction inst : dead) {
+            inst.removeFromBb();
+        }
+    }
+
+    /**
+     * 删除只通过ptradd计算地址并被store写入的局部数组，地址传给call、被load读取或者作为值存储时都保留
+     */
+    private void removeDeadLocals(Function function) {
+        ArrayList<AllocInst> allocs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                if (instNode.getValue() instanceof AllocInst allocInst) allocs.add(allocInst);
+            }
+        }
+        for (AllocInst allocInst : allocs) {
+            ArrayList<Instruction> writes = new ArrayList<>();
+            if (!onlyWritten(allocInst, writes)) continue;
+            //  writes中地址的使用者排在地址之前，按顺序删除不会留下悬空的使用
+            for (Instruction inst : writes) {
+                inst.removeSelf();
+            }
+            allocInst.removeSelf();
+        }
+    }
+
+    private boolean onlyWritten(Value pointer, ArrayList<Instruction> writes) {
+        for (User user : pointer.getUserList()) {
+            if (user instanceof StoreInst storeInst && storeInst.getPointer() == pointer
+                    && storeInst.getValue() != pointer) {
+                writes.add(storeInst);
+            } else if (user instanceof VStoreInst vStoreInst && vStoreInst.getPointer() == pointer
+                    && vStoreInst.getValue() != pointer) {
+                writes.add(vStoreInst);
+            } else if (user instanceof PtrInst ptrInst && ptrInst.getTarget() == pointer) {
+                if (!onlyWritten(ptrInst, writes)) return false;
+                writes.add(ptrInst);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeEmptyBlocks(Function function) {
+        BasicBlock entry = function.getBbEntry();
+        ArrayList<BasicBlock> bbs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            bbs.add(bbNode.getValue());
+        }
+        boolean changed = false;
+        for (BasicBlock bb : bbs) {
+            if (bb == entry || bb.getInsts().getSize() != 1
+                    || !(bb.getLastInst() instanceof BrInst brInst) || !brInst.isJump()) continue;
+            BasicBlock nxtBb = brInst.getJumpBlock();
+            ArrayList<BasicBlock> preBbs = new ArrayList<>(bb.getPreBlocks());
+            //  前驱已经是后继的前驱时，合并后同一条边上的phi取值会冲突
+            if (nxtBb == bb || preBbs.contains(bb) || preBbs.isEmpty()) continue;
+            if (preBbs.stream().anyMatch(nxtBb.getPreBlocks()::contains)) continue;
+
+            int idx = nxtBb.getPreBlocks().indexOf(bb);
+            for (Phi phi : UtilFunc.getPhiInBb(nxtBb)) {
+                Value value = phi.getOperand(idx);
+                phi.removeOperand(idx);
+                for (int i = 0; i < preBbs.size(); i++) phi.addOperand(value);
+            }
+            nxtBb.getPreBlocks().remove(idx);
+            nxtBb.getPreBlocks().addAll(preBbs);
+            for (BasicBlock preBb : preBbs) {
+                preBb.turnBrBlock(bb, nxtBb);
+                Collections.replaceAll(preBb.getNxtBlocks(), bb, nxtBb);
+            }
+            bb.removeInstsAndSelf();
+            changed = true;
+        }
+        if (changed) {
+            UtilFunc.makeCFG(function);
+        }
+    }
+}
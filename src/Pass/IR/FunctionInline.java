@@ -0,0 +1,245 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.DomAnalysis;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  FunctionInline按调用图自底向上内联函数调用
+//  1. 被调用者先于调用者处理，递归(调用图中成环)的函数不内联
+//  2. 克隆被调用者的基本块，形参替换为实参，ret改为跳转到调用点之后的块，多个返回值用phi合并
+//  3. 内联收益按被调用者规模估计: 叶子函数与位于循环中的调用点有更高的阈值
+//  内联完成后不再被调用的函数(main除外)会从模块中删除
+public class FunctionInline implements Pass.IRPass {
+    //  被调用者指令数的基础阈值
+    private static final int BASE_THRESHOLD = 40;
+    //  调用点每多一层循环阈值增加的指令数，最多计三层
+    private static final int LOOP_BONUS = 40;
+    //  调用者超过这个规模后不再向其中内联
+    private static final int MAX_CALLER_SIZE = 4000;
+
+    private final LinkedHashSet<Function> recursiveFuncs = new LinkedHashSet<>();
+
+    @Override
+    public String getName() {
+        return "FunctionInline";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.CallGraph);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            DomAnalysis.removeUnreachableBlocks(function);
+        }
+        ArrayList<Function> order = bottomUpOrder(module);
+        for (Function caller : order) {
+            runOnFunction(caller);
+        }
+
+        //  删除已经没有调用者的函数
+        UtilFunc.buildCallRelation(module);
+        module.functions().removeIf(function -> !function.isLibFunction()
+                && !function.getName().equals("@main") && function.getCallerList().isEmpty());
+    }
+
+    //  调用图的后序，同时用Tarjan算法找出处于环中的函数
+    private ArrayList<Function> bottomUpOrder(IRModule module) {
+        recursiveFuncs.clear();
+        ArrayList<Function> order = new ArrayList<>();
+        LinkedHashMap<Function, Integer> index = new LinkedHashMap<>();
+        LinkedHashMap<Function, Integer> lowLink = new LinkedHashMap<>();
+        LinkedHashSet<Function> onStack = new LinkedHashSet<>();
+        Stack<Function> sccStack = new Stack<>();
+        for (Function function : module.functions()) {
+            if (function.isLibFunction() || index.containsKey(function)) continue;
+            tarjan(function, index, lowLink, onStack, sccStack, order);
+        }
+        return order;
+    }
+
+    private void tarjan(Function function, LinkedHashMap<Function, Integer> index,
+                        LinkedHashMap<Function, Integer> lowLink, LinkedHashSet<Function> onStack,
+                        Stack<Function> sccStack, ArrayList<Function> order) {
+        index.put(function, index.size());
+        lowLink.put(function, index.get(function));
+        sccStack.push(function);
+        onStack.add(function);
+        for (Function callee : function.getCalleeList()) {
+            if (callee.isLibFunction()) continue;
+            if (!index.containsKey(callee)) {
+                tarjan(callee, index, lowLink, onStack, sccStack, order);
+                lowLink.put(function, Math.min(lowLink.get(function), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(function, Math.min(lowLink.get(function), index.get(callee)));
+            }
+        }
+        if (lowLink.get(function).equals(index.get(function))) {
+            ArrayList<Function> scc = new ArrayList<>();
+            Function member;
+            do {
+                member = sccStack.pop();
+                onStack.remove(member);
+                scc.add(member);
+            } while (member != function);
+            if (scc.size() > 1 || function.getCalleeList().contains(function)) {
+                recursiveFuncs.addAll(scc);
+            }
+            order.addAll(scc);
+        }
+    }
+
+    private static int countInsts(Function function) {
+        int count = 0;
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            count += bbNode.getValue().getInsts().getSize();
+        }
+        return count;
+    }
+
+    private boolean canInline(Function callee) {
+        return !callee.isLibFunction() && !recursiveFuncs.contains(callee)
+                && callee.getBbEntry().getPreBlocks().isEmpty();
+    }
+
+    private void runOnFunction(Function caller) {
+        if (caller.isLibFunction()) return;
+        UtilFunc.makeCFG(caller);
+        DomAnalysis.run(caller);
+        LoopAnalysis.run(caller);
+
+        //  切分基本块后调用点所在的块会变化，循环层数在收集时记录
+        LinkedHashMap<CallInst, Integer> callSites = new LinkedHashMap<>();
+        for (IList.INode<BasicBlock, Function> bbNode : caller.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                if (instNode.getValue() instanceof CallInst callInst && canInline(callInst.getFunction())) {
+                    callSites.put(callInst, bb.getLoopDepth());
+                }
+            }
+        }
+
+        int callerSize = countInsts(caller);
+        boolean changed = false;
+        for (CallInst callInst : callSites.keySet()) {
+            Function callee = callInst.getFunction();
+            int calleeSize = countInsts(callee);
+            int threshold = BASE_THRESHOLD;
+            boolean isLeaf = true;
+            for (Function f : callee.getCalleeList()) {
+                if (!f.isLibFunction()) isLeaf = false;
+            }
+            if (isLeaf) threshold *= 2;
+            threshold += LOOP_BONUS * Math.min(callSites.get(callInst), 3);
+            if (calleeSize > threshold || callerSize + calleeSize > MAX_CALLER_SIZE) continue;
+            inline(callInst, caller);
+            callerSize += calleeSize;
+            changed = true;
+        }
+        if (changed) {
+            UtilFunc.makeCFG(caller);
+        }
+    }
+
+    private void inline(CallInst callInst, Function caller) {
+        Function callee = callInst.getFunction();
+        BasicBlock callBb = callInst.getParentbb();
+
+        //  在调用点处切分基本块，call之后的指令移入afterBb
+        BasicBlock afterBb = new BasicBlock(caller);
+        afterBb.insertAfter(callBb);
+        IList.INode<Instruction, BasicBlock> node = callInst.getNode().getNext();
+        while (node != null) {
+            Instruction inst = node.getValue();
+            node = node.getNext();
+            inst.removeFromBb();
+            afterBb.addInst(inst);
+        }
+        for (BasicBlock nxtBb : callBb.getNxtBlocks()) {
+            Collections.replaceAll(nxtBb.getPreBlocks(), callBb, afterBb);
+            afterBb.getNxtBlocks().add(nxtBb);
+        }
+        callBb.getNxtBlocks().clear();
+
+        LinkedHashMap<Value, Value> valueMap = new LinkedHashMap<>();
+        for (int i = 0; i < callee.getArgs().size(); i++) {
+            valueMap.put(callee.getArgs().get(i), callInst.getParams().get(i));
+        }
+        ArrayList<BasicBlock> rpo = DomAnalysis.getRPO(callee);
+        LinkedHashMap<BasicBlock, BasicBlock> bbMap = new LinkedHashMap<>();
+        BasicBlock prevBb = callBb;
+        for (IList.INode<BasicBlock, Function> bbNode : callee.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            BasicBlock newBb = new BasicBlock(caller);
+            newBb.insertAfter(prevBb);
+            newBb.depth = bb.depth + callBb.depth;
+            prevBb = newBb;
+            bbMap.put(bb, newBb);
+        }
+
+        //  按逆后序克隆，除phi外的操作数总是已经克隆过，phi的操作数在最后回填
+        LinkedHashMap<Phi, Phi> phiMap = new LinkedHashMap<>();
+        ArrayList<Value> retValues = new ArrayList<>();
+        ArrayList<BasicBlock> retBbs = new ArrayList<>();
+        BasicBlock callerEntry = caller.getBbEntry();
+        for (BasicBlock bb : rpo) {
+            BasicBlock newBb = bbMap.get(bb);
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (inst instanceof RetInst retInst) {
+                    if (!retInst.isVoid()) {
+                        retValues.add(valueMap.getOrDefault(retInst.getValue(), retInst.getValue()));
+                    }
+                    retBbs.add(newBb);
+                    newBb.addInst(new BrInst(afterBb));
+                    continue;
+                }
+                Instruction newInst = UtilFunc.cloneInst(inst, valueMap, bbMap);
+                valueMap.put(inst, newInst);
+                if (newInst instanceof Phi phi) phiMap.put(phi, (Phi) inst);
+                //  局部数组、变量的空间统一放在调用者的入口块
+                if (newInst instanceof AllocInst) {
+                    newInst.insertToHead(callerEntry);
+                } else {
+                    newBb.addInst(newInst);
+                }
+            }
+            ArrayList<BasicBlock> preBbs = new ArrayList<>();
+            for (BasicBlock preBb : bb.getPreBlocks()) preBbs.add(bbMap.get(preBb));
+            newBb.getPreBlocks().addAll(preBbs);
+            for (BasicBlock nxtBb : bb.getNxtBlocks()) newBb.getNxtBlocks().add(bbMap.get(nxtBb));
+        }
+        for (Phi phi : phiMap.keySet()) {
+            for (Value value : phiMap.get(phi).getOperands()) {
+                phi.addOperand(valueMap.getOrDefault(value, value));
+            }
+        }
+
+        //  调用点改为跳转到被调用者的入口
+        BasicBlock newEntry = bbMap.get(callee.getBbEntry());
+        newEntry.getPreBlocks().add(callBb);
+        callBb.getNxtBlocks().add(newEntry);
+        afterBb.getPreBlocks().addAll(retBbs);
+        if (!retValues.isEmpty()) {
+            Value retValue = retValues.get(0);
+            if (retValues.size() > 1) {
+                Phi retPhi = new Phi(callInst.getType(), retValues);
+                afterBb.addInstToHead(retPhi);
+                retValue = retPhi;
+            }
+            callInst.replaceUsedWith(retValue);
+        }
+        callInst.removeSelf();
+        callBb.addInst(new BrInst(newEntry));
+    }
+}
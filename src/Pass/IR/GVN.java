@@ -0,0 +1,146 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  GVN沿支配树先序遍历，对无副作用的指令按 (指令种类, OP, 操作数) 编号
+//  1. 同一编号的指令若已经在支配者中出现，直接用先出现的指令替换
+//  2. 离开支配树子树时撤销子树中登记的编号，保证替换者总是支配被替换者
+//  3. 处理BinaryInst、PtrInst、PtrSubInst、ConversionInst、从const全局数组中的load以及纯函数的调用
+//  可交换的运算按操作数编号排序后再比较
+public class GVN implements Pass.IRPass {
+    private record Key(Class<?> kind, OP op, boolean i64, List<Object> operands) {}
+
+    private final HashMap<Key, Instruction> table = new HashMap<>();
+    //  给非常量操作数一个稳定的序号，用于可交换运算的操作数排序
+    private final HashMap<Value, Integer> valueIds = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return "GVN";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.SideEffect);
+    }
+
+    //  只删除指令，不改变CFG
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        table.clear();
+        valueIds.clear();
+        //  子树中登记的编号，节点第二次出栈时撤销
+        LinkedHashMap<BasicBlock, ArrayList<Key>> scopes = new LinkedHashMap<>();
+        Stack<BasicBlock> stack = new Stack<>();
+        stack.push(function.getBbEntry());
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.peek();
+            if (scopes.containsKey(bb)) {
+                stack.pop();
+                for (Key key : scopes.remove(bb)) {
+                    table.remove(key);
+                }
+                continue;
+            }
+            scopes.put(bb, runOnBlock(bb));
+            for (BasicBlock child : bb.getIdoms()) {
+                stack.push(child);
+            }
+        }
+    }
+
+    private ArrayList<Key> runOnBlock(BasicBlock bb) {
+        ArrayList<Key> added = new ArrayList<>();
+        ArrayList<Instruction> insts = new ArrayList<>();
+        for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+            insts.add(instNode.getValue());
+        }
+        for (Instruction inst : insts) {
+            Key key = getKey(inst);
+            if (key == null) continue;
+            Instruction leader = table.get(key);
+            if (leader != null) {
+                inst.replaceUsedWith(leader);
+                inst.removeSelf();
+            } else {
+                table.put(key, inst);
+                added.add(key);
+            }
+        }
+        return added;
+    }
+
+    private static boolean isCommutative(OP op) {
+        return switch (op) {
+            case Add, Mul, And, Or, Xor, Eq, Ne, Fadd, Fmul, FEq, FNe -> true;
+            default -> false;
+        };
+    }
+
+    //  常量按值比较，其余按对象比较
+    private Object operandKey(Value value) {
+        if (value instanceof ConstInteger constInt) {
+            return "i" + constInt.getValue();
+        }
+        if (value instanceof ConstFloat constFloat) {
+            return "f" + Float.floatToRawIntBits(constFloat.getValue());
+        }
+        valueIds.putIfAbsent(value, valueIds.size());
+        return value;
+    }
+
+    private int operandOrder(Object key) {
+        return key instanceof Value value ? valueIds.get(value) : Integer.MAX_VALUE;
+    }
+
+    private Key getKey(Instruction inst) {
+        boolean i64 = false;
+        if (inst instanceof BinaryInst binaryInst) {
+            i64 = binaryInst.I64;
+        } else if (inst instanceof LoadInst loadInst) {
+            if (!isConstGlobalAddress(loadInst.getPointer())) return null;
+        } else if (inst instanceof CallInst callInst) {
+            if (!callInst.getFunction().isPure()) return null;
+        } else if (!(inst instanceof PtrInst || inst instanceof PtrSubInst || inst instanceof ConversionInst)) {
+            return null;
+        }
+        ArrayList<Object> operands = new ArrayList<>();
+        //  调用按被调用的函数区分
+        if (inst instanceof CallInst callInst) {
+            operands.add(operandKey(callInst.getFunction()));
+        }
+        for (Value operand : inst.getOperands()) {
+            operands.add(operandKey(operand));
+        }
+        if (isCommutative(inst.getOp()) && operandOrder(operands.get(0)) > operandOrder(operands.get(1))) {
+            Collections.swap(operands, 0, 1);
+        }
+        return new Key(inst.getClass(), inst.getOp(), i64, operands);
+    }
+
+    //  沿地址计算链找到基址，只有const全局数组中的值不会被修改
+    private static boolean isConstGlobalAddress(Value pointer) {
+        while (pointer instanceof PtrInst ptrInst) {
+            pointer = ptrInst.getTarget();
+        }
+        return pointer instanceof GlobalVar globalVar && globalVar.isConst();
+    }
+}
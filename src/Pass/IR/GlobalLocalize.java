@@ -0,0 +1,145 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.PointerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.IRLoop;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  GlobalLocalize把标量全局变量的读写改为局部变量，之后由Mem2Reg提升到寄存器
+//  1. 只在main中访问的全局变量，在main入口变为局部变量并写入初值，
+//     main不会被再次调用，全局变量本身随之删除
+//  2. 循环中只有直接读写、调用的函数都不读写(Function.loadGVs/storeGVs)的全局变量，
+//     在preheader中读入局部变量，循环内的读写都改为局部变量，循环中有写入时在每个出口写回
+//  循环中有ret，或者出口块还有循环外的前驱时，写回的位置不唯一，不做处理
+//  其他函数可能被多次调用，全局变量的值需要在调用之间保留，不能只在一个函数内局部化
+public class GlobalLocalize implements Pass.IRPass {
+    @Override
+    public String getName() {
+        return "GlobalLocalize";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.LoopInfo, Analysis.SideEffect);
+    }
+
+    //  只增删指令，读写全局变量的集合改变了
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo, Analysis.CallGraph);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        localizeInMain(module);
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            //  allLoops外层在前，外层循环已经处理过的全局变量在内层中不再出现
+            for (IRLoop loop : function.getAllLoops()) {
+                promoteInLoop(loop, function);
+            }
+        }
+    }
+
+    private void localizeInMain(IRModule module) {
+        Function main = null;
+        for (Function function : module.functions()) {
+            if (function.getName().equals("@main")) main = function;
+        }
+        if (main == null || !main.getCallerList().isEmpty()) return;
+        for (GlobalVar globalVar : new ArrayList<>(module.globalVars())) {
+            if (globalVar.isArray() || !onlyLoadStore(globalVar, main)) continue;
+            BasicBlock entry = main.getBbEntry();
+            AllocInst slot = new AllocInst(globalVar.getType());
+            slot.insertToHead(entry);
+            globalVar.replaceUsedWith(slot);
+            new StoreInst(globalVar.getValue(), slot).insertAfter(slot);
+            module.globalVars().remove(globalVar);
+        }
+    }
+
+    //  全局变量的使用者都是function中以它为地址的load/store
+    private static boolean onlyLoadStore(GlobalVar globalVar, Function function) {
+        for (User user : globalVar.getUserList()) {
+            if (!(user instanceof Instruction inst) || inst.getParentbb().getParentFunc() != function) return false;
+            if (inst instanceof LoadInst) continue;
+            if (inst instanceof StoreInst storeInst && storeInst.getValue() != globalVar) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private void promoteInLoop(IRLoop loop, Function function) {
+        BasicBlock preHeader = loop.getPreHeader();
+        if (preHeader == null) return;
+        LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+        for (BasicBlock exit : loop.getExitBlocks()) {
+            if (!body.containsAll(exit.getPreBlocks())) return;
+        }
+
+        LinkedHashMap<GlobalVar, ArrayList<Instruction>> accesses = new LinkedHashMap<>();
+        LinkedHashSet<GlobalVar> invalid = new LinkedHashSet<>();
+        ArrayList<Function> callees = new ArrayList<>();
+        for (BasicBlock bb : body) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (inst instanceof RetInst) return;
+                if (inst instanceof CallInst callInst && !callInst.getFunction().isLibFunction()) {
+                    callees.add(callInst.getFunction());
+                }
+                for (Value operand : inst.getOperands()) {
+                    if (!(operand instanceof GlobalVar globalVar) || globalVar.isArray()) continue;
+                    if (inst instanceof LoadInst || inst instanceof StoreInst storeInst && storeInst.getValue() != globalVar) {
+                        accesses.computeIfAbsent(globalVar, k -> new ArrayList<>()).add(inst);
+                    } else {
+                        invalid.add(globalVar);
+                    }
+                }
+            }
+        }
+
+        for (GlobalVar globalVar : accesses.keySet()) {
+            if (invalid.contains(globalVar)) continue;
+            boolean usedByCallee = false;
+            for (Function callee : callees) {
+                if (callee.getLoadGVs().contains(globalVar) || callee.getStoreGVs().contains(globalVar)) {
+                    usedByCallee = true;
+                    break;
+                }
+            }
+            if (usedByCallee) continue;
+
+            AllocInst slot = new AllocInst(globalVar.getType());
+            slot.insertToHead(function.getBbEntry());
+            Instruction preTerm = preHeader.getLastInst();
+            LoadInst init = new LoadInst(globalVar, ((PointerType) globalVar.getType()).getEleType());
+            init.insertBefore(preTerm);
+            new StoreInst(init, slot).insertBefore(preTerm);
+
+            boolean stored = false;
+            for (Instruction inst : accesses.get(globalVar)) {
+                inst.replaceOperand(globalVar, slot);
+                stored |= inst instanceof StoreInst;
+            }
+            if (!stored) continue;
+            for (BasicBlock exit : loop.getExitBlocks()) {
+                Instruction pos = firstNonPhi(exit);
+                LoadInst value = new LoadInst(slot, init.getType());
+                value.insertBefore(pos);
+                new StoreInst(value, globalVar).insertBefore(pos);
+            }
+        }
+    }
+
+    private static Instruction firstNonPhi(BasicBlock bb) {
+        for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+            if (!(instNode.getValue() instanceof Phi)) return instNode.getValue();
+        }
+        return bb.getLastInst();
+    }
+}
@@ -0,0 +1,285 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.PointerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.DomAnalysis;
+import Pass.IR.Utils.IRLoop;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  LICM把循环不变的指令外提到循环的preheader
+//  1. 循环头有多个来自循环外的前驱，或唯一的外部前驱还有其他后继时，新建一个只跳转到循环头的preheader
+//  2. 由内向外处理循环，按逆后序扫描循环内的块，所有操作数都定义在循环外的无副作用指令被外提
+//  3. load只在循环中没有可能别名的store、call时外提，同时要求外提后的访问不会越界或者原本就一定会执行
+//  4. 纯函数的调用、读取的内存在循环中不会被写入的只读函数调用，在原本一定会执行时外提
+//  除法、取余只在除数为非零常量或者原本一定会执行时外提
+public class LICM implements Pass.IRPass {
+    @Override
+    public String getName() {
+        return "LICM";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo, Analysis.SideEffect);
+    }
+
+    //  插入preheader后会重新计算CFG、支配树与循环信息
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        if (function.getAllLoops().isEmpty()) return;
+        boolean changed = false;
+        for (IRLoop loop : function.getAllLoops()) {
+            changed |= insertPreHeader(loop, function);
+        }
+        if (changed) {
+            UtilFunc.makeCFG(function);
+            DomAnalysis.run(function);
+            LoopAnalysis.run(function);
+        }
+
+        ArrayList<BasicBlock> rpo = DomAnalysis.getRPO(function);
+        ArrayList<IRLoop> loops = new ArrayList<>(function.getAllLoops());
+        //  allLoops外层在前，内层循环先处理，外提到内层preheader的指令还可以继续外提
+        Collections.reverse(loops);
+        for (IRLoop loop : loops) {
+            hoist(loop, rpo);
+        }
+    }
+
+    /**
+     * 为循环插入preheader，header的phi中来自循环外的取值合并到preheader的phi中
+     * @return 是否新建了基本块
+     */
+    private boolean insertPreHeader(IRLoop loop, Function function) {
+        BasicBlock header = loop.getHead();
+        LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+        ArrayList<BasicBlock> preBbs = new ArrayList<>(header.getPreBlocks());
+        ArrayList<Integer> outsideIdx = new ArrayList<>();
+        for (int i = 0; i < preBbs.size(); i++) {
+            if (!body.contains(preBbs.get(i))) outsideIdx.add(i);
+        }
+        if (outsideIdx.size() == 1 && preBbs.get(outsideIdx.get(0)).getNxtBlocks().size() == 1) {
+            return false;
+        }
+        if (outsideIdx.isEmpty()) return false;
+
+        BasicBlock preHeader = new BasicBlock(function);
+        preHeader.insertBefore(header);
+        preHeader.depth = header.getLoopDepth() - 1;
+        ArrayList<BasicBlock> outsideBbs = new ArrayList<>();
+        for (int i : outsideIdx) outsideBbs.add(preBbs.get(i));
+
+        for (Phi phi : UtilFunc.getPhiInBb(header)) {
+            ArrayList<Value> insideValues = new ArrayList<>();
+            ArrayList<Value> outsideValues = new ArrayList<>();
+            for (int i = 0; i < preBbs.size(); i++) {
+                (outsideIdx.contains(i) ? outsideValues : insideValues).add(phi.getOperand(i));
+            }
+            Value enterValue = outsideValues.get(0);
+            for (Value value : outsideValues) {
+                if (value != enterValue) {
+                    Phi enterPhi = new Phi(phi.getType(), outsideValues);
+                    preHeader.addInst(enterPhi);
+                    enterValue = enterPhi;
+                    break;
+                }
+            }
+            for (int i = phi.getOperands().size() - 1; i >= 0; i--) {
+                phi.removeOperand(i);
+            }
+            for (Value value : insideValues) phi.addOperand(value);
+            phi.addOperand(enterValue);
+        }
+
+        //  header的前驱顺序与phi操作数一致: 循环内的前驱在前，preheader在最后
+        header.getPreBlocks().removeAll(outsideBbs);
+        header.getPreBlocks().add(preHeader);
+        for (BasicBlock outsideBb : outsideBbs) {
+            outsideBb.turnBrBlock(header, preHeader);
+            Collections.replaceAll(outsideBb.getNxtBlocks(), header, preHeader);
+        }
+        preHeader.getPreBlocks().addAll(outsideBbs);
+        preHeader.getNxtBlocks().add(header);
+        preHeader.addInst(new BrInst(header));
+        return true;
+    }
+
+    private void hoist(IRLoop loop, ArrayList<BasicBlock> rpo) {
+        BasicBlock preHeader = loop.getPreHeader();
+        if (preHeader == null) return;
+        LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+        MemoryEffects effects = new MemoryEffects(body);
+
+        for (BasicBlock bb : rpo) {
+            if (!body.contains(bb)) continue;
+            boolean alwaysExecuted = isAlwaysExecuted(bb, loop);
+            ArrayList<Instruction> insts = new ArrayList<>();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                insts.add(instNode.getValue());
+            }
+            for (Instruction inst : insts) {
+                if (!isInvariant(inst, body) || !canHoist(inst, alwaysExecuted, effects)) continue;
+                inst.removeFromBb();
+                inst.insertBefore(preHeader.getLastInst());
+            }
+        }
+    }
+
+    private static boolean isInvariant(Instruction inst, LinkedHashSet<BasicBlock> body) {
+        for (Value operand : inst.getOperands()) {
+            if (operand instanceof Instruction opInst && body.contains(opInst.getParentbb())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //  进入循环后一定会执行的块: 支配所有跳出循环的块，或者循环至少执行一次且支配所有latch
+    private static boolean isAlwaysExecuted(BasicBlock bb, IRLoop loop) {
+        boolean domExiting = true;
+        for (BasicBlock exitingBb : loop.getExitingBlocks()) {
+            if (!DomAnalysis.dominates(bb, exitingBb)) domExiting = false;
+        }
+        if (domExiting) return true;
+        if (!loop.isSetIndVar() || loop.getItTimes() <= 0) return false;
+        for (BasicBlock latchBb : loop.getLatchBlocks()) {
+            if (!DomAnalysis.dominates(bb, latchBb)) return false;
+        }
+        return true;
+    }
+
+    private boolean canHoist(Instruction inst, boolean alwaysExecuted, MemoryEffects effects) {
+        if (inst instanceof BinaryInst binaryInst) {
+            if (binaryInst.getOp() == OP.Div || binaryInst.getOp() == OP.Mod) {
+                return alwaysExecuted || (binaryInst.getRightVal() instanceof ConstInteger c && c.getValue() != 0);
+            }
+            return true;
+        }
+        if (inst instanceof PtrInst || inst instanceof PtrSubInst || inst instanceof ConversionInst) {
+            return true;
+        }
+        if (inst instanceof LoadInst loadInst) {
+            Value pointer = loadInst.getPointer();
+            return !effects.mayWrite(getBase(pointer)) && (alwaysExecuted || isInBounds(pointer));
+        }
+        if (inst instanceof CallInst callInst) {
+            //  被调用的函数可能不终止或者出错，只外提原本一定会执行的调用
+            Function callee = callInst.getFunction();
+            if (callee.isMayHasSideEffect() || !alwaysExecuted) return false;
+            for (GlobalVar globalVar : callee.getLoadGVs()) {
+                if (effects.mayWrite(globalVar)) return false;
+            }
+            if (callee.isLoadArg()) {
+                for (Value param : callInst.getParams()) {
+                    if (param.getType() instanceof PointerType && effects.mayWrite(getBase(param))) return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    //  沿地址计算链找到访问的对象: GlobalVar、AllocInst或者作为参数传入的指针
+    static Value getBase(Value pointer) {
+        while (true) {
+            if (pointer instanceof PtrInst ptrInst) pointer = ptrInst.getTarget();
+            else if (pointer instanceof PtrSubInst ptrSubInst) pointer = ptrSubInst.getTarget();
+            else return pointer;
+        }
+    }
+
+    //  偏移都是常量且落在对象范围内的访问可以安全地提前执行
+    private static boolean isInBounds(Value pointer) {
+        long offset = 0;
+        while (pointer instanceof PtrInst ptrInst) {
+            if (!(ptrInst.getOffset() instanceof ConstInteger c)) return false;
+            offset += c.getValue();
+            pointer = ptrInst.getTarget();
+        }
+        int size;
+        if (pointer instanceof GlobalVar globalVar) {
+            size = globalVar.isArray() ? globalVar.getSize() : 1;
+        } else if (pointer instanceof AllocInst allocInst) {
+            size = allocInst.getSize();
+        } else {
+            return false;
+        }
+        return offset >= 0 && offset < size;
+    }
+
+    //  是否有非库函数的调用使用了它的地址，这样的局部数组可能被调用修改
+    private static boolean isEscaped(AllocInst allocInst) {
+        Stack<Value> stack = new Stack<>();
+        stack.push(allocInst);
+        while (!stack.isEmpty()) {
+            for (User user : stack.pop().getUserList()) {
+                if (user instanceof PtrInst || user instanceof PtrSubInst) stack.push(user);
+                else if (user instanceof CallInst callInst && !callInst.getFunction().isLibFunction()) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mayAlias(Value a, Value b) {
+        if (a == b) return true;
+        boolean aObject = a instanceof GlobalVar || a instanceof AllocInst;
+        boolean bObject = b instanceof GlobalVar || b instanceof AllocInst;
+        if (aObject && bObject) return false;
+        //  参数指针只可能指向全局变量或调用者的局部数组
+        return !(a instanceof AllocInst && b instanceof Argument) && !(b instanceof AllocInst && a instanceof Argument);
+    }
+
+    //  循环中所有store、call写入的对象
+    private static class MemoryEffects {
+        private final LinkedHashSet<Value> storeBases = new LinkedHashSet<>();
+        private boolean hasCall = false;
+
+        MemoryEffects(LinkedHashSet<BasicBlock> body) {
+            for (BasicBlock bb : body) {
+                for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                    Instruction inst = instNode.getValue();
+                    if (inst instanceof StoreInst storeInst) {
+                        storeBases.add(getBase(storeInst.getPointer()));
+                    } else if (inst instanceof CallInst callInst) {
+                        //  只读函数不写入内存
+                        if (!callInst.getFunction().isLibFunction() && callInst.getFunction().isMayHasSideEffect()) {
+                            hasCall = true;
+                        }
+                        //  库函数只会写入作为参数传入的数组(getarray、memset等)
+                        for (Value param : callInst.getParams()) {
+                            if (param.getType() instanceof PointerType) storeBases.add(getBase(param));
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean mayWrite(Value base) {
+            if (base instanceof GlobalVar globalVar && globalVar.isConst()) return false;
+            if (hasCall && !(base instanceof AllocInst allocInst && !isEscaped(allocInst))) return true;
+            for (Value storeBase : storeBases) {
+                if (mayAlias(storeBase, base)) return true;
+            }
+            return false;
+        }
+    }
+}
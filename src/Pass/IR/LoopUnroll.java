@@ -0,0 +1,324 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.DomAnalysis;
+import Pass.IR.Utils.IRLoop;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  LoopUnroll对最内层的isSimpleLoop循环做展开
+//  1. 循环次数为常量且展开后规模不大时完全展开: 按次数克隆循环体并串联，原循环头只保留最后一次判断并直接跳到出口
+//  2. 归纳变量按常量步长单调变化、终止值在运行时才知道时按4或8部分展开:
+//     新建的展开循环头判断 i + (k-1)*step 是否仍满足条件，满足时连续执行k份循环体，不满足时交给原循环处理余下的次数
+//  3. 展开因子受循环体大小限制，避免代码膨胀
+//  每一份克隆的开头都包含循环头中除phi和跳转外的指令，保证它们执行的次数与原循环相同
+public class LoopUnroll implements Pass.IRPass {
+    //  完全展开后的总指令数上限
+    private static final int FULL_UNROLL_SIZE = 320;
+    private static final int FULL_UNROLL_TIMES = 64;
+    //  部分展开后一次迭代的总指令数上限
+    private static final int PARTIAL_UNROLL_SIZE = 160;
+
+    private record Iteration(BasicBlock head, BasicBlock latch, LinkedHashMap<Value, Value> valueMap) {}
+
+    @Override
+    public String getName() {
+        return "LoopUnroll";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo);
+    }
+
+    //  展开后重新计算CFG，支配树与循环信息由后续pass按需重建
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        ArrayList<BasicBlock> rpo = DomAnalysis.getRPO(function);
+        //  最内层循环互不相交，先收集再逐个变换
+        ArrayList<IRLoop> loops = new ArrayList<>();
+        for (IRLoop loop : function.getAllLoops()) {
+            if (loop.getSubLoops().isEmpty() && loop.isSimpleLoop() && loop.getBbs().size() > 1
+                    && loop.getPreHeader() != null) {
+                loops.add(loop);
+            }
+        }
+        boolean changed = false;
+        for (IRLoop loop : loops) {
+            ArrayList<BasicBlock> bodyBbs = new ArrayList<>();
+            LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+            for (BasicBlock bb : rpo) {
+                if (bb != loop.getHead() && body.contains(bb)) bodyBbs.add(bb);
+            }
+            int size = getSize(loop);
+            if (loop.isSetIndVar() && loop.getItTimes() >= 0
+                    && loop.getItTimes() <= FULL_UNROLL_TIMES && (long) loop.getItTimes() * size <= FULL_UNROLL_SIZE) {
+                fullUnroll(loop, bodyBbs, function);
+                changed = true;
+            } else if (partialUnroll(loop, bodyBbs, size, function)) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            UtilFunc.makeCFG(function);
+        }
+    }
+
+    private static int getSize(IRLoop loop) {
+        int size = 0;
+        for (BasicBlock bb : loop.getBbs()) {
+            size += bb.getInsts().getSize();
+        }
+        return size;
+    }
+
+    private static BasicBlock getBodyEntry(IRLoop loop) {
+        BrInst brInst = (BrInst) loop.getHead().getLastInst();
+        return loop.getBbs().contains(brInst.getTrueBlock()) ? brInst.getTrueBlock() : brInst.getFalseBlock();
+    }
+
+    /**
+     * 克隆一次迭代: 循环体入口块的克隆head中，phi之后先放循环头中除phi和跳转外的指令，再放入口块原有的指令。
+     * valueMap中需预先放入循环头phi在本次迭代中的取值。
+     * head的前驱由调用者添加，克隆的latch仍跳转到head，由调用者改为下一次迭代的入口
+     */
+    private Iteration cloneIteration(IRLoop loop, ArrayList<BasicBlock> bodyBbs, LinkedHashMap<Value, Value> valueMap,
+                                     BasicBlock insertPoint, int depth, Function function) {
+        BasicBlock header = loop.getHead();
+        BasicBlock bodyEntry = getBodyEntry(loop);
+        LinkedHashMap<BasicBlock, BasicBlock> bbMap = new LinkedHashMap<>();
+        for (BasicBlock bb : bodyBbs) {
+            BasicBlock newBb = new BasicBlock(function);
+            newBb.insertBefore(insertPoint);
+            newBb.depth = depth;
+            bbMap.put(bb, newBb);
+        }
+        BasicBlock head = bbMap.get(bodyEntry);
+        bbMap.put(header, head);
+
+        ArrayList<Instruction> headInsts = new ArrayList<>();
+        for (IList.INode<Instruction, BasicBlock> instNode : header.getInsts()) {
+            Instruction inst = instNode.getValue();
+            if (inst instanceof Phi || inst instanceof BrInst) continue;
+            Instruction newInst = UtilFunc.cloneInst(inst, valueMap, bbMap);
+            valueMap.put(inst, newInst);
+            headInsts.add(newInst);
+        }
+
+        //  循环体无环，逆后序克隆时除phi外的操作数总是已经克隆过
+        LinkedHashMap<Phi, Phi> phiMap = new LinkedHashMap<>();
+        for (BasicBlock bb : bodyBbs) {
+            BasicBlock newBb = bbMap.get(bb);
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (bb == bodyEntry && !(inst instanceof Phi) && !headInsts.isEmpty()) {
+                    for (Instruction headInst : headInsts) newBb.addInst(headInst);
+                    headInsts.clear();
+                }
+                Instruction newInst = UtilFunc.cloneInst(inst, valueMap, bbMap);
+                valueMap.put(inst, newInst);
+                if (newInst instanceof Phi phi) phiMap.put(phi, (Phi) inst);
+                newBb.addInst(newInst);
+            }
+            if (bb != bodyEntry) {
+                for (BasicBlock preBb : bb.getPreBlocks()) newBb.getPreBlocks().add(bbMap.get(preBb));
+            }
+            for (BasicBlock nxtBb : bb.getNxtBlocks()) newBb.getNxtBlocks().add(bbMap.get(nxtBb));
+        }
+        for (Phi phi : phiMap.keySet()) {
+            for (Value value : phiMap.get(phi).getOperands()) {
+                phi.addOperand(valueMap.getOrDefault(value, value));
+            }
+        }
+        return new Iteration(head, bbMap.get(loop.getLatchBlocks().get(0)), valueMap);
+    }
+
+    //  把上一次迭代的latch接到下一次迭代的入口
+    private static void linkLatch(Iteration iteration, BasicBlock target) {
+        BasicBlock latch = iteration.latch();
+        latch.turnBrBlock(iteration.head(), target);
+        Collections.replaceAll(latch.getNxtBlocks(), iteration.head(), target);
+        target.getPreBlocks().add(latch);
+    }
+
+    //  循环头phi在下一次迭代中的取值
+    private static LinkedHashMap<Value, Value> nextValues(ArrayList<Phi> phis, int latchIdx, Iteration iteration) {
+        LinkedHashMap<Value, Value> valueMap = new LinkedHashMap<>();
+        for (Phi phi : phis) {
+            Value value = phi.getOperand(latchIdx);
+            valueMap.put(phi, iteration.valueMap().getOrDefault(value, value));
+        }
+        return valueMap;
+    }
+
+    private void fullUnroll(IRLoop loop, ArrayList<BasicBlock> bodyBbs, Function function) {
+        BasicBlock header = loop.getHead();
+        BasicBlock preHeader = loop.getPreHeader();
+        int latchIdx = header.getPreBlocks().indexOf(loop.getLatchBlocks().get(0));
+        ArrayList<Phi> phis = UtilFunc.getPhiInBb(header);
+        int depth = header.getLoopDepth() - 1;
+
+        LinkedHashMap<Value, Value> valueMap = new LinkedHashMap<>();
+        for (Phi phi : phis) {
+            valueMap.put(phi, phi.getOperand(1 - latchIdx));
+        }
+        Iteration prev = null;
+        for (int k = 0; k < loop.getItTimes(); k++) {
+            Iteration iteration = cloneIteration(loop, bodyBbs, valueMap, header, depth, function);
+            if (prev == null) {
+                preHeader.turnBrBlock(header, iteration.head());
+                Collections.replaceAll(preHeader.getNxtBlocks(), header, iteration.head());
+                iteration.head().getPreBlocks().add(preHeader);
+            } else {
+                linkLatch(prev, iteration.head());
+            }
+            valueMap = nextValues(phis, latchIdx, iteration);
+            prev = iteration;
+        }
+
+        //  原循环头只剩最后一次不成立的判断，phi退化为单个取值
+        for (Phi phi : phis) {
+            Value value = valueMap.get(phi);
+            for (int i = phi.getOperands().size() - 1; i >= 0; i--) {
+                phi.removeOperand(i);
+            }
+            phi.addOperand(value);
+        }
+        header.getPreBlocks().clear();
+        if (prev == null) {
+            header.getPreBlocks().add(preHeader);
+        } else {
+            linkLatch(prev, header);
+        }
+        BasicBlock exitBb = loop.getExitBlocks().iterator().next();
+        ((BrInst) header.getLastInst()).turnToJump(exitBb);
+        header.getNxtBlocks().clear();
+        header.getNxtBlocks().add(exitBb);
+        header.depth = depth;
+        for (BasicBlock bb : bodyBbs) {
+            bb.removeInstsAndSelf();
+        }
+    }
+
+    private boolean partialUnroll(IRLoop loop, ArrayList<BasicBlock> bodyBbs, int size, Function function) {
+        if (!loop.isSetIndVar()) return false;
+        int factor = size * 8 <= PARTIAL_UNROLL_SIZE ? 8 : size * 4 <= PARTIAL_UNROLL_SIZE ? 4 : 0;
+        if (factor == 0) return false;
+        //  次数已知且很少时展开循环不会执行
+        if (loop.getItTimes() >= 0 && loop.getItTimes() < factor * 2) return false;
+
+        BasicBlock header = loop.getHead();
+        BrInst headBr = (BrInst) header.getLastInst();
+        if (!loop.getBbs().contains(headBr.getTrueBlock())) return false;
+        BinaryInst cond = loop.getHeadBrCond();
+        OP stayOp = cond.getLeftVal() == loop.getItVar() ? cond.getOp() : LoopAnalysis.swapCmp(cond.getOp());
+        BinaryInst itAlu = (BinaryInst) loop.getItAlu();
+        if (itAlu.I64 || !(loop.getItStep() instanceof ConstInteger step)) return false;
+        long s = switch (itAlu.getOp()) {
+            case Add -> step.getValue();
+            case Sub -> -(long) step.getValue();
+            default -> 0;
+        };
+        boolean increasing = s > 0 && (stayOp == OP.Lt || stayOp == OP.Le);
+        boolean decreasing = s < 0 && (stayOp == OP.Gt || stayOp == OP.Ge);
+        if (!increasing && !decreasing) return false;
+
+        //  i + (k-1)*step stayOp end 改写为 i stayOp end - (k-1)*step，避免每次迭代计算
+        //  end - (k-1)*step 回绕时展开循环不能执行，用guard排除
+        long delta = (factor - 1) * s;
+        if (Math.abs(delta) > Integer.MAX_VALUE) return false;
+        Value end = loop.getItEnd();
+        Value limit;
+        Value guard = null;
+        BasicBlock preHeader = loop.getPreHeader();
+        if (end instanceof ConstInteger constEnd) {
+            long value = constEnd.getValue() - delta;
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return false;
+            limit = new ConstInteger((int) value, IntegerType.I32);
+        } else {
+            BinaryInst sub = new BinaryInst(OP.Sub, end, new ConstInteger((int) delta, IntegerType.I32), IntegerType.I32);
+            sub.insertBefore(preHeader.getLastInst());
+            limit = sub;
+            BinaryInst check = increasing
+                    ? new BinaryInst(OP.Ge, end, new ConstInteger((int) (Integer.MIN_VALUE + delta), IntegerType.I32), IntegerType.I32)
+                    : new BinaryInst(OP.Le, end, new ConstInteger((int) (Integer.MAX_VALUE + delta), IntegerType.I32), IntegerType.I32);
+            check.insertBefore(preHeader.getLastInst());
+            guard = check;
+        }
+
+        int latchIdx = header.getPreBlocks().indexOf(loop.getLatchBlocks().get(0));
+        int enterIdx = 1 - latchIdx;
+        ArrayList<Phi> phis = UtilFunc.getPhiInBb(header);
+        int depth = header.getLoopDepth();
+
+        //  展开循环的头: 前驱依次为preheader与最后一份循环体的latch
+        BasicBlock unrollHead = new BasicBlock(function);
+        unrollHead.insertBefore(header);
+        unrollHead.depth = depth;
+        LinkedHashMap<Value, Value> valueMap = new LinkedHashMap<>();
+        ArrayList<Phi> unrollPhis = new ArrayList<>();
+        for (Phi phi : phis) {
+            ArrayList<Value> values = new ArrayList<>();
+            values.add(phi.getOperand(enterIdx));
+            Phi unrollPhi = new Phi(phi.getType(), values);
+            unrollHead.addInst(unrollPhi);
+            unrollPhis.add(unrollPhi);
+            valueMap.put(phi, unrollPhi);
+        }
+        Value unrollCond = new BinaryInst(stayOp, valueMap.get(loop.getItVar()), limit, IntegerType.I32);
+        unrollHead.addInst((Instruction) unrollCond);
+        if (guard != null) {
+            unrollCond = new BinaryInst(OP.And, unrollCond, guard, IntegerType.I32);
+            unrollHead.addInst((Instruction) unrollCond);
+        }
+
+        Iteration first = null, prev = null;
+        for (int k = 0; k < factor; k++) {
+            Iteration iteration = cloneIteration(loop, bodyBbs, valueMap, header, depth, function);
+            if (prev == null) {
+                first = iteration;
+                iteration.head().getPreBlocks().add(unrollHead);
+            } else {
+                linkLatch(prev, iteration.head());
+            }
+            valueMap = nextValues(phis, latchIdx, iteration);
+            prev = iteration;
+        }
+        for (int i = 0; i < phis.size(); i++) {
+            unrollPhis.get(i).addOperand(valueMap.get(phis.get(i)));
+        }
+        unrollHead.getPreBlocks().add(preHeader);
+        linkLatch(prev, unrollHead);
+        unrollHead.addInst(new BrInst(unrollCond, first.head(), header));
+        unrollHead.getNxtBlocks().add(first.head());
+        unrollHead.getNxtBlocks().add(header);
+
+        //  原循环作为余数循环，从展开循环退出时的取值开始
+        preHeader.turnBrBlock(header, unrollHead);
+        Collections.replaceAll(preHeader.getNxtBlocks(), header, unrollHead);
+        header.getPreBlocks().set(enterIdx, unrollHead);
+        for (int i = 0; i < phis.size(); i++) {
+            phis.get(i).replaceOperand(enterIdx, unrollPhis.get(i));
+        }
+        return true;
+    }
+}
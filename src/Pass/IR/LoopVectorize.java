@@ -0,0 +1,422 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Type.VectorType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.IRLoop;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  LoopVectorize把最内层的简单循环改写为每次处理4个元素的NEON向量循环
+//  1. 循环只有循环头和一个循环体块，归纳变量i从init开始每次加1，条件为 i < end 或 i <= end
+//  2. 地址为 base[i + 不变量] 的load/store按连续的4个元素访问，Add/Sub/Mul/Fadd/Fsub/Fmul逐通道计算，
+//     循环不变的操作数在preheader中复制到4个通道
+//  3. 整数的累加、累乘归约使用向量累加器，退出向量循环后合并4个通道再与初值合并；浮点归约会改变舍入结果，不做向量化
+//  4. 同一数组上向量化后读写顺序会改变的访问不做向量化，可能互为别名的两个对象上有写入时也不做
+//  向量循环在 i + 3 仍满足条件时执行，原循环作为标量尾循环处理剩下不足4次的迭代
+public class LoopVectorize implements Pass.IRPass {
+    private static final int LANES = VectorType.LANES;
+    //  次数已知且少于该值时向量循环收益太小
+    private static final int MIN_TRIP_COUNT = 8;
+
+    //  访问的地址为 target + i + key + offset，key是非常量的不变部分，为null表示没有
+    private record Affine(Value key, long offset) {}
+    private record Access(Value target, Affine index, boolean isStore) {}
+
+    //  变换时: 向量循环中与原指令对应的向量值，以及preheader中复制到4个通道的不变量
+    private final LinkedHashMap<Value, Value> vecMap = new LinkedHashMap<>();
+    private final LinkedHashMap<Object, Value> splats = new LinkedHashMap<>();
+
+    @Override
+    public String getName() {
+        return "LoopVectorize";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo);
+    }
+
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        ArrayList<IRLoop> loops = new ArrayList<>();
+        for (IRLoop loop : function.getAllLoops()) {
+            if (loop.getSubLoops().isEmpty() && loop.isSimpleLoop() && loop.getBbs().size() == 2
+                    && loop.getPreHeader() != null && loop.isSetIndVar()) {
+                loops.add(loop);
+            }
+        }
+        boolean changed = false;
+        for (IRLoop loop : loops) {
+            LoopShape shape = analyze(loop);
+            if (shape != null) {
+                transform(shape, function);
+                changed = true;
+            }
+        }
+        if (changed) {
+            UtilFunc.makeCFG(function);
+        }
+    }
+
+    //  通过检查的循环以及变换需要的信息
+    private static class LoopShape {
+        IRLoop loop;
+        BasicBlock body;
+        Phi iv;
+        OP stayOp;
+        //  归约phi到循环体中更新它的指令
+        final LinkedHashMap<Phi, BinaryInst> reductions = new LinkedHashMap<>();
+        //  i + 不变量形式的下标，包括i本身
+        final LinkedHashMap<Value, Affine> affines = new LinkedHashMap<>();
+        //  指向连续元素的地址
+        final LinkedHashMap<PtrInst, Access> pointers = new LinkedHashMap<>();
+        //  需要改写为向量运算的load与算术指令
+        final LinkedHashSet<Instruction> widened = new LinkedHashSet<>();
+    }
+
+    private static boolean isInvariant(Value value, IRLoop loop) {
+        return !(value instanceof Instruction inst) || !loop.getBbs().contains(inst.getParentbb());
+    }
+
+    private static boolean isVectorOp(OP op) {
+        return switch (op) {
+            case Add, Sub, Mul, Fadd, Fsub, Fmul -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isScalarTy(Value value) {
+        return value.getType().isFloatTy() || value.getType() == IntegerType.I32;
+    }
+
+    private LoopShape analyze(IRLoop loop) {
+        if (loop.getItTimes() >= 0 && loop.getItTimes() < MIN_TRIP_COUNT) return null;
+        LoopShape shape = new LoopShape();
+        shape.loop = loop;
+        BasicBlock header = loop.getHead();
+        BrInst headBr = (BrInst) header.getLastInst();
+        BasicBlock body = headBr.getTrueBlock();
+        if (!loop.getBbs().contains(body) || body != loop.getLatchBlocks().get(0)) return null;
+        shape.body = body;
+
+        Phi iv = (Phi) loop.getItVar();
+        shape.iv = iv;
+        BinaryInst itAlu = (BinaryInst) loop.getItAlu();
+        if (itAlu.I64 || itAlu.getOp() != OP.Add || itAlu.getParentbb() != body
+                || !(loop.getItStep() instanceof ConstInteger step) || step.getValue() != 1) return null;
+        BinaryInst cond = loop.getHeadBrCond();
+        shape.stayOp = cond.getLeftVal() == iv ? cond.getOp() : LoopAnalysis.swapCmp(cond.getOp());
+        if (shape.stayOp != OP.Lt && shape.stayOp != OP.Le) return null;
+        if (loop.getItEnd() instanceof ConstInteger end && (long) end.getValue() - (LANES - 1) < Integer.MIN_VALUE) {
+            return null;
+        }
+        //  循环头只做归纳变量的判断
+        for (IList.INode<Instruction, BasicBlock> instNode : header.getInsts()) {
+            Instruction inst = instNode.getValue();
+            if (inst instanceof Phi || inst == headBr || inst == cond || inst == headBr.getJudVal()) continue;
+            return null;
+        }
+
+        int latchIdx = header.getPreBlocks().indexOf(body);
+        for (Phi phi : UtilFunc.getPhiInBb(header)) {
+            if (phi == iv) continue;
+            if (!(phi.getOperand(latchIdx) instanceof BinaryInst update) || update.getParentbb() != body
+                    || update.I64 || phi.getType() != IntegerType.I32
+                    || (update.getOp() != OP.Add && update.getOp() != OP.Mul)
+                    || (update.getLeftVal() != phi && update.getRightVal() != phi)) return null;
+            for (User user : phi.getUserList()) {
+                if (user != update && !isInvariant(user, loop)) return null;
+            }
+            for (User user : update.getUserList()) {
+                if (user != phi) return null;
+            }
+            shape.reductions.put(phi, update);
+        }
+
+        shape.affines.put(iv, new Affine(null, 0));
+        ArrayList<Access> accesses = new ArrayList<>();
+        for (IList.INode<Instruction, BasicBlock> instNode : body.getInsts()) {
+            Instruction inst = instNode.getValue();
+            if (inst == body.getLastInst()) break;
+            if (!classify(inst, shape, accesses)) return null;
+        }
+        if (!checkUsers(shape, itAlu, cond)) return null;
+        if (!checkDependence(accesses)) return null;
+        return shape;
+    }
+
+    private boolean classify(Instruction inst, LoopShape shape, ArrayList<Access> accesses) {
+        IRLoop loop = shape.loop;
+        if (inst instanceof BinaryInst binaryInst && shape.reductions.containsValue(binaryInst)) {
+            Value other = shape.reductions.containsKey(binaryInst.getLeftVal())
+                    ? binaryInst.getRightVal() : binaryInst.getLeftVal();
+            return isVectorOperand(other, shape);
+        }
+        if (inst instanceof BinaryInst binaryInst && !binaryInst.I64) {
+            Affine affine = getAffine(binaryInst, shape);
+            if (affine != null) {
+                shape.affines.put(inst, affine);
+                return true;
+            }
+            Value left = binaryInst.getLeftVal(), right = binaryInst.getRightVal();
+            if (isVectorOp(binaryInst.getOp()) && isScalarTy(binaryInst)
+                    && isVectorOperand(left, shape) && isVectorOperand(right, shape)
+                    && (shape.widened.contains(left) || shape.widened.contains(right))) {
+                shape.widened.add(inst);
+                return true;
+            }
+            return false;
+        }
+        if (inst instanceof PtrInst ptrInst) {
+            Affine index = shape.affines.get(ptrInst.getOffset());
+            if (index == null || !isInvariant(ptrInst.getTarget(), loop)) return false;
+            shape.pointers.put(ptrInst, new Access(ptrInst.getTarget(), index, false));
+            return true;
+        }
+        if (inst instanceof LoadInst loadInst && loadInst.getPointer() instanceof PtrInst ptrInst
+                && shape.pointers.containsKey(ptrInst) && isScalarTy(loadInst)) {
+            accesses.add(shape.pointers.get(ptrInst));
+            shape.widened.add(inst);
+            return true;
+        }
+        if (inst instanceof StoreInst storeInst && storeInst.getPointer() instanceof PtrInst ptrInst
+                && shape.pointers.containsKey(ptrInst) && isScalarTy(storeInst.getValue())
+                && isVectorOperand(storeInst.getValue(), shape)) {
+            Access access = shape.pointers.get(ptrInst);
+            accesses.add(new Access(access.target(), access.index(), true));
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isVectorOperand(Value value, LoopShape shape) {
+        return shape.widened.contains(value) || isInvariant(value, shape.loop);
+    }
+
+    //  下标 i + 不变量 的加减以及乘1，无法拆分的不变部分用指令本身作为key
+    private static Affine getAffine(BinaryInst inst, LoopShape shape) {
+        Value left = inst.getLeftVal(), right = inst.getRightVal();
+        OP op = inst.getOp();
+        if ((op == OP.Add || op == OP.Mul) && shape.affines.containsKey(right) && !shape.affines.containsKey(left)) {
+            Value tmp = left;
+            left = right;
+            right = tmp;
+        }
+        //  多维数组的下标线性化会产生 i * 1
+        if (op == OP.Mul && right instanceof ConstInteger one && one.getValue() == 1) {
+            return shape.affines.get(left);
+        }
+        Affine base = shape.affines.get(left);
+        if (base == null || (op != OP.Add && op != OP.Sub) || !isInvariant(right, shape.loop)) return null;
+        if (right instanceof ConstInteger c) {
+            return new Affine(base.key(), op == OP.Add ? base.offset() + c.getValue() : base.offset() - c.getValue());
+        }
+        if (op == OP.Add && base.key() == null) {
+            return new Affine(right, base.offset());
+        }
+        return new Affine(inst, 0);
+    }
+
+    //  下标只用于地址计算，地址只用于连续的load/store，归纳变量不作为数据参与运算
+    private static boolean checkUsers(LoopShape shape, BinaryInst itAlu, BinaryInst cond) {
+        IRLoop loop = shape.loop;
+        for (Value value : shape.affines.keySet()) {
+            for (User user : value.getUserList()) {
+                if (isInvariant(user, loop) || shape.affines.containsKey(user)) continue;
+                if (user instanceof PtrInst ptrInst && shape.pointers.containsKey(ptrInst)
+                        && ptrInst.getOffset() == value && ptrInst.getTarget() != value) continue;
+                if (value == shape.iv && user == cond) continue;
+                if (value == itAlu && user == shape.iv) continue;
+                return false;
+            }
+        }
+        for (PtrInst ptrInst : shape.pointers.keySet()) {
+            for (User user : ptrInst.getUserList()) {
+                if (user instanceof LoadInst loadInst && shape.widened.contains(loadInst)) continue;
+                if (user instanceof StoreInst storeInst && storeInst.getPointer() == ptrInst
+                        && storeInst.getValue() != ptrInst) continue;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 向量循环中先执行整组4次迭代的前一个访问，再执行后一个访问。
+     * 前一个访问A与后一个访问B作用于同一数组、B的下标比A大1到3时，原本B先访问的元素会被A先访问，不能向量化
+     */
+    private static boolean checkDependence(ArrayList<Access> accesses) {
+        for (int i = 0; i < accesses.size(); i++) {
+            for (int j = i + 1; j < accesses.size(); j++) {
+                Access a = accesses.get(i), b = accesses.get(j);
+                if (!a.isStore() && !b.isStore()) continue;
+                if (a.target() == b.target() && a.index().key() == b.index().key()) {
+                    long distance = b.index().offset() - a.index().offset();
+                    if (distance > 0 && distance < LANES) return false;
+                    continue;
+                }
+                Value baseA = LICM.getBase(a.target()), baseB = LICM.getBase(b.target());
+                boolean objectA = baseA instanceof GlobalVar || baseA instanceof AllocInst;
+                boolean objectB = baseB instanceof GlobalVar || baseB instanceof AllocInst;
+                if (!objectA || !objectB || baseA == baseB) return false;
+            }
+        }
+        return true;
+    }
+
+    private void transform(LoopShape shape, Function function) {
+        IRLoop loop = shape.loop;
+        BasicBlock header = loop.getHead();
+        BasicBlock preHeader = loop.getPreHeader();
+        Instruction preTerm = preHeader.getLastInst();
+        int latchIdx = header.getPreBlocks().indexOf(shape.body);
+        int enterIdx = 1 - latchIdx;
+        int depth = header.getLoopDepth();
+
+        //  i + 3 stayOp end 改写为 i stayOp end - 3，end - 3 回绕时向量循环不能执行
+        Value end = loop.getItEnd();
+        Value limit;
+        Value guard = null;
+        if (end instanceof ConstInteger constEnd) {
+            limit = new ConstInteger(constEnd.getValue() - (LANES - 1), IntegerType.I32);
+        } else {
+            BinaryInst sub = new BinaryInst(OP.Sub, end, new ConstInteger(LANES - 1, IntegerType.I32), IntegerType.I32);
+            sub.insertBefore(preTerm);
+            limit = sub;
+            BinaryInst check = new BinaryInst(OP.Ge, end,
+                    new ConstInteger(Integer.MIN_VALUE + LANES - 1, IntegerType.I32), IntegerType.I32);
+            check.insertBefore(preTerm);
+            guard = check;
+        }
+
+        BasicBlock vecHead = new BasicBlock(function);
+        vecHead.insertBefore(header);
+        vecHead.depth = depth;
+        BasicBlock vecBody = new BasicBlock(function);
+        vecBody.insertBefore(header);
+        vecBody.depth = depth;
+        BasicBlock middle = new BasicBlock(function);
+        middle.insertBefore(header);
+        middle.depth = depth - 1;
+
+        vecMap.clear();
+        splats.clear();
+        LinkedHashMap<Value, Value> valueMap = new LinkedHashMap<>();
+        ArrayList<Value> ivValues = new ArrayList<>();
+        ivValues.add(shape.iv.getOperand(enterIdx));
+        Phi vecIv = new Phi(IntegerType.I32, ivValues);
+        vecHead.addInst(vecIv);
+        valueMap.put(shape.iv, vecIv);
+        LinkedHashMap<Phi, Phi> accumulators = new LinkedHashMap<>();
+        for (Phi phi : shape.reductions.keySet()) {
+            int identity = shape.reductions.get(phi).getOp() == OP.Add ? 0 : 1;
+            ArrayList<Value> values = new ArrayList<>();
+            values.add(vectorOf(new ConstInteger(identity, IntegerType.I32), preTerm));
+            Phi acc = new Phi(VectorType.V4I32, values);
+            vecHead.addInst(acc);
+            accumulators.put(phi, acc);
+        }
+        Instruction vecCond = new BinaryInst(shape.stayOp, vecIv, limit, IntegerType.I32);
+        vecHead.addInst(vecCond);
+        if (guard != null) {
+            vecCond = new BinaryInst(OP.And, vecCond, guard, IntegerType.I32);
+            vecHead.addInst(vecCond);
+        }
+        vecHead.addInst(new BrInst(vecCond, vecBody, middle));
+
+        LinkedHashMap<Phi, Value> accNext = new LinkedHashMap<>();
+        for (IList.INode<Instruction, BasicBlock> instNode : shape.body.getInsts()) {
+            Instruction inst = instNode.getValue();
+            if (inst == shape.body.getLastInst()) break;
+            if (inst == loop.getItAlu() && inst.getUserList().size() == 1) continue;
+            Instruction newInst;
+            if (inst instanceof BinaryInst update && shape.reductions.containsValue(update)) {
+                Phi phi = (Phi) (shape.reductions.containsKey(update.getLeftVal()) ? update.getLeftVal() : update.getRightVal());
+                Value other = update.getLeftVal() == phi ? update.getRightVal() : update.getLeftVal();
+                newInst = new VBinaryInst(update.getOp(), accumulators.get(phi), vectorOf(other, preTerm), VectorType.V4I32);
+                accNext.put(phi, newInst);
+            } else if (shape.affines.containsKey(inst) || inst instanceof PtrInst) {
+                newInst = UtilFunc.cloneInst(inst, valueMap, null);
+                valueMap.put(inst, newInst);
+            } else if (inst instanceof LoadInst loadInst) {
+                newInst = new VLoadInst(valueMap.get(loadInst.getPointer()), VectorType.of(loadInst.getType()));
+                vecMap.put(inst, newInst);
+            } else if (inst instanceof StoreInst storeInst) {
+                newInst = new VStoreInst(vectorOf(storeInst.getValue(), preTerm), valueMap.get(storeInst.getPointer()));
+            } else {
+                BinaryInst binaryInst = (BinaryInst) inst;
+                newInst = new VBinaryInst(binaryInst.getOp(), vectorOf(binaryInst.getLeftVal(), preTerm),
+                        vectorOf(binaryInst.getRightVal(), preTerm), VectorType.of(binaryInst.getType()));
+                vecMap.put(inst, newInst);
+            }
+            vecBody.addInst(newInst);
+        }
+        BinaryInst ivNext = new BinaryInst(OP.Add, vecIv, new ConstInteger(LANES, IntegerType.I32), IntegerType.I32);
+        vecBody.addInst(ivNext);
+        vecBody.addInst(new BrInst(vecHead));
+        vecIv.addOperand(ivNext);
+        for (Phi phi : accumulators.keySet()) {
+            accumulators.get(phi).addOperand(accNext.get(phi));
+        }
+
+        //  合并累加器的4个通道作为标量尾循环中归约变量的初值
+        for (Phi phi : shape.reductions.keySet()) {
+            OP op = shape.reductions.get(phi).getOp();
+            Instruction reduce = new VReduceInst(op, accumulators.get(phi));
+            middle.addInst(reduce);
+            Value init = phi.getOperand(enterIdx);
+            Value start = reduce;
+            if (!(init instanceof ConstInteger c && c.getValue() == (op == OP.Add ? 0 : 1))) {
+                Instruction combine = new BinaryInst(op, init, reduce, IntegerType.I32);
+                middle.addInst(combine);
+                start = combine;
+            }
+            phi.replaceOperand(enterIdx, start);
+        }
+        middle.addInst(new BrInst(header));
+        shape.iv.replaceOperand(enterIdx, vecIv);
+
+        preHeader.turnBrBlock(header, vecHead);
+        Collections.replaceAll(preHeader.getNxtBlocks(), header, vecHead);
+        vecHead.getPreBlocks().add(preHeader);
+        vecHead.getPreBlocks().add(vecBody);
+        vecHead.getNxtBlocks().add(vecBody);
+        vecHead.getNxtBlocks().add(middle);
+        vecBody.getPreBlocks().add(vecHead);
+        vecBody.getNxtBlocks().add(vecHead);
+        middle.getPreBlocks().add(vecHead);
+        middle.getNxtBlocks().add(header);
+        header.getPreBlocks().set(enterIdx, middle);
+    }
+
+    //  循环不变的操作数在preheader中复制到4个通道，相同的常量只复制一次
+    private Value vectorOf(Value value, Instruction preTerm) {
+        if (vecMap.containsKey(value)) return vecMap.get(value);
+        Object key = value instanceof ConstInteger c ? "i" + c.getValue()
+                : value instanceof ConstFloat c ? "f" + Float.floatToRawIntBits(c.getValue()) : value;
+        return splats.computeIfAbsent(key, k -> {
+            VSplatInst splat = new VSplatInst(value);
+            splat.insertBefore(preTerm);
+            return splat;
+        });
+    }
+}
@@ -0,0 +1,232 @@
+package Pass.IR;
+
+import IR.IRBuildFactory;
+import IR.IRModule;
+import IR.Type.Type;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.DomAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  Mem2Reg将标量的alloc提升为SSA形式的虚拟寄存器
+//  1. 通过支配边界的迭代闭包放置phi
+//  2. 沿支配树深度优先遍历完成变量重命名，删除对应的load/store/alloc
+//  数组alloc以及被取地址(作为参数传出、参与指针运算)的alloc不做处理
+public class Mem2Reg implements Pass.IRPass {
+    private final IRBuildFactory f = IRBuildFactory.getInstance();
+
+    @Override
+    public String getName() {
+        return "Mem2Reg";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree);
+    }
+
+    //  删除不可达块后会重新构建CFG，支配信息在需要时重新计算
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            DomAnalysis.removeUnreachableBlocks(function);
+            DomAnalysis.run(function);
+            runOnFunction(function);
+        }
+    }
+
+    //  只有全部使用者都是以它为地址的load/store时才能提升
+    private boolean isPromotable(AllocInst allocInst) {
+        if (allocInst.isArray()) return false;
+        for (User user : allocInst.getUserList()) {
+            if (user instanceof LoadInst) continue;
+            if (user instanceof StoreInst storeInst
+                    && storeInst.getPointer() == allocInst
+                    && storeInst.getValue() != allocInst) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private void runOnFunction(Function function) {
+        ArrayList<AllocInst> allocas = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                if (instNode.getValue() instanceof AllocInst allocInst && isPromotable(allocInst)) {
+                    allocas.add(allocInst);
+                }
+            }
+        }
+        if (allocas.isEmpty()) return;
+
+        LinkedHashMap<AllocInst, Integer> allocIdx = new LinkedHashMap<>();
+        for (int i = 0; i < allocas.size(); i++) {
+            allocIdx.put(allocas.get(i), i);
+        }
+
+        //  插入phi
+        LinkedHashMap<Phi, Integer> phiIdx = new LinkedHashMap<>();
+        LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> df = function.getDF();
+        for (AllocInst allocInst : allocas) {
+            LinkedHashSet<BasicBlock> defBbs = new LinkedHashSet<>();
+            for (User user : allocInst.getUserList()) {
+                if (user instanceof StoreInst storeInst) {
+                    defBbs.add(storeInst.getParentbb());
+                }
+            }
+            LinkedHashSet<BasicBlock> hasPhi = new LinkedHashSet<>();
+            Queue<BasicBlock> worklist = new LinkedList<>(defBbs);
+            while (!worklist.isEmpty()) {
+                BasicBlock bb = worklist.poll();
+                for (BasicBlock frontier : df.get(bb)) {
+                    if (hasPhi.contains(frontier)) continue;
+                    ArrayList<Value> values = new ArrayList<>();
+                    for (int i = 0; i < frontier.getPreBlocks().size(); i++) {
+                        values.add(null);
+                    }
+                    Phi phi = f.buildPhi(frontier, allocInst.getAllocType(), values);
+                    phiIdx.put(phi, allocIdx.get(allocInst));
+                    hasPhi.add(frontier);
+                    if (!defBbs.contains(frontier)) {
+                        worklist.add(frontier);
+                    }
+                }
+            }
+        }
+
+        //  alloc会被整体删除，提前清空其use列表，避免逐条删除load/store时反复扫描
+        for (AllocInst allocInst : allocas) {
+            allocInst.getUseList().clear();
+        }
+        rename(function, allocas, allocIdx, phiIdx);
+
+        for (AllocInst allocInst : allocas) {
+            allocInst.removeSelf();
+        }
+        removeUselessPhis(new ArrayList<>(phiIdx.keySet()));
+    }
+
+    private void rename(Function function, ArrayList<AllocInst> allocas,
+                        LinkedHashMap<AllocInst, Integer> allocIdx, LinkedHashMap<Phi, Integer> phiIdx) {
+        Value[] undefs = new Value[allocas.size()];
+        for (int i = 0; i < allocas.size(); i++) {
+            Type type = allocas.get(i).getAllocType();
+            undefs[i] = type.isFloatTy() ? f.buildNumber(0.0f) : f.buildNumber(0);
+        }
+
+        Stack<BasicBlock> bbStack = new Stack<>();
+        Stack<Value[]> valStack = new Stack<>();
+        bbStack.push(function.getBbEntry());
+        valStack.push(undefs.clone());
+        while (!bbStack.isEmpty()) {
+            BasicBlock bb = bbStack.pop();
+            Value[] curVals = valStack.pop();
+
+            ArrayList<Instruction> insts = new ArrayList<>();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                insts.add(instNode.getValue());
+            }
+            for (Instruction inst : insts) {
+                if (inst instanceof Phi phi && phiIdx.containsKey(phi)) {
+                    curVals[phiIdx.get(phi)] = phi;
+                }
+                else if (inst instanceof LoadInst loadInst
+                        && loadInst.getPointer() instanceof AllocInst allocInst
+                        && allocIdx.containsKey(allocInst)) {
+                    loadInst.replaceUsedWith(curVals[allocIdx.get(allocInst)]);
+                    loadInst.removeSelf();
+                }
+                else if (inst instanceof StoreInst storeInst
+                        && storeInst.getPointer() instanceof AllocInst allocInst
+                        && allocIdx.containsKey(allocInst)) {
+                    curVals[allocIdx.get(allocInst)] = storeInst.getValue();
+                    storeInst.removeSelf();
+                }
+            }
+
+            //  填写后继块中phi对应当前块的操作数，同一前驱可能出现多次
+            for (BasicBlock nxtBb : bb.getNxtBlocks()) {
+                ArrayList<BasicBlock> preBbs = nxtBb.getPreBlocks();
+                for (Phi phi : UtilFunc.getPhiInBb(nxtBb)) {
+                    if (!phiIdx.containsKey(phi)) continue;
+                    for (int i = 0; i < preBbs.size(); i++) {
+                        if (preBbs.get(i) == bb) {
+                            phi.replaceOperand(i, curVals[phiIdx.get(phi)]);
+                        }
+                    }
+                }
+            }
+
+            for (BasicBlock child : bb.getIdoms()) {
+                bbStack.push(child);
+                valStack.push(curVals.clone());
+            }
+        }
+    }
+
+    //  删除没有被非phi指令使用的phi，以及所有操作数都相同的phi
+    private void removeUselessPhis(ArrayList<Phi> phis) {
+        LinkedHashSet<Phi> phiSet = new LinkedHashSet<>(phis);
+        LinkedHashSet<Phi> livePhis = new LinkedHashSet<>();
+        Queue<Phi> worklist = new LinkedList<>();
+        for (Phi phi : phis) {
+            for (User user : phi.getUserList()) {
+                if (!(user instanceof Phi)) {
+                    livePhis.add(phi);
+                    worklist.add(phi);
+                    break;
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Phi phi = worklist.poll();
+            for (Value operand : phi.getOperands()) {
+                if (operand instanceof Phi opPhi && phiSet.contains(opPhi) && !livePhis.contains(opPhi)) {
+                    livePhis.add(opPhi);
+                    worklist.add(opPhi);
+                }
+            }
+        }
+        for (Phi phi : phis) {
+            if (!livePhis.contains(phi)) {
+                phi.removeSelf();
+            }
+        }
+
+        //  删除平凡phi后，使用它的phi可能也变得平凡
+        worklist.addAll(livePhis);
+        while (!worklist.isEmpty()) {
+            Phi phi = worklist.poll();
+            if (phi.getNode().getParent() == null) continue;
+            Value same = null;
+            boolean trivial = true;
+            for (Value operand : phi.getOperands()) {
+                if (operand == phi || operand == same) continue;
+                if (same != null) {
+                    trivial = false;
+                    break;
+                }
+                same = operand;
+            }
+            if (trivial && same != null) {
+                for (User user : phi.getUserList()) {
+                    if (user instanceof Phi userPhi && userPhi != phi) {
+                        worklist.add(userPhi);
+                    }
+                }
+                phi.replaceUsedWith(same);
+                phi.removeSelf();
+            }
+        }
+    }
+}
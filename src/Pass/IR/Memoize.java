@@ -0,0 +1,163 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.FloatType;
+import IR.Type.IntegerType;
+import IR.Type.PointerType;
+import IR.Type.Type;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  Memoize为参数是一两个i32的纯递归函数加上记忆化，把树形递归的指数时间降为状态数级别
+//  1. 候选为有返回值、至少两处直接调用自身(循环中的一处按两处计)的纯函数(Function.isPure)，结果只由参数决定
+//  2. 每个函数在.bss中新建两张直接映射的表: tag表每项为{有效位, 参数...}，val表存对应的返回值，
+//     表项由参数的哈希值选取，冲突时直接覆盖，占用的内存固定
+//  3. 新的入口块计算哈希并比较表项，命中时直接返回表中的值，否则进入原来的入口
+//  4. 每条ret之前把参数与返回值写入表项
+//  表的读写不影响函数对外的行为，并行化的循环中不含调用，多线程不会同时访问同一张表
+public class Memoize implements Pass.IRPass {
+    //  每张表的项数，取2的幂以便用与运算取下标
+    private static final int TABLE_BITS = 16;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+    @Override
+    public String getName() {
+        return "Memoize";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.LoopInfo, Analysis.SideEffect);
+    }
+
+    //  只新增入口块，调用关系不变；被记忆化的函数读写了表，不再是纯函数
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CallGraph);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : new ArrayList<>(module.functions())) {
+            if (function.isLibFunction() || !canMemoize(function)) continue;
+            memoize(function, module);
+        }
+    }
+
+    //  TailRecursionElim也据此判断是否保留树形递归
+    static boolean canMemoize(Function function) {
+        Type retType = function.getType();
+        if (retType != IntegerType.I32 && retType != FloatType.F32) return false;
+        ArrayList<Argument> args = function.getArgs();
+        if (args.isEmpty() || args.size() > 2) return false;
+        for (Argument arg : args) {
+            if (arg.getType() != IntegerType.I32) return false;
+        }
+        if (!function.isPure()) return false;
+        //  入口块有前驱时新入口需要补充phi的来源，不做处理
+        if (!function.getBbEntry().getPreBlocks().isEmpty()) return false;
+        //  只有一处不在循环中的递归调用时每个状态只会计算一次，查表没有收益；
+        //  循环中的递归调用(如尾递归消除后的fib)每次调用会执行多次，按两处计
+        int selfCalls = 0;
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                if (instNode.getValue() instanceof CallInst callInst && callInst.getFunction() == function) {
+                    selfCalls += bb.getLoopDepth() > 0 ? 2 : 1;
+                }
+            }
+        }
+        return selfCalls >= 2;
+    }
+
+    private void memoize(Function function, IRModule module) {
+        ArrayList<Argument> args = function.getArgs();
+        int stride = args.size() + 1;
+        String name = function.getName().substring(1);
+        GlobalVar tagTable = new GlobalVar("@__memo_tag_" + name, new PointerType(IntegerType.I32), new ArrayList<>());
+        tagTable.setZeroInit(TABLE_SIZE * stride);
+        GlobalVar valTable = new GlobalVar("@__memo_val_" + name, new PointerType(function.getType()), new ArrayList<>());
+        valTable.setZeroInit(TABLE_SIZE);
+        module.globalVars().add(tagTable);
+        module.globalVars().add(valTable);
+
+        BasicBlock entry = function.getBbEntry();
+        BasicBlock check = new BasicBlock(function);
+        check.insertBefore(entry);
+        BasicBlock hit = new BasicBlock(function);
+        hit.insertBefore(entry);
+
+        //  h = a0 * C0 + a1 * C1，再把高位异或到低位，取低TABLE_BITS位作为下标
+        Value hash = new BinaryInst(OP.Mul, args.get(0), i32(0x9E3779B1), IntegerType.I32);
+        check.addInst((Instruction) hash);
+        if (args.size() == 2) {
+            Instruction mul = new BinaryInst(OP.Mul, args.get(1), i32(0x85EBCA6B), IntegerType.I32);
+            check.addInst(mul);
+            Instruction add = new BinaryInst(OP.Add, hash, mul, IntegerType.I32);
+            check.addInst(add);
+            hash = add;
+        }
+        Instruction high = new BinaryInst(OP.Shr, hash, i32(TABLE_BITS), IntegerType.I32);
+        check.addInst(high);
+        Instruction mix = new BinaryInst(OP.Xor, hash, high, IntegerType.I32);
+        check.addInst(mix);
+        Instruction index = new BinaryInst(OP.And, mix, i32(TABLE_SIZE - 1), IntegerType.I32);
+        check.addInst(index);
+
+        //  tag表项的各个字段与val表项的地址，都在入口计算，支配所有的ret
+        Instruction tagIndex = new BinaryInst(OP.Mul, index, i32(stride), IntegerType.I32);
+        check.addInst(tagIndex);
+        PtrInst tagPtr = new PtrInst(tagTable, tagIndex);
+        check.addInst(tagPtr);
+        ArrayList<Value> fields = new ArrayList<>(List.of(tagPtr));
+        for (int i = 1; i < stride; i++) {
+            PtrInst field = new PtrInst(tagPtr, i32(i));
+            check.addInst(field);
+            fields.add(field);
+        }
+        PtrInst valPtr = new PtrInst(valTable, index);
+        check.addInst(valPtr);
+
+        Instruction valid = new LoadInst(fields.get(0), IntegerType.I32);
+        check.addInst(valid);
+        Instruction cond = new BinaryInst(OP.Ne, valid, i32(0), IntegerType.I32);
+        check.addInst(cond);
+        for (int i = 0; i < args.size(); i++) {
+            Instruction key = new LoadInst(fields.get(i + 1), IntegerType.I32);
+            check.addInst(key);
+            Instruction eq = new BinaryInst(OP.Eq, key, args.get(i), IntegerType.I32);
+            check.addInst(eq);
+            Instruction and = new BinaryInst(OP.And, cond, eq, IntegerType.I32);
+            check.addInst(and);
+            cond = and;
+        }
+        check.addInst(new BrInst(cond, hit, entry));
+
+        Instruction cached = new LoadInst(valPtr, function.getType());
+        hit.addInst(cached);
+        hit.addInst(new RetInst(cached));
+
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            if (bb == hit || !(bb.getLastInst() instanceof RetInst retInst)) continue;
+            new StoreInst(retInst.getValue(), valPtr).insertBefore(retInst);
+            for (int i = 0; i < args.size(); i++) {
+                new StoreInst(args.get(i), fields.get(i + 1)).insertBefore(retInst);
+            }
+            new StoreInst(i32(1), fields.get(0)).insertBefore(retInst);
+        }
+
+        check.depth = entry.depth;
+        hit.depth = entry.depth;
+        UtilFunc.makeCFG(function);
+    }
+
+    private static ConstInteger i32(int value) {
+        return new ConstInteger(value, IntegerType.I32);
+    }
+}
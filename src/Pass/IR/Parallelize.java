@@ -0,0 +1,380 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.IRLoop;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  Parallelize把没有跨迭代依赖的循环按归纳变量的取值范围拆分给多个线程
+//  1. 只处理@main中的循环，且是顶层循环或带有子循环的循环，保证创建线程的开销相对循环的工作量可以忽略
+//  2. 依赖分析: 循环头只有归纳变量一个phi，循环内定义的值不在循环外使用，循环内没有函数调用；
+//     每个被写入的全局数组，把它所有访问的地址偏移展开成线性式，要求归纳变量的系数相同且非零、循环不变的部分相同，
+//     内层循环归纳变量等其余部分在一次迭代内的跨度小于相邻两次迭代之间的地址间隔，这样不同迭代访问的区间互不相交
+//  3. 内层循环的终止值在运行时才知道时，在preheader中检查跨度，不满足时所有迭代都交给0号线程
+//  4. preheader中调用parallelStart得到线程号并计算本线程的区间，出口处调用parallelEnd，子线程在其中退出，0号线程等待其余线程结束
+//  运行时(parallel_arm.S)让子线程在新栈上运行调用者栈帧的拷贝，对局部数组的写入对其他线程不可见，因此不并行写局部数组的循环
+public class Parallelize implements Pass.IRPass {
+    //  与运行时的线程数一致
+    private static final int THREADS = 4;
+    //  没有子循环的循环至少要有这么多次迭代才值得并行
+    private static final int MIN_TRIP_COUNT = 16384;
+    //  @main的局部数组超过这个大小时不并行内层循环，避免每次进入循环都拷贝很大的栈帧
+    private static final int MAX_INNER_FRAME = 16384;
+
+    //  地址偏移的线性式: Σ coef * atom + constant
+    private static class Linear {
+        final LinkedHashMap<Value, Long> terms = new LinkedHashMap<>();
+        long constant = 0;
+    }
+
+    //  一次访问按变量的种类拆分线性式
+    private record Access(long ivCoef, LinkedHashMap<Value, Long> invariants, LinkedHashMap<IRLoop, Long> inners,
+                          long constant) {}
+
+    private Function parallelStart, parallelEnd;
+
+    @Override
+    public String getName() {
+        return "Parallelize";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo);
+    }
+
+    //  只在preheader与出口插入指令，归纳变量的初值与终止值被改写
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        parallelStart = module.getLibFunction("parallelStart");
+        parallelEnd = module.getLibFunction("parallelEnd");
+        if (parallelStart == null || parallelEnd == null) return;
+        for (Function function : module.functions()) {
+            if (function.getName().equals("@main")) {
+                runOnFunction(function);
+            }
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        long frameSize = 0;
+        for (IList.INode<Instruction, BasicBlock> instNode : function.getBbEntry().getInsts()) {
+            if (instNode.getValue() instanceof AllocInst allocInst) frameSize += allocInst.getSize();
+        }
+        Stack<IRLoop> stack = new Stack<>();
+        for (int i = function.getTopLoops().size() - 1; i >= 0; i--) {
+            stack.push(function.getTopLoops().get(i));
+        }
+        while (!stack.isEmpty()) {
+            IRLoop loop = stack.pop();
+            boolean profitable = loop.getSubLoops().isEmpty()
+                    ? loop.getParentLoop() == null && (loop.getItTimes() < 0 || loop.getItTimes() >= MIN_TRIP_COUNT)
+                    : loop.getParentLoop() == null || frameSize <= MAX_INNER_FRAME;
+            if (profitable && tryParallelize(loop)) continue;
+            for (int i = loop.getSubLoops().size() - 1; i >= 0; i--) {
+                stack.push(loop.getSubLoops().get(i));
+            }
+        }
+    }
+
+    private boolean tryParallelize(IRLoop loop) {
+        if (!loop.isSimpleLoop() || !loop.isSetIndVar()) return false;
+        BasicBlock header = loop.getHead();
+        BasicBlock preHeader = loop.getPreHeader();
+        BasicBlock exitBb = loop.getExitBlocks().iterator().next();
+        if (preHeader == null || exitBb.getPreBlocks().size() != 1) return false;
+        if (UtilFunc.getPhiInBb(header).size() != 1) return false;
+
+        BrInst headBr = (BrInst) header.getLastInst();
+        BinaryInst cond = loop.getHeadBrCond();
+        Value iv = loop.getItVar();
+        int endIdx = cond.getLeftVal() == iv ? 1 : 0;
+        OP stayOp = endIdx == 1 ? cond.getOp() : LoopAnalysis.swapCmp(cond.getOp());
+        BinaryInst itAlu = (BinaryInst) loop.getItAlu();
+        if (!loop.getBbs().contains(headBr.getTrueBlock()) || stayOp != OP.Lt || cond.getUserList().size() != 1
+                || itAlu.getOp() != OP.Add || itAlu.I64
+                || !(loop.getItStep() instanceof ConstInteger step) || step.getValue() <= 0) {
+            return false;
+        }
+
+        LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+        LinkedHashMap<Value, ArrayList<Access>> accesses = new LinkedHashMap<>();
+        LinkedHashSet<Value> storeBases = new LinkedHashSet<>();
+        for (BasicBlock bb : loop.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                Instruction inst = instNode.getValue();
+                //  循环内的值在循环外使用说明存在归约或者最后一次迭代的取值
+                for (User user : inst.getUserList()) {
+                    if (!(user instanceof Instruction userInst) || !body.contains(userInst.getParentbb())) return false;
+                }
+                if (inst instanceof CallInst) return false;
+                Value pointer;
+                if (inst instanceof LoadInst loadInst) {
+                    pointer = loadInst.getPointer();
+                } else if (inst instanceof StoreInst storeInst) {
+                    pointer = storeInst.getPointer();
+                    Value base = LICM.getBase(pointer);
+                    if (!(base instanceof GlobalVar)) return false;
+                    storeBases.add(base);
+                } else {
+                    continue;
+                }
+                //  最后一次判断时归纳变量已经是下一个线程的起点
+                if (bb == header) return false;
+                Access access = classify(pointer, inst, loop, body);
+                accesses.computeIfAbsent(LICM.getBase(pointer), k -> new ArrayList<>()).add(access);
+            }
+        }
+
+        //  每个被写入的数组都需要检查，需要在运行时确认的条件加入checks
+        ArrayList<BinaryInst> checks = new ArrayList<>();
+        for (Value base : storeBases) {
+            if (!checkIndependent(accesses.get(base), step.getValue(), checks)) return false;
+        }
+        transform(loop, preHeader, exitBb, cond, endIdx, step.getValue(), checks);
+        return true;
+    }
+
+    private static void decompose(Value value, long scale, Linear linear) {
+        if (value instanceof ConstInteger c) {
+            linear.constant += scale * c.getValue();
+            return;
+        }
+        if (value instanceof BinaryInst binaryInst && !binaryInst.I64) {
+            Value left = binaryInst.getLeftVal(), right = binaryInst.getRightVal();
+            switch (binaryInst.getOp()) {
+                case Add -> {
+                    decompose(left, scale, linear);
+                    decompose(right, scale, linear);
+                    return;
+                }
+                case Sub -> {
+                    decompose(left, scale, linear);
+                    decompose(right, -scale, linear);
+                    return;
+                }
+                case Mul -> {
+                    if (right instanceof ConstInteger c) {
+                        decompose(left, scale * c.getValue(), linear);
+                        return;
+                    }
+                    if (left instanceof ConstInteger c) {
+                        decompose(right, scale * c.getValue(), linear);
+                        return;
+                    }
+                }
+                case Shl -> {
+                    if (right instanceof ConstInteger c && c.getValue() >= 0 && c.getValue() < 31) {
+                        decompose(left, scale << c.getValue(), linear);
+                        return;
+                    }
+                }
+                default -> {}
+            }
+        }
+        linear.terms.merge(value, scale, Long::sum);
+    }
+
+    /**
+     * 把访问的地址偏移拆成归纳变量、循环不变量与内层循环归纳变量三部分
+     * @return 含有其他变量时返回null
+     */
+    private static Access classify(Value pointer, Instruction inst, IRLoop loop, LinkedHashSet<BasicBlock> body) {
+        Linear linear = new Linear();
+        while (true) {
+            if (pointer instanceof PtrInst ptrInst) {
+                decompose(ptrInst.getOffset(), 1, linear);
+                pointer = ptrInst.getTarget();
+            } else if (pointer instanceof PtrSubInst ptrSubInst) {
+                decompose(ptrSubInst.getOffset(), -1, linear);
+                pointer = ptrSubInst.getTarget();
+            } else {
+                break;
+            }
+        }
+        long ivCoef = 0;
+        LinkedHashMap<Value, Long> invariants = new LinkedHashMap<>();
+        LinkedHashMap<IRLoop, Long> inners = new LinkedHashMap<>();
+        for (Map.Entry<Value, Long> term : linear.terms.entrySet()) {
+            Value atom = term.getKey();
+            if (term.getValue() == 0) continue;
+            if (atom == loop.getItVar()) {
+                ivCoef = term.getValue();
+            } else if (!(atom instanceof Instruction atomInst) || !body.contains(atomInst.getParentbb())) {
+                invariants.put(atom, term.getValue());
+            } else {
+                IRLoop inner = getInnerLoop(atom, inst, loop, body);
+                if (inner == null) return null;
+                inners.put(inner, term.getValue());
+            }
+        }
+        return new Access(ivCoef, invariants, inners, linear.constant);
+    }
+
+    //  atom是包含inst的内层循环的归纳变量，且按正的常量步长从常量初值递增到循环不变的终止值
+    private static IRLoop getInnerLoop(Value atom, Instruction inst, IRLoop loop, LinkedHashSet<BasicBlock> body) {
+        if (!(atom instanceof Phi phi)) return null;
+        IRLoop inner = phi.getParentbb().getLoop();
+        if (inner == null || inner == loop || inner.getHead() != phi.getParentbb() || inner.getItVar() != phi) return null;
+        BasicBlock bb = inst.getParentbb();
+        if (bb == inner.getHead() || !inner.getBbs().contains(bb)) return null;
+        BinaryInst cond = inner.getHeadBrCond();
+        OP stayOp = cond.getLeftVal() == phi ? cond.getOp() : LoopAnalysis.swapCmp(cond.getOp());
+        BrInst headBr = (BrInst) inner.getHead().getLastInst();
+        BinaryInst itAlu = (BinaryInst) inner.getItAlu();
+        if (!inner.getBbs().contains(headBr.getTrueBlock()) || (stayOp != OP.Lt && stayOp != OP.Le)
+                || itAlu.getOp() != OP.Add || !(inner.getItStep() instanceof ConstInteger step) || step.getValue() <= 0
+                || !(inner.getItInit() instanceof ConstInteger)) {
+            return null;
+        }
+        Value end = inner.getItEnd();
+        if (end instanceof Instruction endInst && body.contains(endInst.getParentbb())) return null;
+        return inner;
+    }
+
+    //  内层循环归纳变量的最大值与初值之差，终止值不是常量时返回-1
+    private static long innerRange(IRLoop inner) {
+        if (!(inner.getItEnd() instanceof ConstInteger end)) return -1;
+        long init = ((ConstInteger) inner.getItInit()).getValue();
+        long last = isLe(inner) ? end.getValue() : end.getValue() - 1L;
+        return Math.max(0, last - init);
+    }
+
+    private static boolean isLe(IRLoop inner) {
+        BinaryInst cond = inner.getHeadBrCond();
+        OP stayOp = cond.getLeftVal() == inner.getItVar() ? cond.getOp() : LoopAnalysis.swapCmp(cond.getOp());
+        return stayOp == OP.Le;
+    }
+
+    /**
+     * 同一数组的所有访问在一次迭代内落在 [ivCoef * i + lo, ivCoef * i + hi] 中，hi - lo 小于相邻迭代的间隔时互不相交。
+     * 跨度依赖运行时才知道的终止值时，生成比较指令加入checks
+     */
+    private static boolean checkIndependent(ArrayList<Access> accesses, long step, ArrayList<BinaryInst> checks) {
+        Access first = accesses.get(0);
+        if (first == null || first.ivCoef() == 0) return false;
+        long minConst = first.constant(), maxConst = first.constant();
+        for (Access access : accesses) {
+            if (access == null || access.ivCoef() != first.ivCoef() || !access.invariants().equals(first.invariants())
+                    || !access.inners().equals(first.inners())) {
+                return false;
+            }
+            minConst = Math.min(minConst, access.constant());
+            maxConst = Math.max(maxConst, access.constant());
+        }
+        long stride = Math.abs(first.ivCoef()) * step;
+        long width = maxConst - minConst;
+        IRLoop runtimeLoop = null;
+        long runtimeCoef = 0;
+        for (Map.Entry<IRLoop, Long> entry : first.inners().entrySet()) {
+            long range = innerRange(entry.getKey());
+            if (range >= 0) {
+                width += Math.abs(entry.getValue()) * range;
+            } else if (runtimeLoop == null) {
+                runtimeLoop = entry.getKey();
+                runtimeCoef = Math.abs(entry.getValue());
+            } else {
+                return false;
+            }
+        }
+        if (width >= stride) return false;
+        if (runtimeLoop == null) return true;
+
+        //  width + coef * (last - init) < stride  =>  end <= maxEnd
+        long maxRange = (stride - 1 - width) / runtimeCoef;
+        long maxEnd = ((ConstInteger) runtimeLoop.getItInit()).getValue() + maxRange + (isLe(runtimeLoop) ? 0 : 1);
+        if (maxEnd >= Integer.MAX_VALUE) return true;
+        checks.add(new BinaryInst(OP.Le, runtimeLoop.getItEnd(), new ConstInteger((int) maxEnd, IntegerType.I32),
+                IntegerType.I32));
+        return true;
+    }
+
+    private static BinaryInst insert(BinaryInst inst, Instruction before) {
+        inst.insertBefore(before);
+        return inst;
+    }
+
+    private static ConstInteger i32(long value) {
+        return new ConstInteger((int) value, IntegerType.I32);
+    }
+
+    //  thread号线程的起始迭代: count * thread / THREADS 拆成 q * thread + r * thread / THREADS，避免乘法溢出
+    private static Value chunkStart(Value thread, Value q, Value r, Instruction before) {
+        BinaryInst base = insert(new BinaryInst(OP.Mul, q, thread, IntegerType.I32), before);
+        BinaryInst rest = insert(new BinaryInst(OP.Mul, r, thread, IntegerType.I32), before);
+        BinaryInst restDiv = insert(new BinaryInst(OP.Div, rest, i32(THREADS), IntegerType.I32), before);
+        return insert(new BinaryInst(OP.Add, base, restDiv, IntegerType.I32), before);
+    }
+
+    private void transform(IRLoop loop, BasicBlock preHeader, BasicBlock exitBb, BinaryInst cond, int endIdx,
+                           long step, ArrayList<BinaryInst> checks) {
+        Instruction before = preHeader.getLastInst();
+        Value init = loop.getItInit(), end = loop.getItEnd();
+        CallInst thread = new CallInst(parallelStart, new ArrayList<>());
+        thread.insertBefore(before);
+
+        //  迭代次数 (end - init + step - 1) / step，end不大于init时为非正数，每个线程的区间都为空
+        Value count = insert(new BinaryInst(OP.Sub, end, init, IntegerType.I32), before);
+        if (step != 1) {
+            count = insert(new BinaryInst(OP.Add, count, i32(step - 1), IntegerType.I32), before);
+            count = insert(new BinaryInst(OP.Div, count, i32(step), IntegerType.I32), before);
+        }
+        BinaryInst q = insert(new BinaryInst(OP.Div, count, i32(THREADS), IntegerType.I32), before);
+        BinaryInst r = insert(new BinaryInst(OP.Mod, count, i32(THREADS), IntegerType.I32), before);
+        BinaryInst nextThread = insert(new BinaryInst(OP.Add, thread, i32(1), IntegerType.I32), before);
+        Value lo = chunkStart(thread, q, r, before);
+        Value hi = chunkStart(nextThread, q, r, before);
+
+        if (!checks.isEmpty()) {
+            //  检查不通过时 0 号线程执行 [0, count)，其余线程的区间为 [count, count)
+            Value ok = null;
+            for (BinaryInst check : checks) {
+                check.insertBefore(before);
+                ok = ok == null ? check : insert(new BinaryInst(OP.And, ok, check, IntegerType.I32), before);
+            }
+            BinaryInst fail = insert(new BinaryInst(OP.Sub, i32(1), ok, IntegerType.I32), before);
+            BinaryInst isChild = insert(new BinaryInst(OP.Ne, thread, i32(0), IntegerType.I32), before);
+            BinaryInst loTarget = insert(new BinaryInst(OP.Mul, count, isChild, IntegerType.I32), before);
+            BinaryInst loDiff = insert(new BinaryInst(OP.Sub, loTarget, lo, IntegerType.I32), before);
+            BinaryInst loFix = insert(new BinaryInst(OP.Mul, fail, loDiff, IntegerType.I32), before);
+            lo = insert(new BinaryInst(OP.Add, lo, loFix, IntegerType.I32), before);
+            BinaryInst hiDiff = insert(new BinaryInst(OP.Sub, count, hi, IntegerType.I32), before);
+            BinaryInst hiFix = insert(new BinaryInst(OP.Mul, fail, hiDiff, IntegerType.I32), before);
+            hi = insert(new BinaryInst(OP.Add, hi, hiFix, IntegerType.I32), before);
+        }
+
+        //  迭代序号换算回归纳变量的取值
+        if (step != 1) {
+            lo = insert(new BinaryInst(OP.Mul, lo, i32(step), IntegerType.I32), before);
+            hi = insert(new BinaryInst(OP.Mul, hi, i32(step), IntegerType.I32), before);
+        }
+        lo = insert(new BinaryInst(OP.Add, init, lo, IntegerType.I32), before);
+        hi = insert(new BinaryInst(OP.Add, init, hi, IntegerType.I32), before);
+
+        BasicBlock header = loop.getHead();
+        int enterIdx = header.getPreBlocks().indexOf(preHeader);
+        ((Phi) loop.getItVar()).replaceOperand(enterIdx, lo);
+        cond.replaceOperand(endIdx, hi);
+
+        ArrayList<Value> args = new ArrayList<>();
+        args.add(thread);
+        CallInst join = new CallInst(parallelEnd, args);
+        Instruction firstInst = exitBb.getFirstInst();
+        while (firstInst instanceof Phi) {
+            firstInst = firstInst.getNode().getNext().getValue();
+        }
+        join.insertBefore(firstInst);
+    }
+}
@@ -0,0 +1,135 @@
+package Pass.IR;
+
+import IR.IRBuildFactory;
+import IR.IRModule;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  RemovePhi在后端生成前消去phi
+//  1. 拆分关键边，保证每条需要插入复制的边都有一个只属于它的块
+//  2. 把同一条边上的phi看作并行复制，顺序化后以Move的形式插入到前驱块末尾，出现环时引入临时变量
+//  phi本身从基本块中移除，但其他指令对phi的使用保留，由Move写入phi对应的位置
+public class RemovePhi implements Pass.IRPass {
+    private final IRBuildFactory f = IRBuildFactory.getInstance();
+
+    @Override
+    public String getName() {
+        return "RemovePhi";
+    }
+
+    //  拆分出的块按前驱的循环深度记录depth，后端的溢出代价依赖循环信息
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.LoopInfo);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        ArrayList<BasicBlock> bbs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            bbs.add(bbNode.getValue());
+        }
+        for (BasicBlock bb : bbs) {
+            ArrayList<Phi> phis = UtilFunc.getPhiInBb(bb);
+            if (phis.isEmpty()) continue;
+
+            ArrayList<BasicBlock> preBbs = new ArrayList<>(bb.getPreBlocks());
+            LinkedHashSet<BasicBlock> handled = new LinkedHashSet<>();
+            for (int i = 0; i < preBbs.size(); i++) {
+                BasicBlock preBb = preBbs.get(i);
+                //  同一前驱以两条边到达时(真假分支相同)，两条边上的取值必然一致，只处理一次
+                if (handled.contains(preBb)) continue;
+                handled.add(preBb);
+
+                ArrayList<Value> dsts = new ArrayList<>();
+                ArrayList<Value> srcs = new ArrayList<>();
+                for (Phi phi : phis) {
+                    Value src = phi.getOperand(i);
+                    if (src == phi) continue;
+                    dsts.add(phi);
+                    srcs.add(src);
+                }
+                if (dsts.isEmpty()) continue;
+
+                BasicBlock moveBb = preBb;
+                if (preBb.getNxtBlocks().size() > 1) {
+                    moveBb = splitEdge(function, preBb, bb);
+                }
+                insertParallelCopy(moveBb, dsts, srcs);
+            }
+            for (Phi phi : phis) {
+                phi.removeSelf();
+            }
+        }
+    }
+
+    //  在preBb与bb之间插入新块，新块只包含一条跳转
+    private BasicBlock splitEdge(Function function, BasicBlock preBb, BasicBlock bb) {
+        BasicBlock midBb = new BasicBlock(function);
+        midBb.insertAfter(preBb);
+        f.buildBrInst(bb, midBb);
+        midBb.depth = preBb.getLoopDepth();
+        preBb.turnBrBlock(bb, midBb);
+
+        //  手动维护前驱后继，保持bb中phi操作数与前驱的对应顺序
+        ArrayList<BasicBlock> nxtBbs = preBb.getNxtBlocks();
+        for (int i = 0; i < nxtBbs.size(); i++) {
+            if (nxtBbs.get(i) == bb) {
+                nxtBbs.set(i, midBb);
+            }
+        }
+        ArrayList<BasicBlock> preBbs = bb.getPreBlocks();
+        for (int i = 0; i < preBbs.size(); i++) {
+            if (preBbs.get(i) == preBb) {
+                preBbs.set(i, midBb);
+            }
+        }
+        midBb.setPreBlock(preBb);
+        midBb.setNxtBlock(bb);
+        return midBb;
+    }
+
+    //  将并行复制 dsts[i] <- srcs[i] 顺序化后插入到bb的跳转之前
+    private void insertParallelCopy(BasicBlock bb, ArrayList<Value> dsts, ArrayList<Value> srcs) {
+        Instruction terminator = bb.getLastInst();
+        ArrayList<Value> pendingDsts = new ArrayList<>(dsts);
+        ArrayList<Value> pendingSrcs = new ArrayList<>(srcs);
+        while (!pendingDsts.isEmpty()) {
+            boolean emitted = false;
+            for (int i = 0; i < pendingDsts.size(); i++) {
+                Value dst = pendingDsts.get(i);
+                if (pendingSrcs.contains(dst)) continue;
+                if (pendingSrcs.get(i) != dst) {
+                    new Move(dst, pendingSrcs.get(i)).insertBefore(terminator);
+                }
+                pendingDsts.remove(i);
+                pendingSrcs.remove(i);
+                emitted = true;
+                break;
+            }
+            if (emitted) continue;
+
+            //  剩余的复制构成环，先把一个目标保存到临时变量中打破环
+            Value dst = pendingDsts.get(0);
+            Value tmp = new Value("%" + (++Value.valNumber), dst.getType());
+            new Move(tmp, dst).insertBefore(terminator);
+            for (int i = 0; i < pendingSrcs.size(); i++) {
+                if (pendingSrcs.get(i) == dst) {
+                    pendingSrcs.set(i, tmp);
+                }
+            }
+        }
+    }
+}
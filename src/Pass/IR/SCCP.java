@@ -0,0 +1,363 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Type.VoidType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  SCCP(稀疏条件常量传播)在SSA上同时传播常量与基本块的可达性
+//  1. 每个值的格取值为 未定义(不在表中) -> 常量 -> 非常量，只会单调下降
+//  2. 只有可执行的CFG边才参与phi的求值，条件为常量的分支只有一条出边可执行
+//  3. 收敛后用常量替换对应指令，把条件为常量的分支改为直接跳转，并删除不可执行的基本块
+//  从未被写过的标量全局变量的load视为其初始值，const全局数组在常量下标处的load视为对应的初始值
+public class SCCP implements Pass.IRPass {
+    private static final Value OVERDEFINED = new Value("overdefined", VoidType.voidType);
+
+    private final LinkedHashMap<Value, Value> lattice = new LinkedHashMap<>();
+    private final LinkedHashSet<BasicBlock> executableBbs = new LinkedHashSet<>();
+    private final LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> executableEdges = new LinkedHashMap<>();
+    private final ArrayDeque<BasicBlock> bbWorklist = new ArrayDeque<>();
+    private final ArrayDeque<Instruction> instWorklist = new ArrayDeque<>();
+    private final LinkedHashSet<GlobalVar> readOnlyGlobals = new LinkedHashSet<>();
+
+    @Override
+    public String getName() {
+        return "SCCP";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG);
+    }
+
+    //  结束时重新构建了CFG
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        readOnlyGlobals.clear();
+        for (GlobalVar globalVar : module.globalVars()) {
+            if (globalVar.isArray()) continue;
+            boolean readOnly = true;
+            for (User user : globalVar.getUserList()) {
+                if (!(user instanceof LoadInst)) {
+                    readOnly = false;
+                    break;
+                }
+            }
+            if (readOnly) readOnlyGlobals.add(globalVar);
+        }
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            runOnFunction(function);
+        }
+    }
+
+    private void runOnFunction(Function function) {
+        lattice.clear();
+        executableBbs.clear();
+        executableEdges.clear();
+        bbWorklist.clear();
+        instWorklist.clear();
+
+        BasicBlock entry = function.getBbEntry();
+        executableBbs.add(entry);
+        bbWorklist.add(entry);
+        while (!bbWorklist.isEmpty() || !instWorklist.isEmpty()) {
+            while (!bbWorklist.isEmpty()) {
+                BasicBlock bb = bbWorklist.poll();
+                for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                    visit(instNode.getValue());
+                }
+            }
+            while (!instWorklist.isEmpty()) {
+                visit(instWorklist.poll());
+            }
+        }
+
+        rewrite(function);
+        UtilFunc.makeCFG(function);
+    }
+
+    private Value getLattice(Value value) {
+        if (value instanceof ConstInteger || value instanceof ConstFloat) {
+            return value;
+        }
+        if (value instanceof Instruction) {
+            return lattice.get(value);
+        }
+        return OVERDEFINED;
+    }
+
+    private static boolean isSameConst(Value a, Value b) {
+        if (a instanceof ConstInteger ca && b instanceof ConstInteger cb) {
+            return ca.getValue() == cb.getValue();
+        }
+        //  按位比较，避免0.0与-0.0被合并以及NaN永远不相等
+        if (a instanceof ConstFloat ca && b instanceof ConstFloat cb) {
+            return Float.floatToRawIntBits(ca.getValue()) == Float.floatToRawIntBits(cb.getValue());
+        }
+        return false;
+    }
+
+    private void setLattice(Instruction inst, Value value) {
+        if (value == null) return;
+        Value old = lattice.get(inst);
+        if (old == OVERDEFINED || (old != null && isSameConst(old, value))) return;
+        lattice.put(inst, old == null ? value : OVERDEFINED);
+        for (User user : inst.getUserList()) {
+            if (user instanceof Instruction userInst && executableBbs.contains(userInst.getParentbb())) {
+                instWorklist.add(userInst);
+            }
+        }
+    }
+
+    private void markEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.computeIfAbsent(from, k -> new LinkedHashSet<>()).add(to)) return;
+        if (executableBbs.add(to)) {
+            bbWorklist.add(to);
+        } else {
+            //  目标块已经求值过，新的入边只影响其中的phi
+            instWorklist.addAll(UtilFunc.getPhiInBb(to));
+        }
+    }
+
+    private boolean isEdgeExecutable(BasicBlock from, BasicBlock to) {
+        LinkedHashSet<BasicBlock> succs = executableEdges.get(from);
+        return succs != null && succs.contains(to);
+    }
+
+    private void visit(Instruction inst) {
+        if (inst instanceof Phi phi) {
+            visitPhi(phi);
+        } else if (inst instanceof BrInst brInst) {
+            visitBr(brInst);
+        } else if (inst instanceof BinaryInst binaryInst) {
+            Value left = getLattice(binaryInst.getLeftVal());
+            Value right = getLattice(binaryInst.getRightVal());
+            if (left == null || right == null) return;
+            if (left == OVERDEFINED || right == OVERDEFINED || binaryInst.I64) {
+                setLattice(inst, OVERDEFINED);
+            } else {
+                setLattice(inst, foldBinary(binaryInst.getOp(), left, right));
+            }
+        } else if (inst instanceof ConversionInst conversionInst) {
+            Value value = getLattice(conversionInst.getValue());
+            if (value == null) return;
+            setLattice(inst, value == OVERDEFINED ? OVERDEFINED : foldConversion(conversionInst.getOp(), value));
+        } else if (inst instanceof LoadInst loadInst
+                && loadInst.getPointer() instanceof GlobalVar globalVar
+                && readOnlyGlobals.contains(globalVar)
+                && isTypeMatch(globalVar.getValue(), loadInst)) {
+            setLattice(inst, globalVar.getValue());
+        } else if (inst instanceof LoadInst loadInst && getConstArray(loadInst.getPointer()) != null) {
+            setLattice(inst, loadConstArray(loadInst));
+        } else if (inst instanceof PtrInst && getConstArray(inst) != null) {
+            //  地址本身不是常量，下标的格值变化时需要重新求值读取它的load
+            setLattice(inst, OVERDEFINED);
+            for (User user : inst.getUserList()) {
+                if (user instanceof Instruction userInst && executableBbs.contains(userInst.getParentbb())) {
+                    instWorklist.add(userInst);
+                }
+            }
+        } else if (inst.hasName() && !(inst.getType() instanceof VoidType)) {
+            setLattice(inst, OVERDEFINED);
+        }
+    }
+
+    //  地址沿ptradd回溯到的const全局数组，不是时返回null
+    private static GlobalVar getConstArray(Value pointer) {
+        while (pointer instanceof PtrInst ptrInst) {
+            pointer = ptrInst.getTarget();
+        }
+        return pointer instanceof GlobalVar globalVar && globalVar.isArray() && globalVar.isConst() ? globalVar : null;
+    }
+
+    /**
+     * 下标全部为常量时给出const全局数组中对应的初始值，所有元素相同时下标可以不是常量
+     * @return 下标尚未确定时返回null，无法折叠时返回OVERDEFINED
+     */
+    private Value loadConstArray(LoadInst loadInst) {
+        Value pointer = loadInst.getPointer();
+        long index = 0;
+        boolean isVariable = false;
+        while (pointer instanceof PtrInst ptrInst) {
+            Value offset = getLattice(ptrInst.getOffset());
+            if (offset == null) return null;
+            if (offset instanceof ConstInteger constInt) index += constInt.getValue();
+            else isVariable = true;
+            pointer = ptrInst.getTarget();
+        }
+        GlobalVar globalVar = (GlobalVar) pointer;
+        if (globalVar.isZeroInit()) {
+            return loadInst.getType().isFloatTy() ? new ConstFloat(0) : new ConstInteger(0, IntegerType.I32);
+        }
+        ArrayList<Value> values = globalVar.getValues();
+        //  下标不是常量时，所有元素都相同的数组(如全零的表)仍然可以折叠，越界访问本身是未定义行为
+        if (isVariable) {
+            for (Value value : values) {
+                if (!isSameConst(value, values.get(0))) return OVERDEFINED;
+            }
+            index = 0;
+        }
+        if (index < 0 || index >= values.size()) return OVERDEFINED;
+        Value init = values.get((int) index);
+        return isTypeMatch(init, loadInst) ? init : OVERDEFINED;
+    }
+
+    private static boolean isTypeMatch(Value init, LoadInst loadInst) {
+        if (init instanceof ConstInteger) return loadInst.getType() == IntegerType.I32;
+        if (init instanceof ConstFloat) return loadInst.getType().isFloatTy();
+        return false;
+    }
+
+    private void visitPhi(Phi phi) {
+        BasicBlock bb = phi.getParentbb();
+        ArrayList<BasicBlock> preBbs = bb.getPreBlocks();
+        Value result = null;
+        for (int i = 0; i < phi.getOperands().size(); i++) {
+            if (!isEdgeExecutable(preBbs.get(i), bb)) continue;
+            Value value = getLattice(phi.getOperand(i));
+            if (value == null) continue;
+            if (value == OVERDEFINED || (result != null && !isSameConst(result, value))) {
+                result = OVERDEFINED;
+                break;
+            }
+            result = value;
+        }
+        setLattice(phi, result);
+    }
+
+    private void visitBr(BrInst brInst) {
+        BasicBlock bb = brInst.getParentbb();
+        if (brInst.isJump()) {
+            markEdge(bb, brInst.getJumpBlock());
+            return;
+        }
+        Value cond = getLattice(brInst.getJudVal());
+        if (cond instanceof ConstInteger constInt) {
+            markEdge(bb, constInt.getValue() != 0 ? brInst.getTrueBlock() : brInst.getFalseBlock());
+        } else {
+            markEdge(bb, brInst.getTrueBlock());
+            markEdge(bb, brInst.getFalseBlock());
+        }
+    }
+
+    //  无法折叠(除零、类型不匹配)时返回OVERDEFINED
+    private static Value foldBinary(OP op, Value left, Value right) {
+        if (left instanceof ConstInteger l && right instanceof ConstInteger r) {
+            int a = l.getValue(), b = r.getValue();
+            Integer result = switch (op) {
+                case Add -> a + b;
+                case Sub -> a - b;
+                case Mul -> a * b;
+                case Div -> b == 0 ? null : a / b;
+                case Mod -> b == 0 ? null : a % b;
+                case Shl -> a << b;
+                case Shr -> a >> b;
+                case And -> a & b;
+                case Or -> a | b;
+                case Xor -> a ^ b;
+                case Lt -> a < b ? 1 : 0;
+                case Le -> a <= b ? 1 : 0;
+                case Gt -> a > b ? 1 : 0;
+                case Ge -> a >= b ? 1 : 0;
+                case Eq -> a == b ? 1 : 0;
+                case Ne -> a != b ? 1 : 0;
+                default -> null;
+            };
+            return result == null ? OVERDEFINED : new ConstInteger(result, IntegerType.I32);
+        }
+        if (left instanceof ConstFloat l && right instanceof ConstFloat r) {
+            float a = l.getValue(), b = r.getValue();
+            return switch (op) {
+                case Fadd -> new ConstFloat(a + b);
+                case Fsub -> new ConstFloat(a - b);
+                case Fmul -> new ConstFloat(a * b);
+                case Fdiv -> new ConstFloat(a / b);
+                case Fmod -> new ConstFloat(a % b);
+                case FLt -> new ConstInteger(a < b ? 1 : 0, IntegerType.I32);
+                case FLe -> new ConstInteger(a <= b ? 1 : 0, IntegerType.I32);
+                case FGt -> new ConstInteger(a > b ? 1 : 0, IntegerType.I32);
+                case FGe -> new ConstInteger(a >= b ? 1 : 0, IntegerType.I32);
+                case FEq -> new ConstInteger(a == b ? 1 : 0, IntegerType.I32);
+                case FNe -> new ConstInteger(a != b ? 1 : 0, IntegerType.I32);
+                default -> OVERDEFINED;
+            };
+        }
+        return OVERDEFINED;
+    }
+
+    private static Value foldConversion(OP op, Value value) {
+        if (op == OP.Itof && value instanceof ConstInteger constInt) {
+            return new ConstFloat((float) constInt.getValue());
+        }
+        if (op == OP.Ftoi && value instanceof ConstFloat constFloat) {
+            return new ConstInteger((int) constFloat.getValue(), IntegerType.I32);
+        }
+        if (op == OP.Zext && value instanceof ConstInteger constInt) {
+            return new ConstInteger(constInt.getValue(), IntegerType.I32);
+        }
+        return OVERDEFINED;
+    }
+
+    //  删除phi中来自preBb的一个操作数，并同步bb的前驱列表
+    private static void removePhiEdge(BasicBlock preBb, BasicBlock bb) {
+        int idx = bb.getPreBlocks().indexOf(preBb);
+        if (idx < 0) return;
+        for (Phi phi : UtilFunc.getPhiInBb(bb)) {
+            phi.removeOperand(idx);
+        }
+        bb.getPreBlocks().remove(idx);
+    }
+
+    private void rewrite(Function function) {
+        ArrayList<BasicBlock> deadBbs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            if (!executableBbs.contains(bb)) {
+                deadBbs.add(bb);
+                continue;
+            }
+            ArrayList<Instruction> insts = new ArrayList<>();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                insts.add(instNode.getValue());
+            }
+            for (Instruction inst : insts) {
+                Value value = lattice.get(inst);
+                if (value instanceof ConstInteger || value instanceof ConstFloat) {
+                    inst.replaceUsedWith(value);
+                    inst.removeSelf();
+                }
+            }
+
+            if (bb.getLastInst() instanceof BrInst brInst && !brInst.isJump()
+                    && getLattice(brInst.getJudVal()) instanceof ConstInteger constInt) {
+                BasicBlock taken = constInt.getValue() != 0 ? brInst.getTrueBlock() : brInst.getFalseBlock();
+                BasicBlock notTaken = constInt.getValue() != 0 ? brInst.getFalseBlock() : brInst.getTrueBlock();
+                brInst.turnToJump(taken);
+                if (executableBbs.contains(notTaken)) {
+                    removePhiEdge(bb, notTaken);
+                }
+            }
+        }
+
+        for (BasicBlock bb : deadBbs) {
+            for (BasicBlock nxtBb : bb.getNxtBlocks()) {
+                if (executableBbs.contains(nxtBb)) {
+                    removePhiEdge(bb, nxtBb);
+                }
+            }
+            bb.removeInstsAndSelf();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Type.PointerType;
+import IR.Type.Type;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  SROA把只用常量下标访问的小局部数组拆成每个元素一个标量alloc，之后由Mem2Reg提升到寄存器
+//  1. 数组的使用者只能是常量偏移的ptradd(可以嵌套)、以数组为地址的load/store、清零整个数组的memset，
+//     以及没有使用者的phi与ptradd
+//  2. 所有下标都在数组范围内，越界或者地址被传给函数、参与phi与向量访存时不做处理
+//  3. 每个被访问到的元素新建一个标量alloc，访存改为使用对应的alloc，memset改为对这些alloc逐个store 0
+//  下标在SCCP之后才是常量，完全展开的循环中的数组访问也在这里处理
+public class SROA implements Pass.IRPass {
+    //  元素个数超过上限的数组即使下标都是常量也留在栈上
+    private static final int MAX_ELEMENTS = 32;
+
+    @Override
+    public String getName() {
+        return "SROA";
+    }
+
+    //  只在已有的块中增删指令
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo, Analysis.CallGraph, Analysis.SideEffect);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            ArrayList<AllocInst> allocs = new ArrayList<>();
+            for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+                for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                    if (instNode.getValue() instanceof AllocInst allocInst && allocInst.isArray()
+                            && allocInst.getSize() <= MAX_ELEMENTS && !allocInst.getAllocType().isPointerType()) {
+                        allocs.add(allocInst);
+                    }
+                }
+            }
+            for (AllocInst allocInst : allocs) {
+                split(allocInst, function);
+            }
+        }
+    }
+
+    private void split(AllocInst allocInst, Function function) {
+        //  每条访存指令访问的元素，以及经过的ptradd
+        LinkedHashMap<Instruction, Integer> accesses = new LinkedHashMap<>();
+        ArrayList<PtrInst> ptrInsts = new ArrayList<>();
+        ArrayList<CallInst> memsets = new ArrayList<>();
+        LinkedHashSet<Instruction> deadInsts = new LinkedHashSet<>();
+        if (!collect(allocInst, 0, allocInst, accesses, ptrInsts, memsets, deadInsts)) return;
+
+        Type eleType = allocInst.getAllocType();
+        TreeMap<Integer, AllocInst> scalars = new TreeMap<>();
+        for (int index : accesses.values()) {
+            scalars.computeIfAbsent(index, k -> {
+                AllocInst scalar = new AllocInst(new PointerType(eleType));
+                scalar.insertToHead(function.getBbEntry());
+                return scalar;
+            });
+        }
+        for (Instruction inst : accesses.keySet()) {
+            AllocInst scalar = scalars.get(accesses.get(inst));
+            if (inst instanceof LoadInst loadInst) {
+                loadInst.replaceOperand(0, scalar);
+            } else {
+                ((StoreInst) inst).replaceOperand(1, scalar);
+            }
+        }
+        Value zero = eleType.isFloatTy() ? new ConstFloat(0) : new ConstInteger(0, IntegerType.I32);
+        for (CallInst memset : memsets) {
+            for (AllocInst scalar : scalars.values()) {
+                new StoreInst(zero, scalar).insertBefore(memset);
+            }
+            memset.removeSelf();
+        }
+        for (Instruction deadInst : deadInsts) {
+            deadInst.removeSelf();
+        }
+        //  内层的ptradd先于外层删除
+        for (int i = ptrInsts.size() - 1; i >= 0; i--) {
+            ptrInsts.get(i).removeSelf();
+        }
+        allocInst.removeSelf();
+    }
+
+    /**
+     * 收集pointer(指向数组的第offset个元素)的全部使用
+     * @return 所有使用都可以拆分时返回true
+     */
+    private boolean collect(Value pointer, int offset, AllocInst allocInst, LinkedHashMap<Instruction, Integer> accesses,
+                            ArrayList<PtrInst> ptrInsts, ArrayList<CallInst> memsets, LinkedHashSet<Instruction> deadInsts) {
+        for (User user : pointer.getUserList()) {
+            if (user instanceof PtrInst ptrInst && ptrInst.getTarget() == pointer
+                    && ptrInst.getOffset() instanceof ConstInteger c) {
+                ptrInsts.add(ptrInst);
+                if (!collect(ptrInst, offset + c.getValue(), allocInst, accesses, ptrInsts, memsets, deadInsts)) return false;
+            } else if (user instanceof LoadInst loadInst) {
+                if (offset < 0 || offset >= allocInst.getSize()) return false;
+                accesses.put(loadInst, offset);
+            } else if (user instanceof StoreInst storeInst && storeInst.getPointer() == pointer
+                    && storeInst.getValue() != pointer) {
+                if (offset < 0 || offset >= allocInst.getSize()) return false;
+                accesses.put(storeInst, offset);
+            } else if (user instanceof CallInst callInst && isFullMemset(callInst, allocInst) && pointer == allocInst) {
+                memsets.add(callInst);
+            } else if ((user instanceof Phi || user instanceof PtrInst) && user.getUserList().isEmpty()) {
+                //  循环展开后留下的末尾指针等死代码，随数组一起删除
+                deadInsts.add((Instruction) user);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //  memset(数组, 0, 数组字节数)
+    private static boolean isFullMemset(CallInst callInst, AllocInst allocInst) {
+        ArrayList<Value> params = callInst.getParams();
+        return callInst.getFunction().getName().equals("@memset") && params.get(0) == allocInst
+                && params.get(1) instanceof ConstInteger value && value.getValue() == 0
+                && params.get(2) instanceof ConstInteger bytes && bytes.getValue() == 4 * allocInst.getSize();
+    }
+}
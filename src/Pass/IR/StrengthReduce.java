@@ -0,0 +1,226 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.IRLoop;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  StrengthReduce把循环中的下标计算改写为每次迭代加一个常量的指针归纳变量
+//  1. 乘1、乘0直接替换，ptradd (ptradd p, c1), c2 合并为 ptradd p, c1 + c2
+//  2. 最内层循环中，地址为 target + iv * scale + key + offset 的ptradd，其中iv是每次加常量的基本归纳变量，
+//     target、key为循环不变量，按(target, iv, scale, key)分组，每组在循环头新建一个指针phi:
+//     初值在preheader中计算，latch中加上 step * scale，组内的访问变为 ptradd p, offset
+//  3. 原来的下标计算没有其他使用者时一并删除
+//  乘常量的移位/加法序列依赖AArch64的移位操作数，在指令选择中生成
+public class StrengthReduce implements Pass.IRPass {
+    //  每个循环新建的指针归纳变量个数上限，避免增加过多的寄存器压力
+    private static final int MAX_POINTER_IVS = 6;
+
+    //  下标为 iv * scale + key + offset，key是非常量的不变部分，为null表示没有
+    private record Affine(Phi iv, long scale, Value key, long offset) {}
+    private record Group(Value target, Phi iv, long scale, Value key) {}
+
+    @Override
+    public String getName() {
+        return "StrengthReduce";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree, Analysis.LoopInfo);
+    }
+
+    //  只在已有的块中增删指令；删去的乘1、乘0可能是循环记录的归纳变量初值或终值，LoopInfo需要重新计算
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG, Analysis.DomTree);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction()) continue;
+            simplify(function);
+            for (IRLoop loop : function.getAllLoops()) {
+                if (loop.getSubLoops().isEmpty()) {
+                    reduceLoop(loop);
+                }
+            }
+        }
+    }
+
+    private void simplify(Function function) {
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            ArrayList<Instruction> insts = new ArrayList<>();
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                insts.add(instNode.getValue());
+            }
+            for (Instruction inst : insts) {
+                if (inst instanceof BinaryInst binaryInst && binaryInst.getOp() == OP.Mul && !binaryInst.I64) {
+                    Value lhs = binaryInst.getLeftVal(), rhs = binaryInst.getRightVal();
+                    if (lhs instanceof ConstInteger) {
+                        Value tmp = lhs;
+                        lhs = rhs;
+                        rhs = tmp;
+                    }
+                    if (!(rhs instanceof ConstInteger c)) continue;
+                    if (c.getValue() == 1) {
+                        inst.replaceUsedWith(lhs);
+                        inst.removeSelf();
+                    } else if (c.getValue() == 0) {
+                        inst.replaceUsedWith(new ConstInteger(0, IntegerType.I32));
+                        inst.removeSelf();
+                    }
+                } else if (inst instanceof PtrInst ptrInst && ptrInst.getOffset() instanceof ConstInteger c2
+                        && ptrInst.getTarget() instanceof PtrInst inner && inner.getOffset() instanceof ConstInteger c1) {
+                    PtrInst merged = new PtrInst(inner.getTarget(), new ConstInteger(c1.getValue() + c2.getValue(), IntegerType.I32));
+                    merged.insertBefore(inst);
+                    inst.replaceUsedWith(merged);
+                    inst.removeSelf();
+                    removeIfDead(inner);
+                }
+            }
+        }
+    }
+
+    private static boolean isInvariant(Value value, IRLoop loop) {
+        return !(value instanceof Instruction inst) || !loop.getBbs().contains(inst.getParentbb());
+    }
+
+    private void reduceLoop(IRLoop loop) {
+        BasicBlock header = loop.getHead(), preHeader = loop.getPreHeader();
+        if (preHeader == null || loop.getLatchBlocks().size() != 1 || header.getPreBlocks().size() != 2) return;
+        BasicBlock latch = loop.getLatchBlocks().get(0);
+        int latchIdx = header.getPreBlocks().indexOf(latch);
+
+        //  基本归纳变量: 循环头中每次迭代加一个常量的phi
+        LinkedHashMap<Phi, Long> steps = new LinkedHashMap<>();
+        for (Phi phi : UtilFunc.getPhiInBb(header)) {
+            if (phi.getType() != IntegerType.I32) continue;
+            if (phi.getOperand(latchIdx) instanceof BinaryInst update && update.getOp() == OP.Add && !update.I64) {
+                if (update.getLeftVal() == phi && update.getRightVal() instanceof ConstInteger c) {
+                    steps.put(phi, (long) c.getValue());
+                } else if (update.getRightVal() == phi && update.getLeftVal() instanceof ConstInteger c) {
+                    steps.put(phi, (long) c.getValue());
+                }
+            }
+        }
+        if (steps.isEmpty()) return;
+
+        LinkedHashMap<Group, ArrayList<PtrInst>> groups = new LinkedHashMap<>();
+        LinkedHashMap<PtrInst, Long> offsets = new LinkedHashMap<>();
+        for (BasicBlock bb : loop.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getInsts()) {
+                if (!(instNode.getValue() instanceof PtrInst ptrInst) || !isInvariant(ptrInst.getTarget(), loop)) continue;
+                Affine affine = affineOf(ptrInst.getOffset(), loop, steps);
+                if (affine == null || affine.iv() == null || affine.scale() == 0) continue;
+                Value target = ptrInst.getTarget();
+                //  寄存器中的基址加上 iv * 4 可以直接折叠进寻址模式，没有可省去的计算
+                if (!(target instanceof GlobalVar || target instanceof AllocInst)
+                        && affine.scale() == 1 && affine.key() == null) continue;
+                Group group = new Group(target, affine.iv(), affine.scale(), affine.key());
+                if (!groups.containsKey(group) && groups.size() >= MAX_POINTER_IVS) continue;
+                groups.computeIfAbsent(group, k -> new ArrayList<>()).add(ptrInst);
+                offsets.put(ptrInst, affine.offset());
+            }
+        }
+
+        Instruction preTerm = preHeader.getLastInst();
+        Instruction latchTerm = latch.getLastInst();
+        for (Group group : groups.keySet()) {
+            //  preheader中计算 target + init * scale + key
+            Value start = group.iv().getOperand(1 - latchIdx);
+            if (group.scale() != 1) {
+                Instruction mul = new BinaryInst(OP.Mul, start, i32(group.scale()), IntegerType.I32);
+                mul.insertBefore(preTerm);
+                start = mul;
+            }
+            if (group.key() != null) {
+                Instruction add = new BinaryInst(OP.Add, start, group.key(), IntegerType.I32);
+                add.insertBefore(preTerm);
+                start = add;
+            }
+            PtrInst base = new PtrInst(group.target(), start);
+            base.insertBefore(preTerm);
+
+            ArrayList<Value> values = new ArrayList<>(List.of(base, base));
+            Phi pointer = new Phi(group.target().getType(), values);
+            pointer.insertToHead(header);
+            PtrInst next = new PtrInst(pointer, i32(steps.get(group.iv()) * group.scale()));
+            next.insertBefore(latchTerm);
+            pointer.replaceOperand(latchIdx, next);
+
+            for (PtrInst ptrInst : groups.get(group)) {
+                Value offset = ptrInst.getOffset();
+                long constOffset = offsets.get(ptrInst);
+                Value replacement = pointer;
+                if (constOffset != 0) {
+                    PtrInst newPtr = new PtrInst(pointer, i32(constOffset));
+                    newPtr.insertBefore(ptrInst);
+                    replacement = newPtr;
+                }
+                ptrInst.replaceUsedWith(replacement);
+                ptrInst.removeSelf();
+                removeIfDead(offset);
+            }
+        }
+    }
+
+    /**
+     * 把下标表示为 iv * scale + key + offset，iv为null时下标是循环不变量
+     * @return 无法表示时返回null
+     */
+    private Affine affineOf(Value value, IRLoop loop, LinkedHashMap<Phi, Long> steps) {
+        if (value instanceof ConstInteger c) return new Affine(null, 0, null, c.getValue());
+        if (isInvariant(value, loop)) return new Affine(null, 0, value, 0);
+        if (value instanceof Phi phi && steps.containsKey(phi)) return new Affine(phi, 1, null, 0);
+        if (!(value instanceof BinaryInst inst) || inst.I64) return null;
+        OP op = inst.getOp();
+        if (op != OP.Add && op != OP.Sub && op != OP.Mul) return null;
+        Affine lhs = affineOf(inst.getLeftVal(), loop, steps);
+        Affine rhs = affineOf(inst.getRightVal(), loop, steps);
+        if (lhs == null || rhs == null) return null;
+        if (op == OP.Mul) {
+            //  只有一侧是常量时才保持仿射，key乘常量需要新的指令
+            if (lhs.iv() == null && lhs.key() == null) {
+                Affine tmp = lhs;
+                lhs = rhs;
+                rhs = tmp;
+            }
+            if (rhs.iv() != null || rhs.key() != null || lhs.key() != null) return null;
+            return new Affine(lhs.iv(), lhs.scale() * rhs.offset(), null, lhs.offset() * rhs.offset());
+        }
+        if (op == OP.Sub) {
+            if (rhs.iv() != null || rhs.key() != null) return null;
+            return new Affine(lhs.iv(), lhs.scale(), lhs.key(), lhs.offset() - rhs.offset());
+        }
+        if (lhs.iv() != null && rhs.iv() != null) return null;
+        if (lhs.key() != null && rhs.key() != null) return null;
+        return new Affine(lhs.iv() != null ? lhs.iv() : rhs.iv(),
+                lhs.iv() != null ? lhs.scale() : rhs.scale(),
+                lhs.key() != null ? lhs.key() : rhs.key(),
+                lhs.offset() + rhs.offset());
+    }
+
+    //  删除不再使用的下标计算
+    private void removeIfDead(Value value) {
+        if (!(value instanceof Instruction inst) || !inst.getUserList().isEmpty()) return;
+        if (!(inst instanceof PtrInst) && !(inst instanceof BinaryInst binaryInst && !binaryInst.getOp().isCmpOP())) return;
+        ArrayList<Value> operands = new ArrayList<>(inst.getOperands());
+        inst.removeSelf();
+        for (Value operand : operands) {
+            removeIfDead(operand);
+        }
+    }
+
+    private static ConstInteger i32(long value) {
+        return new ConstInteger((int) value, IntegerType.I32);
+    }
+}
@@ -0,0 +1,196 @@
+package Pass.IR;
+
+import IR.IRModule;
+import IR.Type.IntegerType;
+import IR.Type.PointerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Pass.IR.Utils.UtilFunc;
+import Pass.Pass;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+//  TailRecursionElim把尾递归改写为循环，递归调用变为跳回循环头，参数由循环头的phi传递
+//  1. 尾调用: 对自身的调用之后紧跟返回该调用结果的ret(void函数为ret void)
+//  2. 累加器: ret x op f(...)，op为i32的加法或乘法，满足交换律与结合律，调用与累加之间只能有运算指令，
+//     循环头新增累加器phi，初值为op的单位元，每次跳回时变为 acc op x，其余的ret返回 acc op 原返回值
+//  3. 原来的入口块成为循环头，新建的入口块只含alloc与跳转
+//  实参中有本函数局部数组的地址时，调用者的栈帧仍被使用，不能复用，不做处理
+//  会被Memoize记忆化的函数(如fib)不做累加器的改写，记忆化的收益远大于减少一半的调用
+public class TailRecursionElim implements Pass.IRPass {
+    //  一个尾调用点: 调用、紧跟的累加运算(没有时为null)与ret
+    private record TailCall(CallInst call, BinaryInst accumulate, RetInst ret) {}
+
+    @Override
+    public String getName() {
+        return "TailRecursionElim";
+    }
+
+    @Override
+    public EnumSet<Analysis> getRequired() {
+        return EnumSet.of(Analysis.CFG, Analysis.LoopInfo, Analysis.SideEffect);
+    }
+
+    //  重建了CFG，调用关系与支配树都已改变
+    @Override
+    public EnumSet<Analysis> getPreserved() {
+        return EnumSet.of(Analysis.CFG);
+    }
+
+    @Override
+    public void run(IRModule module) {
+        for (Function function : module.functions()) {
+            if (function.isLibFunction() || !function.getBbEntry().getPreBlocks().isEmpty()) continue;
+            ArrayList<TailCall> tailCalls = findTailCalls(function, Memoize.canMemoize(function));
+            if (tailCalls.isEmpty()) continue;
+            eliminate(function, tailCalls);
+            function.istailrecursive = true;
+        }
+    }
+
+    /**
+     * @param memoizable 函数会被Memoize记忆化时，不做累加器的改写，保留树形递归交给Memoize处理
+     */
+    private static ArrayList<TailCall> findTailCalls(Function function, boolean memoizable) {
+        ArrayList<TailCall> tailCalls = new ArrayList<>();
+        //  所有带累加的尾调用必须使用同一种运算
+        OP accOp = null;
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            if (!(bbNode.getValue().getLastInst() instanceof RetInst ret)) continue;
+            Instruction prev = prevInst(ret);
+            BinaryInst accumulate = null;
+            if (!ret.isVoid() && prev instanceof BinaryInst binaryInst && binaryInst == ret.getValue()
+                    && isAccumulateOp(binaryInst) && binaryInst.getUserList().size() == 1) {
+                accumulate = binaryInst;
+                //  调用与累加之间可以有只做运算的指令，如 f(n - 1) + n % 7 中的取余
+                prev = prevInst(binaryInst);
+                while (prev != null && !(prev instanceof CallInst) && isArithmetic(prev)) {
+                    prev = prevInst(prev);
+                }
+            }
+            if (!(prev instanceof CallInst call) || call.getFunction() != function) continue;
+            if (accumulate != null) {
+                if (memoizable) continue;
+                if (accumulate.getLeftVal() != call && accumulate.getRightVal() != call) continue;
+                if (accumulate.getLeftVal() == accumulate.getRightVal() || call.getUserList().size() != 1) continue;
+                if (accOp != null && accOp != accumulate.getOp()) continue;
+                accOp = accumulate.getOp();
+            } else if (!ret.isVoid() && (ret.getValue() != call || call.getUserList().size() != 1)) {
+                continue;
+            }
+            if (passesLocalAddress(call)) continue;
+            tailCalls.add(new TailCall(call, accumulate, ret));
+        }
+        return tailCalls;
+    }
+
+    private static boolean isAccumulateOp(BinaryInst inst) {
+        return (inst.getOp() == OP.Add || inst.getOp() == OP.Mul) && !inst.I64 && inst.getType() == IntegerType.I32;
+    }
+
+    private static boolean isArithmetic(Instruction inst) {
+        return inst instanceof BinaryInst || inst instanceof ConversionInst || inst instanceof PtrInst;
+    }
+
+    private static boolean passesLocalAddress(CallInst call) {
+        for (Value param : call.getParams()) {
+            if (!(param.getType() instanceof PointerType)) continue;
+            Value base = param;
+            while (true) {
+                if (base instanceof PtrInst ptrInst) base = ptrInst.getTarget();
+                else if (base instanceof PtrSubInst ptrSubInst) base = ptrSubInst.getTarget();
+                else break;
+            }
+            if (base instanceof AllocInst) return true;
+        }
+        return false;
+    }
+
+    private static Instruction prevInst(Instruction inst) {
+        IList.INode<Instruction, BasicBlock> prev = inst.getNode().getPrev();
+        return prev == null ? null : prev.getValue();
+    }
+
+    private void eliminate(Function function, ArrayList<TailCall> tailCalls) {
+        BasicBlock header = function.getBbEntry();
+        ArrayList<Argument> args = function.getArgs();
+
+        //  参数的使用全部改为循环头的phi，phi的来源在重建CFG之后按前驱顺序填入
+        ArrayList<Phi> argPhis = new ArrayList<>();
+        for (Argument arg : args) {
+            Phi phi = new Phi(arg.getType(), new ArrayList<>());
+            for (User user : new ArrayList<>(arg.getUserList())) {
+                user.replaceOperand(arg, phi);
+            }
+            argPhis.add(phi);
+        }
+        OP accOp = null;
+        for (TailCall tailCall : tailCalls) {
+            if (tailCall.accumulate() != null) accOp = tailCall.accumulate().getOp();
+        }
+        Phi accPhi = accOp == null ? null : new Phi(IntegerType.I32, new ArrayList<>());
+
+        //  每个尾调用所在的块跳回循环头时各个phi的取值
+        LinkedHashMap<BasicBlock, ArrayList<Value>> incomings = new LinkedHashMap<>();
+        for (TailCall tailCall : tailCalls) {
+            BasicBlock bb = tailCall.ret().getParentbb();
+            CallInst call = tailCall.call();
+            ArrayList<Value> values = new ArrayList<>(call.getParams());
+            if (accPhi != null) {
+                Value acc = accPhi;
+                if (tailCall.accumulate() != null) {
+                    BinaryInst accumulate = tailCall.accumulate();
+                    Value other = accumulate.getLeftVal() == call ? accumulate.getRightVal() : accumulate.getLeftVal();
+                    Instruction next = new BinaryInst(accOp, accPhi, other, IntegerType.I32);
+                    next.insertBefore(tailCall.ret());
+                    acc = next;
+                }
+                values.add(acc);
+            }
+            incomings.put(bb, values);
+
+            tailCall.ret().removeSelf();
+            if (tailCall.accumulate() != null) tailCall.accumulate().removeSelf();
+            call.removeSelf();
+            bb.addInst(new BrInst(header));
+        }
+
+        //  其余的ret返回 acc op 原返回值
+        if (accPhi != null) {
+            for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+                if (!(bbNode.getValue().getLastInst() instanceof RetInst ret)) continue;
+                Instruction result = new BinaryInst(accOp, accPhi, ret.getValue(), IntegerType.I32);
+                result.insertBefore(ret);
+                ret.replaceOperand(0, result);
+            }
+        }
+
+        BasicBlock entry = new BasicBlock(function);
+        entry.insertBefore(header);
+        ArrayList<Instruction> allocs = new ArrayList<>();
+        for (IList.INode<Instruction, BasicBlock> instNode : header.getInsts()) {
+            if (instNode.getValue() instanceof AllocInst) allocs.add(instNode.getValue());
+        }
+        for (Instruction alloc : allocs) {
+            alloc.removeFromBb();
+            entry.addInst(alloc);
+        }
+        entry.addInst(new BrInst(header));
+        UtilFunc.makeCFG(function);
+
+        for (BasicBlock pre : header.getPreBlocks()) {
+            for (int i = 0; i < args.size(); i++) {
+                argPhis.get(i).addOperand(pre == entry ? args.get(i) : incomings.get(pre).get(i));
+            }
+            if (accPhi != null) {
+                accPhi.addOperand(pre == entry ? new ConstInteger(accOp == OP.Add ? 0 : 1, IntegerType.I32)
+                        : incomings.get(pre).get(args.size()));
+            }
+        }
+        if (accPhi != null) accPhi.insertToHead(header);
+        for (int i = args.size() - 1; i >= 0; i--) {
+            argPhis.get(i).insertToHead(header);
+        }
+    }
+}
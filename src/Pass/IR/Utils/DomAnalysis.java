@@ -0,0 +1,208 @@
+package Pass.IR.Utils;
+
+import IR.Value.BasicBlock;
+import IR.Value.Function;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+public class DomAnalysis {
+    /**
+     * 计算函数的支配关系，并回写到Function与BasicBlock中：
+     * domer(支配者集合)、doming(被支配集合)、idoms(支配树子节点)、df(支配边界)以及domLV(支配树深度)。
+     * 结果缓存在Function上，只有UtilFunc.makeCFG发现CFG变化后才会重新计算。
+     * 调用前需保证CFG已经通过UtilFunc.makeCFG构建。
+     * @param function 需要分析的函数
+     */
+    public static void run(Function function) {
+        if (function.isDomInfoValid()) {
+            return;
+        }
+        ArrayList<BasicBlock> rpo = getRPO(function);
+        BasicBlock entry = function.getBbEntry();
+        LinkedHashMap<BasicBlock, Integer> rpoIdx = new LinkedHashMap<>();
+        for (int i = 0; i < rpo.size(); i++) {
+            rpoIdx.put(rpo.get(i), i);
+        }
+
+        //  Cooper-Harvey-Kennedy: 按逆后序迭代，用支配树上的求交代替集合运算
+        int[] idom = new int[rpo.size()];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.size(); i++) {
+                int newIdom = -1;
+                for (BasicBlock preBb : rpo.get(i).getPreBlocks()) {
+                    Integer p = rpoIdx.get(preBb);
+                    if (p == null || idom[p] == -1) continue;
+                    newIdom = newIdom == -1 ? p : intersect(idom, p, newIdom);
+                }
+                if (idom[i] != newIdom) {
+                    idom[i] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> idoms = new LinkedHashMap<>();
+        LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> df = new LinkedHashMap<>();
+        //  不可达基本块不参与支配关系，只保留空的记录
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            idoms.put(bb, new ArrayList<>());
+            df.put(bb, new ArrayList<>());
+            bb.setIdominator(null);
+        }
+        for (int i = 1; i < rpo.size(); i++) {
+            idoms.get(rpo.get(idom[i])).add(rpo.get(i));
+        }
+
+        //  支配边界: 对每个汇合点沿前驱的支配树向上走到其直接支配者为止
+        for (int i = 1; i < rpo.size(); i++) {
+            BasicBlock bb = rpo.get(i);
+            if (bb.getPreBlocks().size() < 2) continue;
+            for (BasicBlock preBb : bb.getPreBlocks()) {
+                Integer runner = rpoIdx.get(preBb);
+                if (runner == null) continue;
+                while (runner != idom[i]) {
+                    ArrayList<BasicBlock> runnerDF = df.get(rpo.get(runner));
+                    if (runnerDF.isEmpty() || runnerDF.get(runnerDF.size() - 1) != bb) {
+                        runnerDF.add(bb);
+                    }
+                    runner = idom[runner];
+                }
+            }
+        }
+
+        function.setIdoms(idoms);
+        entry.setIdominator(null);
+        function.setDF(df);
+        calcDomLV(entry);
+        //  domer/doming的规模与支配树深度成正比，由Function在第一次访问时调用buildDomSets构建
+        function.setDomer(null);
+        function.doming = null;
+        function.setDomInfoValid(true);
+    }
+
+    /**
+     * 由支配树构建domer与doming集合
+     * @param function 已经完成run的函数
+     */
+    public static void buildDomSets(Function function) {
+        LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> domer = new LinkedHashMap<>();
+        LinkedHashMap<BasicBlock, LinkedHashSet<BasicBlock>> doming = new LinkedHashMap<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            domer.put(bb, new LinkedHashSet<>());
+            doming.put(bb, new LinkedHashSet<>());
+        }
+        //  先序遍历支配树，直接支配者的集合总是先于自己构建
+        Stack<BasicBlock> stack = new Stack<>();
+        stack.push(function.getBbEntry());
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            if (bb.getIdominator() != null) {
+                domer.get(bb).addAll(domer.get(bb.getIdominator()));
+            }
+            domer.get(bb).add(bb);
+            for (BasicBlock d : domer.get(bb)) {
+                doming.get(d).add(bb);
+            }
+            for (BasicBlock child : bb.getIdoms()) {
+                stack.push(child);
+            }
+        }
+        function.setDomer(domer);
+        function.doming = doming;
+    }
+
+    private static int intersect(int[] idom, int a, int b) {
+        while (a != b) {
+            while (a > b) a = idom[a];
+            while (b > a) b = idom[b];
+        }
+        return a;
+    }
+
+    private static void calcDomLV(BasicBlock entry) {
+        Stack<BasicBlock> stack = new Stack<>();
+        entry.setDomLV(0);
+        stack.push(entry);
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            for (BasicBlock child : bb.getIdoms()) {
+                child.setDomLV(bb.getDomLV() + 1);
+                stack.push(child);
+            }
+        }
+    }
+
+    /**
+     * a是否支配b，沿支配树从b向上走到与a同一深度，需要先调用run
+     */
+    public static boolean dominates(BasicBlock a, BasicBlock b) {
+        while (b != null && b.getDomLV() > a.getDomLV()) {
+            b = b.getIdominator();
+        }
+        return b == a;
+    }
+
+    /**
+     * 从入口出发的逆后序，不可达基本块不会出现在结果中
+     * @param function 目标函数
+     * @return 逆后序排列的基本块
+     */
+    public static ArrayList<BasicBlock> getRPO(Function function) {
+        ArrayList<BasicBlock> postOrder = new ArrayList<>();
+        LinkedHashSet<BasicBlock> visited = new LinkedHashSet<>();
+        Stack<BasicBlock> stack = new Stack<>();
+        Stack<Integer> nxtIdx = new Stack<>();
+        BasicBlock entry = function.getBbEntry();
+        visited.add(entry);
+        stack.push(entry);
+        nxtIdx.push(0);
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.peek();
+            int idx = nxtIdx.pop();
+            if (idx < bb.getNxtBlocks().size()) {
+                nxtIdx.push(idx + 1);
+                BasicBlock nxt = bb.getNxtBlocks().get(idx);
+                if (!visited.contains(nxt)) {
+                    visited.add(nxt);
+                    stack.push(nxt);
+                    nxtIdx.push(0);
+                }
+            } else {
+                stack.pop();
+                postOrder.add(bb);
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    /**
+     * 删除从入口不可达的基本块，删除后会重新构建CFG
+     * @param function 目标函数
+     * @return 是否删除了基本块
+     */
+    public static boolean removeUnreachableBlocks(Function function) {
+        LinkedHashSet<BasicBlock> reachable = new LinkedHashSet<>(getRPO(function));
+        ArrayList<BasicBlock> deadBbs = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            BasicBlock bb = bbNode.getValue();
+            if (!reachable.contains(bb)) {
+                deadBbs.add(bb);
+            }
+        }
+        for (BasicBlock bb : deadBbs) {
+            bb.removeSelf();
+        }
+        if (!deadBbs.isEmpty()) {
+            UtilFunc.makeCFG(function);
+        }
+        return !deadBbs.isEmpty();
+    }
+}
@@ -91,6 +91,21 @@ public class IRLoop {
         return header;
     }
 
+    /**
+     * 获取循环的preheader：循环外唯一的前驱，且它只跳转到循环头
+     * @return preheader，不存在时为null
+     */
+    public BasicBlock getPreHeader() {
+        LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(bbs);
+        BasicBlock preHeader = null;
+        for (BasicBlock preBb : header.getPreBlocks()) {
+            if (body.contains(preBb)) continue;
+            if (preHeader != null || preBb.getNxtBlocks().size() != 1) return null;
+            preHeader = preBb;
+        }
+        return preHeader;
+    }
+
     /**
      * 判断当前循环是否有父循环
      * @return 如果有父循环则返回true，否则返回false
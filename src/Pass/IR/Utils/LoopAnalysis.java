@@ -0,0 +1,226 @@
+package Pass.IR.Utils;
+
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+public class LoopAnalysis {
+    /**
+     * 基于支配树识别自然循环并构建循环嵌套树，回写到Function的loopInfo、topLoops、allLoops以及BasicBlock.loop中。
+     * 对isSimpleLoop的循环识别归纳变量，三个参数都是常量时计算循环次数。
+     * 只依赖CFG与支配树，代价与基本块数和回边数成正比，每次循环变换后都可以重新运行。
+     * @param function 需要分析的函数，调用前需保证CFG与支配树有效
+     */
+    public static void run(Function function) {
+        LinkedHashMap<BasicBlock, IRLoop> loopMap = new LinkedHashMap<>();
+        ArrayList<IRLoop> allLoops = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            bbNode.getValue().setLoop(null);
+        }
+
+        //  支配树后序保证内层循环的头先于外层被处理
+        ArrayList<BasicBlock> postOrder = domTreePostOrder(function);
+        LinkedHashSet<BasicBlock> reachable = new LinkedHashSet<>(postOrder);
+        for (BasicBlock header : postOrder) {
+            Stack<BasicBlock> worklist = new Stack<>();
+            IRLoop loop = null;
+            for (BasicBlock preBb : header.getPreBlocks()) {
+                if (reachable.contains(preBb) && DomAnalysis.dominates(header, preBb)) {
+                    if (loop == null) loop = new IRLoop(header);
+                    loop.addLatchBlock(preBb);
+                    worklist.push(preBb);
+                }
+            }
+            if (loop == null) continue;
+            loopMap.put(header, loop);
+            allLoops.add(loop);
+
+            //  从latch逆向遍历到循环头，遇到已属于内层循环的块时跳到其最外层循环的头
+            while (!worklist.isEmpty()) {
+                BasicBlock bb = worklist.pop();
+                IRLoop subLoop = loopMap.get(bb);
+                if (subLoop == null) {
+                    loopMap.put(bb, loop);
+                    loop.addBlock(bb);
+                    for (BasicBlock preBb : bb.getPreBlocks()) {
+                        if (reachable.contains(preBb)) worklist.push(preBb);
+                    }
+                    continue;
+                }
+                while (subLoop.getParentLoop() != null) {
+                    subLoop = subLoop.getParentLoop();
+                }
+                if (subLoop == loop) continue;
+                subLoop.setParentLoop(loop);
+                loop.addSubLoop(subLoop);
+                for (BasicBlock preBb : subLoop.getHead().getPreBlocks()) {
+                    if (reachable.contains(preBb)) worklist.push(preBb);
+                }
+            }
+        }
+
+        //  内层循环先于外层创建，按创建顺序把子循环的块并入父循环
+        ArrayList<IRLoop> topLoops = new ArrayList<>();
+        for (IRLoop loop : allLoops) {
+            if (loop.getParentLoop() != null) {
+                for (BasicBlock bb : loop.getBbs()) {
+                    loop.getParentLoop().addBlock(bb);
+                }
+            } else {
+                topLoops.add(loop);
+            }
+        }
+        for (IRLoop loop : allLoops) {
+            LinkedHashSet<BasicBlock> body = new LinkedHashSet<>(loop.getBbs());
+            for (BasicBlock bb : loop.getBbs()) {
+                for (BasicBlock nxtBb : bb.getNxtBlocks()) {
+                    if (!body.contains(nxtBb)) {
+                        loop.addExitingBlock(bb);
+                        loop.addExitBlock(nxtBb);
+                    }
+                }
+            }
+            if (loop.isSimpleLoop()) {
+                findIndVar(loop, body);
+            }
+        }
+
+        //  外层循环排在前面，便于由外向内遍历
+        Collections.reverse(allLoops);
+        Collections.reverse(topLoops);
+        function.setLoopInfo(loopMap);
+        function.setTopLoops(topLoops);
+        function.setAllLoops(allLoops);
+    }
+
+    private static ArrayList<BasicBlock> domTreePostOrder(Function function) {
+        ArrayList<BasicBlock> postOrder = new ArrayList<>();
+        Stack<BasicBlock> stack = new Stack<>();
+        LinkedHashSet<BasicBlock> expanded = new LinkedHashSet<>();
+        stack.push(function.getBbEntry());
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.peek();
+            if (expanded.contains(bb)) {
+                stack.pop();
+                postOrder.add(bb);
+                continue;
+            }
+            expanded.add(bb);
+            for (BasicBlock child : bb.getIdoms()) {
+                stack.push(child);
+            }
+        }
+        return postOrder;
+    }
+
+    private static boolean isInvariant(Value value, LinkedHashSet<BasicBlock> body) {
+        if (value instanceof Instruction inst) {
+            return !body.contains(inst.getParentbb());
+        }
+        return true;
+    }
+
+    /**
+     * 识别形如 i = phi [init, preHeader], [i op step, latch]; br (i cmp end) 的归纳变量，
+     * 其中init、step、end都是循环不变量，cmp的结果可能再经过一次与0的比较
+     */
+    private static void findIndVar(IRLoop loop, LinkedHashSet<BasicBlock> body) {
+        BasicBlock header = loop.getHead();
+        if (!(header.getLastInst() instanceof BrInst brInst) || brInst.isJump()) return;
+        if (!(brInst.getJudVal() instanceof BinaryInst cond) || !cond.getOp().isCmpOP()) return;
+        if ((cond.getOp() == OP.Ne || cond.getOp() == OP.Eq)
+                && cond.getRightVal() instanceof ConstInteger zero && zero.getValue() == 0
+                && cond.getLeftVal() instanceof BinaryInst inner && inner.getOp().isCmpOP()) {
+            //  (cmp != 0)与cmp等价，(cmp == 0)在计算次数时取反
+            if (cond.getOp() == OP.Eq) return;
+            cond = inner;
+        }
+
+        OP op = cond.getOp();
+        if (op.isFloat()) return;
+        Value left = cond.getLeftVal(), right = cond.getRightVal();
+        if (!(left instanceof Phi)) {
+            Value tmp = left;
+            left = right;
+            right = tmp;
+            op = swapCmp(op);
+        }
+        if (!(left instanceof Phi phi) || phi.getParentbb() != header || !isInvariant(right, body)) return;
+
+        int latchIdx = header.getPreBlocks().indexOf(loop.getLatchBlocks().get(0));
+        Value itInit = phi.getOperand(1 - latchIdx);
+        if (!(phi.getOperand(latchIdx) instanceof BinaryInst itAlu)) return;
+        Value itStep;
+        if (itAlu.getLeftVal() == phi) {
+            itStep = itAlu.getRightVal();
+        } else if (itAlu.getRightVal() == phi && itAlu.getOp() != OP.Sub) {
+            itStep = itAlu.getLeftVal();
+        } else {
+            return;
+        }
+        if (!isInvariant(itStep, body)) return;
+        loop.setIndInfo(phi, right, itInit, itAlu, itStep, cond);
+
+        //  条件为真时留在循环内
+        boolean stayOnTrue = body.contains(brInst.getTrueBlock());
+        loop.setItTimes(-1);
+        if (itInit instanceof ConstInteger init && right instanceof ConstInteger end
+                && itStep instanceof ConstInteger step) {
+            OP stayOp = stayOnTrue ? op : negateCmp(op);
+            long s = switch (itAlu.getOp()) {
+                case Add -> step.getValue();
+                case Sub -> -(long) step.getValue();
+                default -> 0;
+            };
+            if (s != 0 && stayOp != null) {
+                loop.setItTimes(tripCount(stayOp, init.getValue(), end.getValue(), s));
+            }
+        }
+    }
+
+    /**
+     * 从init开始每次加step，在 (i stayOp end) 成立时继续，计算循环体执行的次数
+     * @return 循环次数，无法确定(不终止或溢出)时为-1
+     */
+    public static int tripCount(OP stayOp, long init, long end, long step) {
+        long count;
+        switch (stayOp) {
+            case Lt -> count = init >= end ? 0 : step <= 0 ? -1 : (end - init + step - 1) / step;
+            case Le -> count = init > end ? 0 : step <= 0 ? -1 : (end - init) / step + 1;
+            case Gt -> count = init <= end ? 0 : step >= 0 ? -1 : (init - end - step - 1) / -step;
+            case Ge -> count = init < end ? 0 : step >= 0 ? -1 : (init - end) / -step + 1;
+            case Ne -> count = (end - init) % step == 0 && (end - init) / step >= 0 ? (end - init) / step : -1;
+            case Eq -> count = init != end ? 0 : 1;
+            default -> count = -1;
+        }
+        if (count < 0 || count > Integer.MAX_VALUE) return -1;
+        //  最后一次更新后的值仍需在int范围内，否则比较结果会因为回绕而不同
+        long last = init + count * step;
+        if (last > Integer.MAX_VALUE || last < Integer.MIN_VALUE) return -1;
+        return (int) count;
+    }
+
+    public static OP swapCmp(OP op) {
+        return switch (op) {
+            case Lt -> OP.Gt;
+            case Gt -> OP.Lt;
+            case Le -> OP.Ge;
+            case Ge -> OP.Le;
+            default -> op;
+        };
+    }
+
+    private static OP negateCmp(OP op) {
+        return switch (op) {
+            case Lt -> OP.Ge;
+            case Ge -> OP.Lt;
+            case Le -> OP.Gt;
+            case Gt -> OP.Le;
+            case Eq -> OP.Ne;
+            case Ne -> OP.Eq;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,172 @@
+package Pass.IR.Utils;
+
+import IR.IRModule;
+import IR.Type.PointerType;
+import IR.Value.*;
+import IR.Value.Instructions.*;
+import Utils.DataStruct.IList;
+
+import java.util.*;
+
+public class SideEffectAnalysis {
+    //  调用了输入输出等库函数，这类副作用不体现在读写的内存上
+    private static final LinkedHashSet<Function> ioFuncs = new LinkedHashSet<>();
+
+    /**
+     * 自底向上计算每个函数读写的内存，回写到Function的mayHasSideEffect、storeGV、storeArg、loadArg、loadGVs、storeGVs中。
+     * 在调用图(UtilFunc.buildCallRelation)的强连通分量上按被调用者优先的顺序处理，分量内迭代到不动点，
+     * 据此函数分为三类: 纯函数(isPure)、只读函数(只读取全局变量或参数数组)与有副作用的函数。
+     * 库函数(输入输出、计时、并行运行时)都视为有副作用；只访问本函数局部数组的读写不影响分类，
+     * 对被调用者写入的参数数组，按实参的基址计入调用者的全局变量、参数数组或局部数组。
+     * @param module 需要分析的模块，调用前需保证调用关系有效
+     */
+    public static void run(IRModule module) {
+        ioFuncs.clear();
+        for (Function function : module.libFunctions()) {
+            function.setMayHasSideEffect(true);
+            ioFuncs.add(function);
+        }
+        for (ArrayList<Function> scc : getSCCs(module)) {
+            for (Function function : scc) {
+                function.setMayHasSideEffect(false);
+                function.setStoreGV(false);
+                function.setStoreArg(false);
+                function.setLoadArg(false);
+                function.getLoadGVs().clear();
+                function.getStoreGVs().clear();
+            }
+            //  分量内的效果只增不减，迭代到不动点即可处理递归
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Function function : scc) {
+                    changed |= analyze(function);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按被调用者优先的顺序给出调用图的强连通分量(Tarjan)
+     */
+    private static ArrayList<ArrayList<Function>> getSCCs(IRModule module) {
+        ArrayList<ArrayList<Function>> sccs = new ArrayList<>();
+        LinkedHashMap<Function, Integer> index = new LinkedHashMap<>();
+        LinkedHashMap<Function, Integer> lowLink = new LinkedHashMap<>();
+        Stack<Function> stack = new Stack<>();
+        LinkedHashSet<Function> onStack = new LinkedHashSet<>();
+        for (Function function : module.functions()) {
+            if (!function.isLibFunction() && !index.containsKey(function)) {
+                tarjan(function, index, lowLink, stack, onStack, sccs);
+            }
+        }
+        return sccs;
+    }
+
+    private static void tarjan(Function function, LinkedHashMap<Function, Integer> index,
+                               LinkedHashMap<Function, Integer> lowLink, Stack<Function> stack,
+                               LinkedHashSet<Function> onStack, ArrayList<ArrayList<Function>> sccs) {
+        index.put(function, index.size());
+        lowLink.put(function, index.get(function));
+        stack.push(function);
+        onStack.add(function);
+        for (Function callee : function.getCalleeList()) {
+            if (!index.containsKey(callee)) {
+                tarjan(callee, index, lowLink, stack, onStack, sccs);
+                lowLink.put(function, Math.min(lowLink.get(function), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(function, Math.min(lowLink.get(function), index.get(callee)));
+            }
+        }
+        if (lowLink.get(function).equals(index.get(function))) {
+            ArrayList<Function> scc = new ArrayList<>();
+            Function member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                scc.add(member);
+            } while (member != function);
+            sccs.add(scc);
+        }
+    }
+
+    /**
+     * 把函数体中的读写合并进函数的效果
+     * @return 效果是否发生了变化
+     */
+    private static boolean analyze(Function function) {
+        String before = summary(function);
+        for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+            for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getInsts()) {
+                Instruction inst = instNode.getValue();
+                if (inst instanceof StoreInst storeInst) {
+                    addAccess(function, storeInst.getPointer(), true);
+                } else if (inst instanceof VStoreInst vStoreInst) {
+                    addAccess(function, vStoreInst.getPointer(), true);
+                } else if (inst instanceof LoadInst loadInst) {
+                    addAccess(function, loadInst.getPointer(), false);
+                } else if (inst instanceof VLoadInst vLoadInst) {
+                    addAccess(function, vLoadInst.getPointer(), false);
+                } else if (inst instanceof CallInst callInst) {
+                    addCall(function, callInst);
+                }
+            }
+        }
+        if (function.isStoreGV() || function.isStoreArg()) {
+            function.setMayHasSideEffect(true);
+        }
+        return !before.equals(summary(function));
+    }
+
+    private static void addCall(Function function, CallInst callInst) {
+        Function callee = callInst.getFunction();
+        if (ioFuncs.contains(callee)) {
+            ioFuncs.add(function);
+            function.setMayHasSideEffect(true);
+            return;
+        }
+        for (GlobalVar globalVar : callee.getStoreGVs()) {
+            function.addStoreGV(globalVar);
+            function.setStoreGV(true);
+        }
+        for (GlobalVar globalVar : callee.getLoadGVs()) {
+            function.addLoadGV(globalVar);
+        }
+        for (Value param : callInst.getParams()) {
+            if (!(param.getType() instanceof PointerType)) continue;
+            if (callee.isStoreArg()) addAccess(function, param, true);
+            if (callee.isLoadArg()) addAccess(function, param, false);
+        }
+    }
+
+    //  按地址的基址记录一次读写，const全局数组的读取不影响分类
+    private static void addAccess(Function function, Value pointer, boolean isStore) {
+        Value base = getBase(pointer);
+        if (base instanceof AllocInst) return;
+        if (base instanceof GlobalVar globalVar) {
+            if (isStore) {
+                function.addStoreGV(globalVar);
+                function.setStoreGV(true);
+            } else if (!globalVar.isConst()) {
+                function.addLoadGV(globalVar);
+            }
+        } else if (isStore) {
+            function.setStoreArg(true);
+        } else {
+            function.setLoadArg(true);
+        }
+    }
+
+    private static String summary(Function function) {
+        return function.isMayHasSideEffect() + " " + function.isStoreArg() + " " + function.isLoadArg()
+                + " " + function.getLoadGVs().size() + " " + function.getStoreGVs().size();
+    }
+
+    private static Value getBase(Value pointer) {
+        while (true) {
+            if (pointer instanceof PtrInst ptrInst) pointer = ptrInst.getTarget();
+            else if (pointer instanceof PtrSubInst ptrSubInst) pointer = ptrSubInst.getTarget();
+            else return pointer;
+        }
+    }
+}
@@ -1,12 +1,11 @@
 package Pass.IR.Utils;
 
 import IR.IRModule;
+import IR.Type.VectorType;
 import IR.Value.BasicBlock;
 import IR.Value.Function;
-import IR.Value.Instructions.BrInst;
-import IR.Value.Instructions.CallInst;
-import IR.Value.Instructions.Instruction;
-import IR.Value.Instructions.Phi;
+import IR.Value.Instructions.*;
+import IR.Value.Value;
 import Utils.DataStruct.IList;
 
 import java.util.ArrayList;
@@ -16,9 +15,11 @@ public class UtilFunc {
     /**
      * 构建指定函数的基本块控制流图（CFG）。
      * 对每个基本块，计算其前驱和后继基本块，并回写到基本块对象中。
+     * 若CFG与上一次构建时不同，则令函数上缓存的支配信息失效。
      * @param function 需要构建CFG的函数
+     * @return CFG是否发生了变化
      */
-    public static void makeCFG(Function function){
+    public static boolean makeCFG(Function function){
         // 前驱和后继基本块映射表
         LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> preMap = new LinkedHashMap<>();
         LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> nxtMap = new LinkedHashMap<>();
@@ -60,6 +61,19 @@ public class UtilFunc {
             bb.setPreBlocks(preMap.get(bb));
             bb.setNxtBlocks(nxtMap.get(bb));
         }
+
+        // 与上一次的后继关系比较，基本块的增删和跳转目标的变化都会体现在其中
+        if (nxtMap.equals(function.getCfgSnapshot())) {
+            return false;
+        }
+        // 基本块会直接持有并修改nxtMap中的列表，快照需要单独拷贝
+        LinkedHashMap<BasicBlock, ArrayList<BasicBlock>> snapshot = new LinkedHashMap<>();
+        for (BasicBlock bb : nxtMap.keySet()) {
+            snapshot.put(bb, new ArrayList<>(nxtMap.get(bb)));
+        }
+        function.setCfgSnapshot(snapshot);
+        function.setDomInfoValid(false);
+        return true;
     }
 
     public static void makeCFG(ArrayList<BasicBlock> bbs){
@@ -122,6 +136,65 @@ public class UtilFunc {
         }
     }
 
+    /**
+     * 克隆一条指令，操作数与跳转目标按映射表替换，不在映射表中的保持原值。
+     * phi克隆为空的phi，操作数需要调用者在所有定义克隆完成后回填。
+     * @param inst 被克隆的指令
+     * @param valueMap 原值到克隆值的映射
+     * @param bbMap 原基本块到克隆基本块的映射
+     * @return 尚未插入任何基本块的新指令
+     */
+    public static Instruction cloneInst(Instruction inst, LinkedHashMap<Value, Value> valueMap,
+                                           LinkedHashMap<BasicBlock, BasicBlock> bbMap) {
+        ArrayList<Value> ops = new ArrayList<>();
+        for (Value operand : inst.getOperands()) {
+            ops.add(valueMap.getOrDefault(operand, operand));
+        }
+        if (inst instanceof BinaryInst binaryInst) {
+            BinaryInst newInst = new BinaryInst(inst.getOp(), ops.get(0), ops.get(1), inst.getType());
+            newInst.I64 = binaryInst.I64;
+            return newInst;
+        } else if (inst instanceof ConversionInst) {
+            return new ConversionInst(ops.get(0), inst.getType(), inst.getOp());
+        } else if (inst instanceof LoadInst) {
+            return new LoadInst(ops.get(0), inst.getType());
+        } else if (inst instanceof StoreInst storeInst) {
+            StoreInst newInst = new StoreInst(ops.get(0), ops.get(1));
+            if (storeInst.isInitArrayInst()) newInst.setAsInitArrayInst();
+            return newInst;
+        } else if (inst instanceof AllocInst allocInst) {
+            AllocInst newInst = allocInst.isArray()
+                    ? new AllocInst(inst.getType(), allocInst.getSize()) : new AllocInst(inst.getType());
+            newInst.setConst(allocInst.isConst());
+            newInst.setInitValues(allocInst.getInitValues());
+            return newInst;
+        } else if (inst instanceof CallInst callInst) {
+            return new CallInst(callInst.getFunction(), ops);
+        } else if (inst instanceof PtrInst) {
+            return new PtrInst(ops.get(0), ops.get(1));
+        } else if (inst instanceof PtrSubInst) {
+            return new PtrSubInst(ops.get(0), ops.get(1));
+        } else if (inst instanceof BrInst brInst) {
+            if (brInst.isJump()) {
+                return new BrInst(bbMap.get(brInst.getJumpBlock()));
+            }
+            return new BrInst(ops.get(0), bbMap.get(brInst.getTrueBlock()), bbMap.get(brInst.getFalseBlock()));
+        } else if (inst instanceof Phi) {
+            return new Phi(inst.getType(), new ArrayList<>());
+        } else if (inst instanceof VLoadInst) {
+            return new VLoadInst(ops.get(0), (VectorType) inst.getType());
+        } else if (inst instanceof VStoreInst) {
+            return new VStoreInst(ops.get(0), ops.get(1));
+        } else if (inst instanceof VBinaryInst) {
+            return new VBinaryInst(inst.getOp(), ops.get(0), ops.get(1), (VectorType) inst.getType());
+        } else if (inst instanceof VSplatInst) {
+            return new VSplatInst(ops.get(0));
+        } else if (inst instanceof VReduceInst reduceInst) {
+            return new VReduceInst(reduceInst.getReduceOp(), ops.get(0));
+        }
+        throw new RuntimeException("cloneInst: unsupported instruction " + inst.getOp());
+    }
+
     public static ArrayList<Phi> getAllPhiInBbs(ArrayList<BasicBlock> bbs){
         ArrayList<Phi> phiArrayList = new ArrayList<>();
         for (BasicBlock bb : bbs) {
@@ -2,9 +2,27 @@ package Pass;
 
 import IR.IRModule;
 
+import java.util.EnumSet;
+
 public interface Pass {
     String getName();
 
+    //  PassManager缓存的分析结果
+    enum Analysis {
+        CFG, DomTree, CallGraph, LoopInfo,
+        SideEffect // Function.mayHasSideEffect
+    }
+
+    //  pass运行前需要准备好的分析
+    default EnumSet<Analysis> getRequired() {
+        return EnumSet.noneOf(Analysis.class);
+    }
+
+    //  pass运行后仍然有效的分析，未声明的都会被丢弃
+    default EnumSet<Analysis> getPreserved() {
+        return EnumSet.noneOf(Analysis.class);
+    }
+
     interface IRPass extends Pass{
         void run(IRModule module);
     }
@@ -0,0 +1,180 @@
+package Pass;
+
+import Driver.Config;
+import IR.IRModule;
+import IR.Value.BasicBlock;
+import IR.Value.Function;
+import Pass.IR.DCE;
+import Pass.IR.FunctionInline;
+import Pass.IR.GVN;
+import Pass.IR.GlobalLocalize;
+import Pass.IR.LICM;
+import Pass.IR.LoopUnroll;
+import Pass.IR.LoopVectorize;
+import Pass.IR.Mem2Reg;
+import Pass.IR.Memoize;
+import Pass.IR.Parallelize;
+import Pass.IR.RemovePhi;
+import Pass.IR.SROA;
+import Pass.IR.SCCP;
+import Pass.IR.StrengthReduce;
+import Pass.IR.TailRecursionElim;
+import Pass.IR.Utils.DomAnalysis;
+import Pass.IR.Utils.LoopAnalysis;
+import Pass.IR.Utils.SideEffectAnalysis;
+import Pass.IR.Utils.UtilFunc;
+import Utils.DataStruct.IList;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+//  PassManager按-O1/-O2组织中端pass流水线
+//  1. pass运行前准备其声明需要的分析(CFG、支配树、调用图)，已经有效的分析不会重复计算
+//  2. pass运行后丢弃其没有声明保留的分析
+//  3. 开启-time-passes时输出每个pass的耗时以及前后的IR规模
+public class PassManager {
+    private static final PassManager passManager = new PassManager();
+
+    private final ArrayList<Pass.IRPass> irPasses = new ArrayList<>();
+    private final EnumSet<Pass.Analysis> validAnalyses = EnumSet.noneOf(Pass.Analysis.class);
+
+    private PassManager() {}
+
+    public static PassManager getInstance() {
+        return passManager;
+    }
+
+    private void buildPipeline() {
+        irPasses.clear();
+        if (Config.isO1) {
+            irPasses.add(new Mem2Reg());
+            //  尾递归变为循环后函数不再递归，可以被内联
+            irPasses.add(new TailRecursionElim());
+            irPasses.add(new FunctionInline());
+            irPasses.add(new SCCP());
+            irPasses.add(new GVN());
+            irPasses.add(new DCE(false));
+            irPasses.add(new LICM());
+            //  全局变量局部化依赖LICM插入的preheader，改写出的局部变量与SROA拆出的标量再做一次Mem2Reg
+            irPasses.add(new GlobalLocalize());
+            irPasses.add(new SROA());
+            irPasses.add(new Mem2Reg());
+            if (Config.isO2) {
+                irPasses.add(new Parallelize());
+            }
+            irPasses.add(new LoopVectorize());
+            irPasses.add(new StrengthReduce());
+            irPasses.add(new LoopUnroll());
+            //  展开后逐次相加的指针合并为相对同一个指针的常量偏移
+            irPasses.add(new StrengthReduce());
+            //  完全展开后归纳变量变为常量，再做一次常量传播与冗余消除
+            irPasses.add(new SCCP());
+            //  展开后下标为常量的小数组拆成标量，提升到寄存器
+            irPasses.add(new SROA());
+            irPasses.add(new Mem2Reg());
+            irPasses.add(new GVN());
+            irPasses.add(new DCE(true));
+            //  记忆化放在最后，表的读写不会妨碍前面对纯函数调用的优化
+            irPasses.add(new Memoize());
+        }
+        //  消去phi是进入后端前的必要步骤，所有优化等级都需要
+        irPasses.add(new RemovePhi());
+    }
+
+    public void run(IRModule module) {
+        buildPipeline();
+        validAnalyses.clear();
+        for (Pass.IRPass irPass : irPasses) {
+            runPass(irPass, module);
+        }
+    }
+
+    public void runPass(Pass.IRPass irPass, IRModule module) {
+        for (Pass.Analysis analysis : irPass.getRequired()) {
+            require(analysis, module);
+        }
+
+        int instsBefore = 0, bbsBefore = 0;
+        if (Config.timePasses) {
+            instsBefore = countInsts(module);
+            bbsBefore = countBbs(module);
+        }
+        long startTime = System.nanoTime();
+        irPass.run(module);
+        long endTime = System.nanoTime();
+
+        EnumSet<Pass.Analysis> preserved = irPass.getPreserved();
+        for (Pass.Analysis analysis : EnumSet.allOf(Pass.Analysis.class)) {
+            if (!preserved.contains(analysis)) {
+                invalidate(analysis, module);
+            }
+        }
+
+        if (Config.timePasses) {
+            System.err.printf("[%-16s] %9.3f ms  insts %6d -> %-6d  bbs %5d -> %d%n",
+                    irPass.getName(), (endTime - startTime) / 1e6,
+                    instsBefore, countInsts(module), bbsBefore, countBbs(module));
+        }
+    }
+
+    public void require(Pass.Analysis analysis, IRModule module) {
+        if (validAnalyses.contains(analysis)) {
+            return;
+        }
+        switch (analysis) {
+            case CFG -> {
+                for (Function function : module.functions()) {
+                    if (function.isLibFunction()) continue;
+                    UtilFunc.makeCFG(function);
+                }
+            }
+            case DomTree -> {
+                require(Pass.Analysis.CFG, module);
+                for (Function function : module.functions()) {
+                    if (function.isLibFunction()) continue;
+                    DomAnalysis.run(function);
+                }
+            }
+            case CallGraph -> UtilFunc.buildCallRelation(module);
+            case SideEffect -> {
+                require(Pass.Analysis.CallGraph, module);
+                SideEffectAnalysis.run(module);
+            }
+            case LoopInfo -> {
+                require(Pass.Analysis.DomTree, module);
+                for (Function function : module.functions()) {
+                    if (function.isLibFunction()) continue;
+                    LoopAnalysis.run(function);
+                }
+            }
+        }
+        validAnalyses.add(analysis);
+    }
+
+    public void invalidate(Pass.Analysis analysis, IRModule module) {
+        validAnalyses.remove(analysis);
+        if (analysis == Pass.Analysis.DomTree) {
+            for (Function function : module.functions()) {
+                function.setDomInfoValid(false);
+            }
+        }
+    }
+
+    private int countInsts(IRModule module) {
+        int count = 0;
+        for (Function function : module.functions()) {
+            for (IList.INode<BasicBlock, Function> bbNode : function.getBbs()) {
+                count += bbNode.getValue().getInsts().getSize();
+            }
+        }
+        return count;
+    }
+
+    private int countBbs(IRModule module) {
+        int count = 0;
+        for (Function function : module.functions()) {
+            count += function.getBbs().getSize();
+        }
+        return count;
+    }
+}